@@ -17,11 +17,6 @@
 package com.google.code.play;
 
 import java.io.File;
-import java.util.List;
-
-import org.apache.maven.artifact.Artifact;
-import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugins.annotations.Parameter;
 
 import org.apache.tools.ant.BuildLogger;
 import org.apache.tools.ant.NoBannerLogger;
@@ -39,13 +34,6 @@ public abstract class AbstractAntJavaBasedPlayMojo
     extends AbstractDependencyProcessingPlayMojo
 {
 
-    /**
-     * List of artifacts this plugin depends on.
-     * 
-     */
-    @Parameter( property = "plugin.artifacts", required = true, readonly = true )
-    private List<Artifact> pluginArtifacts;
-
     /**
      * Internal runnable wrapper for Ant Java task.
      */
@@ -56,6 +44,8 @@ public abstract class AbstractAntJavaBasedPlayMojo
 
         private Exception exception;
 
+        private boolean finished;
+
         public JavaRunnable( Java java )
         {
             this.java = java;
@@ -71,6 +61,11 @@ public abstract class AbstractAntJavaBasedPlayMojo
             return result;
         }
 
+        public synchronized boolean isFinished()
+        {
+            return finished;
+        }
+
         public void run()
         {
             try
@@ -84,6 +79,13 @@ public abstract class AbstractAntJavaBasedPlayMojo
                     this.exception = e;
                 }
             }
+            finally
+            {
+                synchronized ( this )
+                {
+                    this.finished = true;
+                }
+            }
         }
     }
 
@@ -124,26 +126,4 @@ public abstract class AbstractAntJavaBasedPlayMojo
         java.addSysproperty( sysPropPlayHome );
     }
 
-    protected Artifact getPluginArtifact( String groupId, String artifactId, String type )
-        throws MojoExecutionException
-    {
-        Artifact result = null;
-        for ( Artifact artifact : pluginArtifacts )
-        {
-            if ( artifact.getGroupId().equals( groupId ) && artifact.getArtifactId().equals( artifactId )
-                && type.equals( artifact.getType() ) )
-            {
-                result = artifact;
-                break;
-            }
-        }
-        if ( result == null )
-        {
-            throw new MojoExecutionException(
-                                              String.format( "Unable to locate '%s:%s' in the list of plugin artifacts",
-                                                             groupId, artifactId ) );
-        }
-        return result;
-    }
-
 }
@@ -19,18 +19,34 @@ package com.google.code.play;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
-import org.codehaus.plexus.archiver.ArchiveEntry;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.archiver.Archiver;
-import org.codehaus.plexus.archiver.ResourceIterator;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
 import org.codehaus.plexus.archiver.war.WarArchiver;
 import org.codehaus.plexus.archiver.zip.ZipArchiver;
-import org.codehaus.plexus.components.io.resources.PlexusIoResource;
 import org.codehaus.plexus.util.FileUtils;
-import org.codehaus.plexus.util.io.RawInputStreamFacade;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Base class for Play&#33; packaging mojos.
@@ -40,6 +56,12 @@ import org.codehaus.plexus.util.io.RawInputStreamFacade;
 public abstract class AbstractArchivingMojo
     extends AbstractDependencyProcessingPlayMojo
 {
+    // "modules/name-version/conf/routes", also in application and web application directories
+    private static final Pattern MODULE_ROUTES_PATTERN = Pattern.compile( "^(?:.*/)?modules/([^/]+)/conf/routes$" );
+
+    // "2015-06-01T12:00:00Z", "2015-06-01T12:00:00.000+02:00"
+    private static final Pattern OUTPUT_TIMESTAMP_PATTERN =
+        Pattern.compile( "(\\d{4})-(\\d{2})-(\\d{2})T(\\d{2}):(\\d{2}):(\\d{2})(?:\\.\\d+)?(?:Z|(([+-])(\\d{2}):?(\\d{2})))?" );
 
     /**
      * To look up Archiver/UnArchiver implementations.
@@ -48,51 +70,1002 @@ public abstract class AbstractArchivingMojo
     @Component
     private ArchiverManager archiverManager;
 
-    protected void expandArchive( Archiver archiver, File destDirectory )
+    /**
+     * Plugin version, recorded in archive input fingerprints.
+     */
+    @Parameter( defaultValue = "${plugin.version}", readonly = true )
+    private String pluginVersion;
+
+    /**
+     * Number of threads writing files when synchronizing exploded directories.
+     * Available processors count is used if not positive.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.syncThreads", defaultValue = "0" )
+    private int syncThreads;
+
+    /**
+     * Create archive even if its inputs did not change since previous build.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.forceArchive", defaultValue = "false" )
+    private boolean forceArchive;
+
+    /**
+     * Write reproducible archives: the same inputs produce byte-identical archive files. Entries are written
+     * in path order with parent directory entries, with the same modification time (see "outputTimestamp"
+     * parameter), Unix file modes are normalized ({@code 0755} for directories and executable files,
+     * {@code 0644} for other files).
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.reproducible", defaultValue = "false" )
+    private boolean reproducible;
+
+    /**
+     * Entry modification time of reproducible archives, ISO 8601 date and time ("2015-06-01T12:00:00Z")
+     * or number of seconds since the epoch. If not set, 1980-01-01 00:00:00 (UTC) is used.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( defaultValue = "${project.build.outputTimestamp}" )
+    private String outputTimestamp;
+
+    /**
+     * Write archive size report ("play/size/&lt;archive file name&gt;.txt" file in build directory).
+     * Archive size is broken down by content groups: framework, every module, every library,
+     * application code, public assets, runtime image. Uncompressed and compressed sizes
+     * and entry counts are reported. The report is written also if "sizeBaseline"
+     * or "sizeBudgets" parameter is set.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.sizeReport", defaultValue = "false" )
+    private boolean sizeReport;
+
+    /**
+     * Directory containing size reports of the baseline build (copy of "play/size" build directory).
+     * Size changes are added to reports of archives present in the baseline.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.sizeBaseline", defaultValue = "" )
+    private String sizeBaseline;
+
+    /**
+     * Comma separated archive size budgets, "group=size" pairs. Group names are the ones used in size
+     * report ("total", "framework", "module &lt;name&gt;", "library &lt;file name&gt;", "application",
+     * "public assets", "runtime"), can contain "*" wildcards. Sizes can have "KB", "MB" or "GB" suffix.
+     * Compressed sizes are checked, for tar.gz archives uncompressed sizes (except "total").
+     * The build fails if any budget is exceeded. For example "total=60MB,library *=5MB".
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.sizeBudgets", defaultValue = "" )
+    private String sizeBudgets;
+
+    /**
+     * Creates archive unless it exists and its inputs did not change.
+     * 
+     * @param entryIndex archive entry index
+     * @param destFile archive file
+     */
+    protected void createArchive( ArchiveEntryIndex entryIndex, File destFile )
+        throws IOException
+    {
+        Archiver archiver = entryIndex.getArchiver();
+        if ( reproducible && archiver instanceof WarArchiver )
+        {
+            addWarManifest( entryIndex );
+        }
+        if ( !isOutputUpToDate( entryIndex, destFile ) )
+        {
+            if ( reproducible )
+            {
+                Map<File, Collection<ArchiveEntryIndex.Entry>> archives =
+                    Collections.singletonMap( destFile, entryIndex.getEntries() );
+                createMultiZipWriter( 0 ).write( archives, new File( project.getBuild().getDirectory(),
+                                                                      "play/tmp/archive-spool.tmp" ) );
+            }
+            else
+            {
+                archiver.setDestFile( destFile );
+                archiver.createArchive();
+            }
+            saveInputFingerprint( entryIndex, destFile );
+        }
+    }
+
+    /**
+     * Adds manifest to WAR entry index, if not present. WAR archiver adds it itself, writers
+     * not using the archiver ({@link MultiZipWriter}) write indexed entries only.
+     */
+    protected void addWarManifest( ArchiveEntryIndex entryIndex )
+        throws IOException
+    {
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( "META-INF/MANIFEST.MF".equals( entry.getName() ) )
+            {
+                return;
+            }
+        }
+        File manifestFile = new File( project.getBuild().getDirectory(), "play/tmp/MANIFEST.MF" );
+        writeGeneratedFile( manifestFile, "Manifest-Version: 1.0\r\nCreated-By: Maven Play! Plugin\r\n\r\n" );
+        entryIndex.indexFile( manifestFile, "META-INF/MANIFEST.MF" );
+    }
+
+    protected boolean isReproducible()
+    {
+        return reproducible;
+    }
+
+    /**
+     * Creates multiple zip files writer, configured for reproducible output if enabled.
+     * 
+     * @param threads number of threads, available processors count if not positive
+     */
+    protected MultiZipWriter createMultiZipWriter( int threads )
+        throws IOException
+    {
+        MultiZipWriter result = new MultiZipWriter( threads );
+        if ( reproducible )
+        {
+            result.setEntryTime( toZipEntryTime( getReproducibleTime() ) );
+            result.setNormalizeModes( true );
+        }
+        return result;
+    }
+
+    /**
+     * Creates tar.gz file writer, configured for reproducible output if enabled.
+     * 
+     * @param threads number of compressing threads, available processors count if not positive
+     */
+    protected TarGzWriter createTarGzWriter( int threads )
+        throws IOException
+    {
+        TarGzWriter result = new TarGzWriter( threads );
+        if ( reproducible )
+        {
+            result.setEntryTime( getReproducibleTime() );
+            result.setNormalizeModes( true );
+        }
+        return result;
+    }
+
+    /**
+     * Creates zip file writer, configured for reproducible output if enabled.
+     */
+    protected ReproducibleZipWriter createReproducibleZipWriter()
+        throws IOException
+    {
+        ReproducibleZipWriter result = new ReproducibleZipWriter();
+        if ( reproducible )
+        {
+            result.setEntryTime( toZipEntryTime( getReproducibleTime() ) );
+            result.setNormalizeModes( true );
+        }
+        return result;
+    }
+
+    // "outputTimestamp" parameter value in milliseconds, 1980-01-01T00:00:00Z if not set
+    private long getReproducibleTime()
+        throws IOException
+    {
+        // single character disables reproducible timestamp in Maven plugins
+        if ( outputTimestamp == null || outputTimestamp.trim().length() < 2 )
+        {
+            return 315532800000L;
+        }
+        String value = outputTimestamp.trim();
+        if ( value.matches( "\\d+" ) )
+        {
+            return Long.parseLong( value ) * 1000L;
+        }
+        Matcher matcher = OUTPUT_TIMESTAMP_PATTERN.matcher( value );
+        if ( !matcher.matches() )
+        {
+            throw new IOException( String.format( "Invalid \"outputTimestamp\" value \"%s\", expected ISO 8601 date and time (\"2015-06-01T12:00:00Z\") or number of seconds since the epoch",
+                                                  value ) );
+        }
+        Calendar calendar = new GregorianCalendar( TimeZone.getTimeZone( "GMT" ) );
+        calendar.clear();
+        calendar.set( Integer.parseInt( matcher.group( 1 ) ), Integer.parseInt( matcher.group( 2 ) ) - 1,
+                      Integer.parseInt( matcher.group( 3 ) ), Integer.parseInt( matcher.group( 4 ) ),
+                      Integer.parseInt( matcher.group( 5 ) ), Integer.parseInt( matcher.group( 6 ) ) );
+        long result = calendar.getTimeInMillis();
+        if ( matcher.group( 7 ) != null )
+        {
+            int offsetMinutes = Integer.parseInt( matcher.group( 8 ) ) * 60 + Integer.parseInt( matcher.group( 9 ) );
+            result -= ( matcher.group( 7 ).startsWith( "-" ) ? -offsetMinutes : offsetMinutes ) * 60000L;
+        }
+        return result;
+    }
+
+    /**
+     * Returns modification time of file packed by writers of this mojo and unpacked in the same time zone
+     * (zip entry times are local date and time with two seconds precision, tar entry times are seconds).
+     * 
+     * @param lastModified packed file modification time
+     * @param tarGz tar.gz format ({@link TarGzWriter})
+     * @param fixedTime zip file written by {@link MultiZipWriter} or {@link ReproducibleZipWriter}, all entries
+     *                  have the same time
+     */
+    protected long getUnpackedTime( long lastModified, boolean tarGz, boolean fixedTime )
         throws IOException
     {
-        for ( ResourceIterator iter = archiver.getResources(); iter.hasNext(); )
+        if ( tarGz )
+        {
+            long time = reproducible ? getReproducibleTime() : lastModified;
+            return time - time % 1000L;
+        }
+        long time = lastModified;
+        if ( reproducible )
+        {
+            time = toZipEntryTime( getReproducibleTime() );
+        }
+        else if ( fixedTime )
+        {
+            time = ReproducibleZipWriter.DEFAULT_ENTRY_TIME;
+        }
+        else if ( System.getProperty( "java.specification.version" ).matches( "1\\.[5-7]" ) )
+        {
+            time += 1999L; // archiver rounds times up on Java 7 and older
+        }
+        return time - time % 2000L;
+    }
+
+    // zip entry times are local date and time fields, the same in every time zone for reproducible output
+    private static long toZipEntryTime( long time )
+    {
+        Calendar utc = new GregorianCalendar( TimeZone.getTimeZone( "GMT" ) );
+        utc.setTimeInMillis( time );
+        return new GregorianCalendar( utc.get( Calendar.YEAR ), utc.get( Calendar.MONTH ),
+                                      utc.get( Calendar.DAY_OF_MONTH ), utc.get( Calendar.HOUR_OF_DAY ),
+                                      utc.get( Calendar.MINUTE ), utc.get( Calendar.SECOND ) ).getTimeInMillis();
+    }
+
+    /**
+     * Creates archive entry index with parameters common for all archives (plugin version,
+     * reproducible archive settings) recorded in input fingerprint.
+     * 
+     * @param archiver archiver entries are added to
+     */
+    protected ArchiveEntryIndex createEntryIndex( Archiver archiver )
+    {
+        ArchiveEntryIndex entryIndex = new ArchiveEntryIndex( archiver );
+        entryIndex.addParameter( "pluginVersion", pluginVersion );
+        if ( reproducible )
         {
-            ArchiveEntry entry = iter.next();
-            String name = entry.getName();
-            name = name.replace( File.separatorChar, '/' );
-            File destFile = new File( destDirectory, name );
+            entryIndex.addParameter( "reproducible", outputTimestamp != null ? outputTimestamp : "" );
+        }
+        return entryIndex;
+    }
+
+    /**
+     * Checks if output file exists and its input fingerprint, stored in
+     * "&lt;output file name&gt;.inputs" file next to it, did not change.
+     * If not, the stored fingerprint is deleted, it will be saved again
+     * after successful output generation.
+     * 
+     * @param entryIndex archive entry index
+     * @param destFile output file
+     */
+    protected boolean isOutputUpToDate( ArchiveEntryIndex entryIndex, File destFile )
+        throws IOException
+    {
+        File fingerprintFile = getFingerprintFile( destFile );
+        String fingerprint = new InputFingerprint( entryIndex ).getValue();
+        if ( !forceArchive && destFile.isFile() && fingerprintFile.isFile()
+            && fingerprint.equals( readFileFirstLine( fingerprintFile ) ) )
+        {
+            getLog().info( String.format( "\"%s\" is up to date, its inputs did not change (fingerprint %s)",
+                                          destFile.getName(), fingerprint ) );
+            return true;
+        }
+
+        if ( fingerprintFile.isFile() && !fingerprintFile.delete() )
+        {
+            throw new IOException( String.format( "Cannot delete \"%s\" file", fingerprintFile.getAbsolutePath() ) );
+        }
+        return false;
+    }
+
+    protected void saveInputFingerprint( ArchiveEntryIndex entryIndex, File destFile )
+        throws IOException
+    {
+        writeToFile( getFingerprintFile( destFile ), new InputFingerprint( entryIndex ).getValue() );
+    }
+
+    private File getFingerprintFile( File destFile )
+    {
+        return new File( destFile.getPath() + ".inputs" );
+    }
+
+    /**
+     * Writes generated file, only if its content changed (modification time of unchanged file is kept,
+     * so outputs containing it stay up to date).
+     * 
+     * @param file generated file
+     * @param content file content
+     */
+    protected void writeGeneratedFile( File file, String content )
+        throws IOException
+    {
+        if ( !file.isFile() || !content.equals( FileUtils.fileRead( file, "UTF-8" ) ) )
+        {
+            FileUtils.forceMkdir( file.getAbsoluteFile().getParentFile() );
+            FileUtils.fileWrite( file, "UTF-8", content );
+        }
+    }
 
-            PlexusIoResource resource = entry.getResource();
-            boolean skip = false;
-            if ( destFile.exists() )
+    /**
+     * Writes zip file with given entries (see {@link #createReproducibleZipWriter}), if its content changed.
+     * Unchanged file keeps its modification time, so fingerprints of outputs containing it do not change.
+     * 
+     * @param entries zip file entries
+     * @param file zip file
+     */
+    protected void writeGeneratedArchive( Collection<ArchiveEntryIndex.Entry> entries, File file )
+        throws IOException
+    {
+        File tmpFile = new File( file.getPath() + ".tmp" );
+        createReproducibleZipWriter().write( entries, tmpFile );
+        if ( file.isFile() && FileUtils.contentEquals( tmpFile, file ) )
+        {
+            FileUtils.forceDelete( tmpFile );
+        }
+        else
+        {
+            FileUtils.rename( tmpFile, file );
+        }
+    }
+
+    /**
+     * Adds library registering "play12-extensions" library's plugins reading files generated by this mojo
+     * (class index, route table, etc.). The library contains only "play.plugins" file, so the plugins are
+     * not registered in applications not using these build features. The build fails if "play12-extensions"
+     * library is not an application dependency, the output would contain files the application cannot load
+     * without the plugins (for example precompiled classes packed into one archive).
+     * 
+     * @param entryIndex archive entry index
+     * @param playPlugins "play.plugins" entries, nothing is added if empty
+     * @param libPath libraries directory path in the archive, for example "application/lib/"
+     * @param name library file name prefix
+     */
+    protected void addExtensionPlugins( ArchiveEntryIndex entryIndex, List<String> playPlugins, String libPath,
+                                        String name )
+        throws IOException, MojoExecutionException
+    {
+        if ( playPlugins.isEmpty() )
+        {
+            return;
+        }
+        if ( !isExtensionsDependency() )
+        {
+            throw new MojoExecutionException( String.format( "\"play12-extensions\" library is not an application dependency, cannot register plugins required by enabled packaging features: %s",
+                                                             StringUtils.join( playPlugins.iterator(), ", " ) ) );
+        }
+
+        File pluginsDirectory = new File( project.getBuild().getDirectory(), "play/extension-plugins/" + name );
+        File pluginsFile = new File( pluginsDirectory, "play.plugins" );
+        writeGeneratedFile( pluginsFile, StringUtils.join( playPlugins.iterator(), "\n" ) + "\n" );
+        ArchiveEntryIndex pluginsIndex = new ArchiveEntryIndex( entryIndex.getArchiver() );
+        pluginsIndex.indexFile( pluginsFile, "play.plugins" );
+        File pluginsJarFile = new File( pluginsDirectory, "play-extension-plugins.jar" );
+        writeGeneratedArchive( pluginsIndex.getEntries(), pluginsJarFile );
+        entryIndex.addFile( pluginsJarFile, libPath + name + "-extension-plugins.jar" );
+    }
+
+    /**
+     * Synchronizes directory content with indexed archive entries.
+     * 
+     * @param entryIndex archive entry index
+     * @param destDirectory synchronized directory
+     * @param syncId synchronization identifier, used to locate list of files written in previous synchronization
+     * @param deleteUnknownFiles delete all files not present in index, not only the ones written
+     *                           in previous synchronization
+     */
+    protected void expandArchive( ArchiveEntryIndex entryIndex, File destDirectory, String syncId,
+                                  boolean deleteUnknownFiles )
+        throws IOException
+    {
+        File manifestFile = new File( project.getBuild().getDirectory(), "play/sync/" + syncId + ".txt" );
+        ArchiveSynchronizer synchronizer =
+            new ArchiveSynchronizer( destDirectory, manifestFile, deleteUnknownFiles, syncThreads );
+        synchronizer.synchronize( entryIndex );
+        getLog().info( String.format( "%d file(s) copied, %d file(s) up to date, %d stale file(s) deleted",
+                                      synchronizer.getCopiedCount(), synchronizer.getSkippedCount(),
+                                      synchronizer.getDeletedCount() ) );
+    }
+    
+    /**
+     * Finds application libraries not reachable from application classes.
+     * 
+     * Roots are precompiled application classes and templates, class names found in application
+     * configuration files, all jar files already added to the index (framework and modules libraries)
+     * and classes matching keep patterns. Report is written to "play/shrink/&lt;reportName&gt;.txt"
+     * file in build directory.
+     * 
+     * @param entryIndex archive entry index, containing framework and modules libraries
+     * @param libraryArtifacts application libraries, candidates for removal
+     * @param keepPatterns comma separated class name patterns (for example "org.postgresql.**")
+     * @param reportName report file name
+     * @return unreachable application libraries
+     */
+    protected Set<Artifact> findUnreachableLibraries( ArchiveEntryIndex entryIndex, Set<Artifact> libraryArtifacts,
+                                                      String keepPatterns, String reportName )
+        throws IOException
+    {
+        Set<Artifact> result = new HashSet<Artifact>();
+
+        File baseDir = project.getBasedir();
+        File precompiledDir = new File( baseDir, "precompiled" );
+        if ( !precompiledDir.isDirectory() )
+        {
+            getLog().warn( "\"precompiled\" directory does not exist, libraries shrinking skipped."
+                               + " Run \"mvn play:precompile\" first." );
+            return result;
+        }
+
+        ClassReachabilityAnalyzer analyzer = new ClassReachabilityAnalyzer();
+        analyzer.addRootDirectory( precompiledDir );
+        File[] confFiles = new File( baseDir, "conf" ).listFiles();
+        if ( confFiles != null )
+        {
+            for ( File confFile : confFiles )
             {
-                long resLastModified = resource.getLastModified();
-                if ( resLastModified != PlexusIoResource.UNKNOWN_MODIFICATION_DATE )
+                if ( confFile.isFile() )
                 {
-                    long destFileLastModified = destFile.lastModified(); // TODO-use this
-                    if ( resLastModified <= destFileLastModified )
-                    {
-                        skip = true;
-                    }
+                    analyzer.addRootTextFile( confFile );
                 }
             }
+        }
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( !entry.isDirectory() && !entry.isArchiveEntry() && entry.getName().endsWith( ".jar" ) )
+            {
+                analyzer.addRootJar( entry.getFile() );
+            }
+        }
+        // "play12-extensions" library's plugins are registered later, see "addExtensionPlugins"
+        analyzer.addKeepPattern( "com.google.code.play.plugins.*" );
+        if ( keepPatterns != null )
+        {
+            for ( String keepPattern : keepPatterns.split( "," ) )
+            {
+                if ( keepPattern.trim().length() > 0 )
+                {
+                    analyzer.addKeepPattern( keepPattern );
+                }
+            }
+        }
+        Map<String, Artifact> sortedArtifacts = new TreeMap<String, Artifact>();
+        for ( Artifact artifact : libraryArtifacts )
+        {
+            analyzer.addCandidateJar( artifact.getFile() );
+            sortedArtifacts.put( artifact.getId(), artifact );
+        }
+        analyzer.analyze();
+
+        StringBuilder report = new StringBuilder( "# status\tartifact\tclasses\n" );
+        for ( Artifact artifact : sortedArtifacts.values() )
+        {
+            boolean reachable = analyzer.isReachable( artifact.getFile() );
+            if ( !reachable )
+            {
+                result.add( artifact );
+            }
+            report.append( reachable ? "kept" : "removed" ).append( '\t' ).append( artifact.getId() ).append( '\t' );
+            report.append( analyzer.getClassCount( artifact.getFile() ) ).append( '\n' );
+        }
+        File reportFile = new File( project.getBuild().getDirectory(), "play/shrink/" + reportName + ".txt" );
+        FileUtils.forceMkdir( reportFile.getParentFile() );
+        FileUtils.fileWrite( reportFile, "UTF-8", report.toString() );
+        getLog().info( String.format( "%d of %d application libraries not reachable, removed (report: %s)",
+                                      result.size(), libraryArtifacts.size(), reportFile.getAbsolutePath() ) );
+        return result;
+    }
+
+    /**
+     * Writes archive size report (see {@link ArchiveSizeAnalyzer}), if enabled, and checks size budgets.
+     * 
+     * @param archiveFile distribution or WAR archive file
+     */
+    protected void checkArchiveSize( File archiveFile )
+        throws IOException, MojoExecutionException
+    {
+        boolean baseline = sizeBaseline != null && sizeBaseline.trim().length() > 0;
+        boolean budgets = sizeBudgets != null && sizeBudgets.trim().length() > 0;
+        if ( !sizeReport && !baseline && !budgets )
+        {
+            return;
+        }
 
-            if ( !skip )
+        ArchiveSizeAnalyzer analyzer = new ArchiveSizeAnalyzer();
+        analyzer.analyze( archiveFile );
+        String baselineReport = null;
+        if ( baseline )
+        {
+            File baselineReportFile = new File( sizeBaseline.trim(), archiveFile.getName() + ".txt" );
+            if ( baselineReportFile.isFile() )
             {
-                switch ( entry.getType() )
+                baselineReport = FileUtils.fileRead( baselineReportFile, "UTF-8" );
+            }
+            else
+            {
+                getLog().warn( String.format( "Baseline size report \"%s\" not found",
+                                              baselineReportFile.getAbsolutePath() ) );
+            }
+        }
+        File reportFile = new File( project.getBuild().getDirectory(), "play/size/" + archiveFile.getName() + ".txt" );
+        writeGeneratedFile( reportFile, analyzer.getReport( baselineReport ) );
+        getLog().info( String.format( "\"%s\": %d bytes, %d bytes uncompressed, %d content groups (report: %s)",
+                                      archiveFile.getName(), analyzer.getTotalCompressedSize(),
+                                      analyzer.getTotalSize(), analyzer.getGroupCount(),
+                                      reportFile.getAbsolutePath() ) );
+
+        if ( budgets )
+        {
+            List<String> exceeded = analyzer.checkBudgets( sizeBudgets );
+            for ( String message : exceeded )
+            {
+                getLog().error( message );
+            }
+            if ( !exceeded.isEmpty() )
+            {
+                throw new MojoExecutionException( String.format( "\"%s\" exceeds %d size budget(s), see \"%s\" report",
+                                                                 archiveFile.getName(), exceeded.size(),
+                                                                 reportFile.getAbsolutePath() ) );
+            }
+        }
+    }
+
+    /**
+     * Finds classes present in more than one library and libraries present in more than one version
+     * (see {@link DuplicateClassAnalyzer}). Report with libraries dependency paths is written
+     * to "play/duplicates/&lt;reportName&gt;.txt" file in build directory.
+     *
+     * @param libraryArtifacts libraries to package
+     * @param sharedArtifacts libraries available at runtime, but not packaged (never removed)
+     * @param policy "off", "warn", "fail" or "remove" (remove fully shadowed libraries)
+     * @param reportName report file name
+     * @return fully shadowed libraries to remove, empty if policy is not "remove"
+     */
+    protected Set<Artifact> analyzeDuplicateClasses( Collection<Artifact> libraryArtifacts,
+                                                     Collection<Artifact> sharedArtifacts, String policy,
+                                                     String reportName )
+        throws IOException, MojoExecutionException
+    {
+        Set<Artifact> result = new HashSet<Artifact>();
+        if ( !"warn".equals( policy ) && !"fail".equals( policy ) && !"remove".equals( policy ) )
+        {
+            if ( !"off".equals( policy ) )
+            {
+                throw new MojoExecutionException( String.format( "Unsupported \"%s\" duplicate classes policy, supported policies are \"off\", \"warn\", \"fail\" and \"remove\"",
+                                                                 policy ) );
+            }
+            return result;
+        }
+
+        DuplicateClassAnalyzer analyzer = new DuplicateClassAnalyzer();
+        Map<File, Artifact> removableArtifacts = new HashMap<File, Artifact>();
+        for ( Artifact artifact : libraryArtifacts )
+        {
+            File file = artifact.getFile();
+            if ( file != null && file.isFile() && file.getName().endsWith( ".jar" ) )
+            {
+                analyzer.addJar( file, getDependencyPath( artifact ), true );
+                removableArtifacts.put( file, artifact );
+            }
+        }
+        for ( Artifact artifact : sharedArtifacts )
+        {
+            File file = artifact.getFile();
+            if ( file != null && file.isFile() && file.getName().endsWith( ".jar" ) )
+            {
+                analyzer.addJar( file, "shared, " + getDependencyPath( artifact ), false );
+            }
+        }
+        analyzer.analyze( "remove".equals( policy ) );
+        for ( File file : analyzer.getShadowedLibraries() )
+        {
+            result.add( removableArtifacts.get( file ) );
+        }
+
+        File reportFile = new File( project.getBuild().getDirectory(), "play/duplicates/" + reportName + ".txt" );
+        writeGeneratedFile( reportFile, analyzer.getReport() );
+        if ( analyzer.getOverlapCount() > 0 || analyzer.getMultiVersionCount() > 0 )
+        {
+            String message =
+                String.format( "%d library pairs contain the same classes, %d libraries present in more than one version (report: %s)",
+                               analyzer.getOverlapCount(), analyzer.getMultiVersionCount(),
+                               reportFile.getAbsolutePath() );
+            if ( "fail".equals( policy ) )
+            {
+                throw new MojoExecutionException( message );
+            }
+            getLog().warn( message );
+        }
+        if ( !result.isEmpty() )
+        {
+            getLog().info( String.format( "%d fully shadowed libraries removed", result.size() ) );
+        }
+        return result;
+    }
+
+    // "groupId:artifactId:version" path from the project, without the project itself
+    private static String getDependencyPath( Artifact artifact )
+    {
+        StringBuilder result = new StringBuilder();
+        List<?> trail = artifact.getDependencyTrail();
+        if ( trail != null && trail.size() > 1 )
+        {
+            for ( Object element : trail.subList( 1, trail.size() ) )
+            {
+                if ( result.length() > 0 )
                 {
-                    case ArchiveEntry.DIRECTORY:
-                        destFile.mkdirs(); // TODO-change to PlexusUtils, check result
-                        break;
-                    case ArchiveEntry.FILE:
-                        InputStream contents = resource.getContents();
-                        RawInputStreamFacade facade = new RawInputStreamFacade( contents );
-                        FileUtils.copyStreamToFile( facade, destFile );
-                        break;
-                    default:
-                        throw new RuntimeException( "Unknown archive entry type: " + entry.getType() ); // TODO-polish, what exception class?
+                    result.append( " > " );
                 }
-                // System.out.println(entry.getName());
+                result.append( element );
             }
         }
+        else
+        {
+            result.append( artifact.getId() );
+        }
+        return result.toString();
     }
-    
+
+    /**
+     * Merges application libraries into one jar file with package index and adds it to the index.
+     * 
+     * Only released (not snapshot), not signed jar files are merged. Conflicts (duplicated
+     * entries with different content) are written to "play/merged/&lt;name&gt;-conflicts.txt" file
+     * in build directory.
+     * 
+     * @param entryIndex archive entry index
+     * @param libraryArtifacts application libraries
+     * @param libDirectory archive directory for merged jar file
+     * @param name merged jar file name prefix
+     * @return merged application libraries
+     */
+    protected Set<Artifact> mergeLibraries( ArchiveEntryIndex entryIndex, Set<Artifact> libraryArtifacts,
+                                            String libDirectory, String name )
+        throws IOException
+    {
+        Map<String, Artifact> mergedArtifacts = new TreeMap<String, Artifact>(); // stable classpath order
+        for ( Artifact artifact : libraryArtifacts )
+        {
+            File file = artifact.getFile();
+            if ( !artifact.isSnapshot() && file.isFile() && file.getName().endsWith( ".jar" )
+                && LibraryJarMerger.isMergeable( file ) )
+            {
+                mergedArtifacts.put( artifact.getId(), artifact );
+            }
+        }
+        if ( mergedArtifacts.size() < 2 )
+        {
+            return new HashSet<Artifact>();
+        }
+
+        File mergedDirectory = new File( project.getBuild().getDirectory(), "play/merged" );
+        File mergedJar = new File( mergedDirectory, name + "-merged-libs.jar" );
+        LibraryJarMerger merger = new LibraryJarMerger( mergedJar );
+        for ( Artifact artifact : mergedArtifacts.values() )
+        {
+            merger.addJar( artifact.getFile() );
+        }
+        merger.merge();
+
+        File conflictsFile = new File( mergedDirectory, name + "-conflicts.txt" );
+        StringBuilder conflicts = new StringBuilder();
+        for ( String conflict : merger.getConflicts() )
+        {
+            conflicts.append( conflict ).append( '\n' );
+        }
+        FileUtils.fileWrite( conflictsFile, "UTF-8", conflicts.toString() );
+        if ( !merger.getConflicts().isEmpty() )
+        {
+            getLog().warn( String.format( "%d conflicting entries found while merging libraries (see %s)",
+                                          merger.getConflicts().size(), conflictsFile.getAbsolutePath() ) );
+        }
+
+        entryIndex.addFile( mergedJar, libDirectory + mergedJar.getName() );
+        getLog().info( String.format( "%d of %d application libraries merged into %s", mergedArtifacts.size(),
+                                      libraryArtifacts.size(), mergedJar.getName() ) );
+        return new HashSet<Artifact>( mergedArtifacts.values() );
+    }
+
+    /**
+     * Adds Play! application class index to the archive. The index lists precompiled application
+     * classes (with their superclasses, interfaces and annotations) and "play.plugins" entries
+     * of all libraries already added to the archive. It is read at startup by "play12-extensions"
+     * library's class index plugin, so Play! does not have to scan "precompiled/java" directory.
+     * 
+     * @param entryIndex archive entry index, containing all libraries
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @param name index file name prefix
+     * @return {@code true} if the index was added
+     */
+    protected boolean addClassIndex( ArchiveEntryIndex entryIndex, String applicationPath, String name )
+        throws IOException
+    {
+        File precompiledClassesDir = new File( project.getBasedir(), "precompiled/java" );
+        if ( !precompiledClassesDir.isDirectory() )
+        {
+            getLog().warn( "\"precompiled/java\" directory does not exist, class index not generated."
+                + " Run \"mvn play:precompile\" first." );
+            return false;
+        }
+
+        ClassIndexWriter writer = new ClassIndexWriter();
+        writer.addClassDirectory( precompiledClassesDir );
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( !entry.isDirectory() && !entry.isArchiveEntry() && entry.getName().endsWith( ".jar" ) )
+            {
+                writer.addLibrary( entry.getFile() );
+            }
+        }
+        File indexFile = new File( project.getBuild().getDirectory(), "play/class-index/" + name + ".txt" );
+        writeGeneratedFile( indexFile, writer.getContent() );
+        entryIndex.addFile( indexFile, applicationPath + "precompiled/class-index.txt" );
+        getLog().info( String.format( "Class index of %d application classes generated", writer.getClassCount() ) );
+        return true;
+    }
+
+    /**
+     * Adds Play! route table to the archive. Application routes file and routes files of all modules
+     * already added to the archive are parsed and validated at build time. The table is read at startup
+     * by "play12-extensions" library's route table plugin, so Play! does not have to parse routes files.
+     * If routes cannot be precompiled (for example routes file uses template expressions), a warning is logged
+     * and the table is not added.
+     *
+     * @param entryIndex archive entry index, containing application and module files
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @param name table file name prefix
+     * @return {@code true} if the table was added
+     */
+    protected boolean addRouteTable( ArchiveEntryIndex entryIndex, String applicationPath, String name )
+        throws IOException
+    {
+        String applicationRoutesName = applicationPath + RouteTableWriter.APPLICATION_SOURCE;
+        String applicationRoutes = null;
+        RouteTableWriter writer = new RouteTableWriter();
+        ArchiveEntryReader entryReader = new ArchiveEntryReader();
+        try
+        {
+            for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+            {
+                if ( entry.isDirectory() )
+                {
+                    continue;
+                }
+                if ( applicationRoutesName.equals( entry.getName() ) )
+                {
+                    applicationRoutes = readEntry( entryReader, entry );
+                }
+                else
+                {
+                    Matcher matcher = MODULE_ROUTES_PATTERN.matcher( entry.getName() );
+                    if ( matcher.matches() )
+                    {
+                        // module name as in "Play.loadModules()", version suffix removed
+                        String moduleName = matcher.group( 1 );
+                        if ( moduleName.indexOf( '-' ) > 0 )
+                        {
+                            moduleName = moduleName.substring( 0, moduleName.indexOf( '-' ) );
+                        }
+                        writer.addModuleRoutes( moduleName, readEntry( entryReader, entry ) );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            entryReader.close();
+        }
+        if ( applicationRoutes == null )
+        {
+            getLog().warn( String.format( "\"%s\" file not found in archive, route table not generated",
+                                          applicationRoutesName ) );
+            return false;
+        }
+
+        writer.parse( applicationRoutes );
+        if ( !writer.getProblems().isEmpty() )
+        {
+            for ( String problem : writer.getProblems() )
+            {
+                getLog().warn( problem );
+            }
+            getLog().warn( "Routes cannot be precompiled, route table not generated" );
+            return false;
+        }
+        File tableFile = new File( project.getBuild().getDirectory(), "play/routes/" + name + ".txt" );
+        writeGeneratedFile( tableFile, writer.getContent() );
+        entryIndex.addFile( tableFile, applicationPath + "precompiled/routes.txt" );
+        getLog().info( String.format( "Route table of %d routes generated", writer.getRouteCount() ) );
+        return true;
+    }
+
+    /**
+     * Returns application exclude filter extended with precompiled classes and templates directories,
+     * used when they are packed into precompiled archive (see {@link #addPrecompiledArchive}).
+     *
+     * @param applicationExcludes application exclude filter, may be null
+     */
+    protected String[] getPrecompiledArchiveExcludes( String[] applicationExcludes )
+    {
+        List<String> result = new ArrayList<String>();
+        if ( applicationExcludes != null )
+        {
+            result.addAll( Arrays.asList( applicationExcludes ) );
+        }
+        result.add( "precompiled/java/**" );
+        result.add( "precompiled/templates/**" );
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * Adds precompiled archive, containing all precompiled application classes and templates, to the archive.
+     * It is read at startup by "play12-extensions" library's precompiled archive plugin, so Play! does not have
+     * to read thousands of small files.
+     *
+     * @param entryIndex archive entry index
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @param name precompiled archive file name prefix
+     * @return {@code true} if the precompiled archive was added
+     */
+    protected boolean addPrecompiledArchive( ArchiveEntryIndex entryIndex, String applicationPath, String name )
+        throws IOException
+    {
+        File precompiledDir = new File( project.getBasedir(), "precompiled" );
+        if ( !precompiledDir.isDirectory() )
+        {
+            getLog().warn( "\"precompiled\" directory does not exist, precompiled archive not generated."
+                + " Run \"mvn play:precompile\" first." );
+            return false;
+        }
+
+        File archiveFile = new File( project.getBuild().getDirectory(), "play/precompiled/" + name + ".jar" );
+        PrecompiledArchiveWriter writer = new PrecompiledArchiveWriter( archiveFile );
+        writer.addClassDirectory( new File( precompiledDir, "java" ) );
+        writer.addTemplateDirectory( new File( precompiledDir, "templates" ) );
+        writer.write();
+        entryIndex.addFile( archiveFile, applicationPath + "precompiled/precompiled.jar" );
+        getLog().info( String.format( "%d precompiled classes and %d precompiled templates packed into %s",
+                                      writer.getClassCount(), writer.getTemplateCount(), archiveFile.getName() ) );
+        return true;
+    }
+
+    /**
+     * Adds public assets compiled by "play:compile-assets" mojo (see {@link AssetCompiler}) and compiled assets
+     * manifest ("conf/compiled-assets.txt") to the archive, if they exist. The manifest is read at runtime
+     * by "play12-extensions" library's compiled asset plugin.
+     *
+     * @param entryIndex archive entry index
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @return {@code true} if compiled assets manifest was added
+     */
+    protected boolean addCompiledAssets( ArchiveEntryIndex entryIndex, String applicationPath )
+    {
+        File compiledAssetsDirectory = getCompiledAssetsDirectory();
+        File manifestFile = new File( compiledAssetsDirectory, "conf/" + AssetCompiler.MANIFEST_FILE_NAME );
+        if ( manifestFile.isFile() )
+        {
+            File publicDirectory = new File( compiledAssetsDirectory, "public" );
+            if ( publicDirectory.isDirectory() )
+            {
+                entryIndex.addDirectory( publicDirectory, applicationPath + "public/", null, null );
+            }
+            entryIndex.addFile( manifestFile, applicationPath + "conf/" + AssetCompiler.MANIFEST_FILE_NAME );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds JavaScript and CSS bundles of application public assets, defined in bundle definitions file
+     * (see {@link AssetBundler}), to the archive. Source files stay in the archive.
+     *
+     * @param entryIndex archive entry index
+     * @param bundlesFile bundle definitions file
+     * @param minify minify ".js" and ".css" bundles
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @param name output directory name
+     */
+    protected void addBundles( ArchiveEntryIndex entryIndex, File bundlesFile, boolean minify, String applicationPath,
+                               String name )
+        throws IOException
+    {
+        if ( !bundlesFile.isFile() )
+        {
+            throw new IOException( String.format( "Bundle definitions file \"%s\" does not exist",
+                                                  bundlesFile.getAbsolutePath() ) );
+        }
+        File publicDirectory = new File( project.getBasedir(), "public" );
+        if ( !publicDirectory.isDirectory() )
+        {
+            getLog().warn( "\"public\" directory does not exist, bundles not generated" );
+            return;
+        }
+
+        File outputDirectory = new File( project.getBuild().getDirectory(), "play/bundles/" + name );
+        AssetBundler bundler = new AssetBundler( publicDirectory, outputDirectory, minify );
+        bundler.readDefinitions( bundlesFile );
+        for ( Map.Entry<String, List<String>> bundle : bundler.getBundles().entrySet() )
+        {
+            if ( bundle.getValue().isEmpty() )
+            {
+                getLog().warn( String.format( "Bundle \"%s\" does not contain any files", bundle.getKey() ) );
+            }
+        }
+        for ( String bundlePath : bundler.write() )
+        {
+            entryIndex.addFile( new File( outputDirectory, bundlePath ), applicationPath + "public/" + bundlePath );
+        }
+        getLog().info( String.format( "%d bundle(s) generated", bundler.getBundles().size() ) );
+    }
+
+    /**
+     * Adds content-hashed copies and gzip compressed siblings of application public assets already added
+     * to the archive, and asset manifest ("conf/asset-manifest.txt"). The manifest is read at runtime by
+     * "play12-extensions" library's asset plugin, resolving asset URLs and serving precompressed
+     * and long-lived cacheable responses. Original assets are kept.
+     *
+     * @param entryIndex archive entry index, containing application public files
+     * @param applicationPath application directory path in the archive, for example "application/"
+     * @param name output directory name
+     */
+    protected void addFingerprintedAssets( ArchiveEntryIndex entryIndex, String applicationPath, String name )
+        throws IOException
+    {
+        String publicPath = applicationPath + "public/";
+        Map<String, File> assets = new TreeMap<String, File>();
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( !entry.isDirectory() && !entry.isArchiveEntry() && entry.getName().startsWith( publicPath )
+                && !entry.getName().endsWith( ".gz" ) )
+            {
+                assets.put( entry.getName().substring( publicPath.length() ), entry.getFile() );
+            }
+        }
+
+        File outputDirectory = new File( project.getBuild().getDirectory(), "play/assets/" + name );
+        AssetFingerprinter fingerprinter = new AssetFingerprinter( outputDirectory );
+        for ( Map.Entry<String, File> asset : assets.entrySet() )
+        {
+            fingerprinter.addAsset( asset.getValue(), asset.getKey() );
+        }
+        for ( String generatedPath : fingerprinter.getGeneratedFiles().keySet() )
+        {
+            entryIndex.addFile( new File( outputDirectory, generatedPath ), publicPath + generatedPath );
+        }
+        File manifestFile = new File( project.getBuild().getDirectory(), "play/assets/" + name + "-manifest.txt" );
+        writeGeneratedFile( manifestFile, fingerprinter.getManifest() );
+        entryIndex.addFile( manifestFile, applicationPath + "conf/asset-manifest.txt" );
+        getLog().info( String.format( "%d public assets fingerprinted", fingerprinter.getAssetCount() ) );
+    }
+
+    private static String readEntry( ArchiveEntryReader entryReader, ArchiveEntryIndex.Entry entry )
+        throws IOException
+    {
+        InputStream is = entryReader.open( entry );
+        try
+        {
+            return IOUtil.toString( is, "UTF-8" );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
     protected ZipArchiver getZipArchiver() throws NoSuchArchiverException
     {
         ZipArchiver result = (ZipArchiver) archiverManager.getArchiver( "zip" );
@@ -108,15 +1081,27 @@ public abstract class AbstractArchivingMojo
     }
 
     /**
-     * Check for potential "Duplicate file" exception before archive processing starts
+     * Check for "Duplicate file" problems before archive processing starts.
+     * All duplicated paths are reported at once.
      * 
-     * @param archiver
+     * @param entryIndex archive entry index
      */
-    protected void checkArchiverForProblems( Archiver archiver )
+    protected void checkForDuplicates( ArchiveEntryIndex entryIndex )
+        throws MojoExecutionException
     {
-        for ( ResourceIterator iter = archiver.getResources(); iter.hasNext(); )
+        Map<String, List<ArchiveEntryIndex.Entry>> duplicates = entryIndex.getDuplicates();
+        if ( !duplicates.isEmpty() )
         {
-            iter.next();
+            StringBuilder buf = new StringBuilder( "Duplicate archive entries found:" );
+            for ( Map.Entry<String, List<ArchiveEntryIndex.Entry>> duplicate : duplicates.entrySet() )
+            {
+                buf.append( "\n  " ).append( duplicate.getKey() );
+                for ( ArchiveEntryIndex.Entry entry : duplicate.getValue() )
+                {
+                    buf.append( "\n    from " ).append( entry.getSourceDescription() );
+                }
+            }
+            throw new MojoExecutionException( buf.toString() );
         }
     }
 
@@ -16,6 +16,7 @@
 
 package com.google.code.play;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
@@ -29,6 +30,7 @@ import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactCollector;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.shared.dependency.tree.DependencyNode;
@@ -79,11 +81,72 @@ public abstract class AbstractDependencyProcessingPlayMojo
     @Component
     private DependencyTreeBuilder dependencyTreeBuilder;
 
+    /**
+     * List of artifacts this plugin depends on.
+     * 
+     */
+    @Parameter( property = "plugin.artifacts", required = true, readonly = true )
+    private List<Artifact> pluginArtifacts;
+
     /**
      * The computed dependency tree root node of the Maven project.
      */
     private DependencyNode rootNode;
 
+    protected Artifact getPluginArtifact( String groupId, String artifactId, String type )
+        throws MojoExecutionException
+    {
+        Artifact result = null;
+        for ( Artifact artifact : pluginArtifacts )
+        {
+            if ( artifact.getGroupId().equals( groupId ) && artifact.getArtifactId().equals( artifactId )
+                && type.equals( artifact.getType() ) )
+            {
+                result = artifact;
+                break;
+            }
+        }
+        if ( result == null )
+        {
+            throw new MojoExecutionException(
+                                              String.format( "Unable to locate '%s:%s' in the list of plugin artifacts",
+                                                             groupId, artifactId ) );
+        }
+        return result;
+    }
+
+    /**
+     * Returns file of artifact in local repository, artifact is not resolved (downloaded).
+     *
+     * @param coordinates "groupId:artifactId:version[:classifier[:type]]"
+     * @param defaultType type if not specified in coordinates
+     * @param defaultClassifier classifier if not specified in coordinates
+     */
+    protected File getLocalRepositoryFile( String coordinates, String defaultType, String defaultClassifier )
+        throws MojoExecutionException
+    {
+        String[] parts = coordinates.split( ":" );
+        if ( parts.length < 3 || parts.length > 5 )
+        {
+            throw new MojoExecutionException( String.format( "Invalid artifact coordinates \"%s\", expected \"groupId:artifactId:version[:classifier[:type]]\"",
+                                                             coordinates ) );
+        }
+        String classifier = parts.length > 3 ? parts[3] : defaultClassifier;
+        if ( classifier != null && classifier.length() == 0 )
+        {
+            classifier = null;
+        }
+        String type = parts.length > 4 ? parts[4] : defaultType;
+        Artifact artifact = artifactFactory.createArtifactWithClassifier( parts[0], parts[1], parts[2], type, classifier );
+        File result = new File( localRepository.getBasedir(), localRepository.pathOf( artifact ) );
+        if ( !result.isFile() )
+        {
+            throw new MojoExecutionException( String.format( "Artifact \"%s\" not found in local repository (%s)",
+                                                             coordinates, result.getAbsolutePath() ) );
+        }
+        return result;
+    }
+
     protected Set<Artifact> getFrameworkDependencyArtifacts( Set<?> classPathArtifacts, Artifact frameworkJarArtifact )
         throws DependencyTreeBuilderException
     {
@@ -18,12 +18,16 @@ package com.google.code.play;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
@@ -36,7 +40,8 @@ import org.apache.maven.shared.artifact.filter.PatternIncludesArtifactFilter;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Base class for Play&#33; distribution packaging mojos.
@@ -46,6 +51,26 @@ import org.codehaus.plexus.archiver.zip.ZipArchiver;
 public abstract class AbstractPlayDistMojo
     extends AbstractArchivingMojo
 {
+    /**
+     * Distribution layers, from the most rarely to the most frequently changing one.
+     */
+    protected static final String[] DIST_LAYERS = { "framework", "modules", "libs", "snapshot-libs", "application" };
+
+    private static final String APPCDS_FLAGS_SCRIPT =
+        "#!/bin/sh\n"
+            + "# Prints JVM flags using AppCDS archive if current JVM is the one the archive was built with.\n"
+            + "# Class path has to start with \"classpath\" file entries, relative to distribution root directory.\n"
+            + "# \"jvm-flags.sh dump\" rebuilds the archive for current JVM.\n"
+            + "dir=$(cd \"$(dirname \"$0\")\" && pwd)\n"
+            + "java=\"${JAVA_HOME:+$JAVA_HOME/bin/}java\"\n"
+            + "version=$(\"$java\" -XshowSettings:properties -version 2>&1 | sed -n 's/^ *java\\.vm\\.version = //p')\n"
+            + "if [ \"$1\" = \"dump\" ]; then\n"
+            + "  cd \"$dir/..\" && \"$java\" -Xshare:dump -XX:SharedClassListFile=\"$dir/classlist\" \\\n"
+            + "    -XX:SharedArchiveFile=\"$dir/app.jsa\" -cp \"$(paste -s -d : \"$dir/classpath\")\" \\\n"
+            + "    && printf '%s' \"$version\" > \"$dir/java-version\"\n"
+            + "elif [ \"$version\" = \"$(cat \"$dir/java-version\")\" ]; then\n"
+            + "  echo \"-XX:SharedArchiveFile=$dir/app.jsa -Xshare:auto\"\n"
+            + "fi\n";
 
     /**
      * Default Play! id (profile).
@@ -119,16 +144,253 @@ public abstract class AbstractPlayDistMojo
     @Parameter( property = "play.distDependencyExcludes", defaultValue = "" )
     private String distDependencyExcludes;
 
-    protected ZipArchiver prepareArchiver( ConfigurationParser configParser )
+    /**
+     * Remove application libraries not reachable from application classes. Reachability is computed
+     * from precompiled application classes, application configuration files and framework and modules
+     * libraries. Requires precompiled application. Report is written to "play/shrink/dist.txt" file
+     * in build directory.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distShrinkLibs", defaultValue = "false" )
+    private boolean distShrinkLibs;
+
+    /**
+     * Classes never removed by libraries shrinking, comma separated class name patterns
+     * (for example "org.postgresql.**"). Use for classes loaded by reflection.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distShrinkKeep", defaultValue = "" )
+    private String distShrinkKeep;
+
+    /**
+     * Merge released, not signed application libraries into one "dist-merged-libs.jar" jar file with
+     * package index, to speed up class and resource lookups. Service files ("META-INF/services/*",
+     * "play.plugins") are concatenated, conflicts are reported in "play/merged/dist-conflicts.txt" file
+     * in build directory.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distMergeLibs", defaultValue = "false" )
+    private boolean distMergeLibs;
+
+    /**
+     * Add Play! application class index ("precompiled/class-index.txt") to the distribution. The index is used
+     * by class index plugin from "play12-extensions" library (it has to be an application dependency)
+     * to register precompiled application classes at startup without scanning "precompiled/java"
+     * directory. Requires precompiled application.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distClassIndex", defaultValue = "false" )
+    private boolean distClassIndex;
+
+    /**
+     * Pack precompiled application classes and templates into one archive ("precompiled/precompiled.jar")
+     * instead of adding thousands of small files to the distribution. The archive is used by precompiled archive
+     * plugin from "play12-extensions" library (it has to be an application dependency). Requires precompiled
+     * application.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distPrecompiledArchive", defaultValue = "false" )
+    private boolean distPrecompiledArchive;
+
+    /**
+     * Add content-hashed copies ("public/stylesheets/main-0123456789.css") and gzip compressed siblings
+     * ("public/stylesheets/main.css.gz") of application public assets, and asset manifest
+     * ("conf/asset-manifest.txt") to the distribution. Original assets are kept. The manifest is used by asset plugin
+     * from "play12-extensions" library (it has to be an application dependency), which resolves fingerprinted
+     * asset URLs and serves them with long-lived caching headers and precompressed content.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distFingerprintAssets", defaultValue = "false" )
+    private boolean distFingerprintAssets;
+
+    /**
+     * JavaScript and CSS bundle definitions file. If set, defined bundles of application public assets
+     * are concatenated (and minified, see "distBundlesMinify" parameter) and added to the distribution,
+     * source files are kept.
+     * Every line defines one bundle: {@code bundle = includePattern, includePattern, !excludePattern},
+     * paths and patterns are relative to "public" directory, for example
+     * "javascripts/all.min.js = javascripts/jquery.js, javascripts/app/**&#47;*.js, !javascripts/app/debug.js".
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distBundles" )
+    private File distBundles;
+
+    /**
+     * Minify ".js" and ".css" bundles defined in "distBundles" file. Comments and unnecessary whitespace are removed.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distBundlesMinify", defaultValue = "true" )
+    private boolean distBundlesMinify;
+
+    /**
+     * Add Play! route table ("precompiled/routes.txt") to the distribution. Application and module routes files
+     * are parsed and validated at build time. The table is used by route table plugin from "play12-extensions"
+     * library (it has to be an application dependency) to load routes in production mode without parsing
+     * routes files. Routes files using template expressions or "module:*" includes cannot be precompiled.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distRouteTable", defaultValue = "false" )
+    private boolean distRouteTable;
+
+    /**
+     * Generate "bin/start" shell script starting the application without Play! python launcher.
+     * Class path and JVM options ("jvm.memory", "java.policy" and "application.mode" configuration
+     * properties, "distJvmArgs" parameter) are computed at package time and stored in the script,
+     * the class path is written to "bin/classpath" file too. Script arguments are passed
+     * to the application (for example "--http.port=9001"). Play! server booter library
+     * (the main class) is added to framework libraries. "bin/apply-patch" script applying
+     * distribution patch files (see "distPatchBaseline" parameter of "dist" mojo) is generated too.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distStartScript", defaultValue = "false" )
+    private boolean distStartScript;
+
+    /**
+     * Additional JVM arguments stored in "bin/start" script. If they contain memory settings ("-Xm..."),
+     * "jvm.memory" configuration property is ignored.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distJvmArgs", defaultValue = "" )
+    private String distJvmArgs;
+
+    /**
+     * Add AppCDS (application class data sharing) archive to the distribution. The application
+     * is started once in training mode, classes loaded from the class path are recorded and
+     * shared archive is dumped. The archive, the class path it was built for ("appcds/classpath")
+     * and "appcds/jvm-flags.sh" script are added to the distribution. The script, executed
+     * in distribution root directory, prints JVM flags using the archive only if runtime JVM
+     * version is the one the archive was built with ("sh appcds/jvm-flags.sh dump" rebuilds
+     * the archive for current JVM). Runtime class path has to start with "appcds/classpath" entries.
+     * Class data sharing does not allow non-empty directories before archived jar files, so configuration
+     * directory resources are packaged into "application/conf.jar" file, the first class path entry
+     * (configuration resources keep precedence over libraries, but changing files in "application/conf"
+     * directory after packaging does not change resources found on the class path).
+     * JVM rejects the archive (silently, with "-Xshare:auto") if class path jar files have different
+     * modification time or size than at build time. The archive is built for the times files will have after
+     * unpacking the distribution with preserved modification times, in the build machine time zone for
+     * zip formats; otherwise (or after patching the distribution) rebuild the archive
+     * with "sh appcds/jvm-flags.sh dump". Requires Java 10 or later.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distAppCds", defaultValue = "false" )
+    private boolean distAppCds;
+
+    /**
+     * Java executable used to build AppCDS archive, should be the one the distribution will run with.
+     * By default the one running Maven is used.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distAppCdsJava", defaultValue = "" )
+    private String distAppCdsJava;
+
+    /**
+     * Maximum AppCDS training run and archive dump time in seconds.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distAppCdsTimeout", defaultValue = "300" )
+    private int distAppCdsTimeout;
+
+    /**
+     * Add trimmed Java runtime image ("runtime" directory) to the distribution. JDK modules required
+     * by the framework, modules and application libraries (and precompiled application classes, if included)
+     * are found by "jdeps", the image is linked by "jlink" (see "distJlinkJdk" parameter). Generated
+     * scripts ("bin/start", "bin/apply-patch") run the application with the image's JVM, so Java does not have
+     * to be installed on the target machine. Runtime image is platform specific. Requires JDK 11 or later.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distJlink", defaultValue = "false" )
+    private boolean distJlink;
+
+    /**
+     * JDK home directory runtime image is linked from. By default the one running Maven is used.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distJlinkJdk", defaultValue = "" )
+    private String distJlinkJdk;
+
+    /**
+     * Comma separated JDK modules added to runtime image in addition to the ones found by "jdeps",
+     * modules used only by reflection or service loader (for example "jdk.localedata"
+     * for non-English locales data, "jdk.zipfs" for zip file system).
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distJlinkAddModules", defaultValue = "jdk.crypto.ec" )
+    private String distJlinkAddModules;
+
+    /**
+     * Maximum "jdeps" and "jlink" execution time in seconds.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distJlinkTimeout", defaultValue = "300" )
+    private int distJlinkTimeout;
+
+    protected ArchiveEntryIndex prepareArchiver( ConfigurationParser configParser )
+        throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
+    {
+        return prepareArchiver( configParser, playId, "dist", null );
+    }
+
+    /**
+     * Prepares distribution entry index for given Play! id.
+     *
+     * @param configParser application configuration for the Play! id
+     * @param distPlayId Play! id (profile)
+     * @param name name of this distribution, used in generated files paths
+     * @param scanCache directory and archive scanning results shared with other distributions, may be null
+     */
+    protected ArchiveEntryIndex prepareArchiver( ConfigurationParser configParser, String distPlayId, String name,
+                                                 Map<String, List<ArchiveEntryIndex.Entry>> scanCache )
         throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
     {
-        ZipArchiver zipArchiver = getZipArchiver();
+        ArchiveEntryIndex entryIndex = createEntryIndex( getZipArchiver() );
+        entryIndex.setScanCache( scanCache );
+        entryIndex.addParameter( "playId", distPlayId );
+        entryIndex.addParameter( "distApplicationIncludes", distApplicationIncludes );
+        entryIndex.addParameter( "distApplicationExcludes", distApplicationExcludes );
+        entryIndex.addParameter( "distFrameworkIncludes", distFrameworkIncludes );
+        entryIndex.addParameter( "distFrameworkExcludes", distFrameworkExcludes );
+        entryIndex.addParameter( "distModulesIncludes", distModulesIncludes );
+        entryIndex.addParameter( "distModulesExcludes", distModulesExcludes );
+        entryIndex.addParameter( "distDependencyIncludes", distDependencyIncludes );
+        entryIndex.addParameter( "distDependencyExcludes", distDependencyExcludes );
+        entryIndex.addParameter( "distShrinkLibs", String.valueOf( distShrinkLibs ) );
+        entryIndex.addParameter( "distShrinkKeep", distShrinkKeep );
+        entryIndex.addParameter( "distMergeLibs", String.valueOf( distMergeLibs ) );
+        entryIndex.addParameter( "distClassIndex", String.valueOf( distClassIndex ) );
+        entryIndex.addParameter( "distPrecompiledArchive", String.valueOf( distPrecompiledArchive ) );
+        entryIndex.addParameter( "distFingerprintAssets", String.valueOf( distFingerprintAssets ) );
+        entryIndex.addParameter( "distBundles", distBundles != null ? distBundles.getAbsolutePath() : null );
+        entryIndex.addParameter( "distBundlesMinify", String.valueOf( distBundlesMinify ) );
+        entryIndex.addParameter( "distRouteTable", String.valueOf( distRouteTable ) );
+        entryIndex.addParameter( "distStartScript", String.valueOf( distStartScript ) );
+        entryIndex.addParameter( "distJvmArgs", distJvmArgs );
+        entryIndex.addParameter( "distAppCds", String.valueOf( distAppCds ) );
+        entryIndex.addParameter( "distAppCdsJava", distAppCdsJava );
 
         File baseDir = project.getBasedir();
 
-        Set<String> providedModuleNames = getProvidedModuleNames( configParser, playId, false );
+        Set<String> providedModuleNames = getProvidedModuleNames( configParser, distPlayId, false );
 
         // APPLICATION
+        entryIndex.setLayer( "application" );
         getLog().debug( "Dist application includes: " + distApplicationIncludes );
         getLog().debug( "Dist application excludes: " + distApplicationExcludes );
         String[] applicationIncludes = null;
@@ -142,7 +404,21 @@ public abstract class AbstractPlayDistMojo
         {
             applicationExcludes = distApplicationExcludes.split( "," );
         }
-        zipArchiver.addDirectory( baseDir, "application/", applicationIncludes, applicationExcludes );
+        if ( distPrecompiledArchive )
+        {
+            applicationExcludes = getPrecompiledArchiveExcludes( applicationExcludes );
+        }
+        entryIndex.addDirectory( baseDir, "application/", applicationIncludes, applicationExcludes );
+        // "play12-extensions" library's plugins reading generated files
+        List<String> extensionPlugins = new ArrayList<String>();
+        if ( addCompiledAssets( entryIndex, "application/" ) )
+        {
+            extensionPlugins.add( AssetCompiler.PLAY_PLUGIN );
+        }
+        if ( distBundles != null )
+        {
+            addBundles( entryIndex, distBundles, distBundlesMinify, "application/", name );
+        }
 
         // preparation
         Set<?> projectArtifacts = project.getArtifacts();
@@ -192,6 +468,7 @@ public abstract class AbstractPlayDistMojo
         }
 
         // framework
+        entryIndex.setLayer( "framework" );
         getLog().debug( "Dist framework includes: " + distFrameworkIncludes );
         getLog().debug( "Dist framework excludes: " + distFrameworkExcludes );
         String[] frameworkIncludes = null;
@@ -208,7 +485,7 @@ public abstract class AbstractPlayDistMojo
         Artifact frameworkZipArtifact = findFrameworkArtifact( false );
         // TODO-validate not null
         File frameworkZipFile = frameworkZipArtifact.getFile();
-        zipArchiver.addArchivedFileSet( frameworkZipFile, frameworkIncludes, frameworkExcludes );
+        entryIndex.addArchivedFileSet( frameworkZipFile, frameworkIncludes, frameworkExcludes );
         Artifact frameworkJarArtifact =
             getDependencyArtifact( filteredArtifacts/* ?? */, frameworkZipArtifact.getGroupId(),
                                    frameworkZipArtifact.getArtifactId(), "jar" );
@@ -221,14 +498,14 @@ public abstract class AbstractPlayDistMojo
             // Play 1.1.x
             frameworkDestinationFileName = "framework/play.jar";
         }
-        zipArchiver.addFile( frameworkJarFile, frameworkDestinationFileName );
+        entryIndex.addFile( frameworkJarFile, frameworkDestinationFileName );
         filteredArtifacts.remove( frameworkJarArtifact );
         Set<Artifact> dependencySubtree = getFrameworkDependencyArtifacts( filteredArtifacts, frameworkJarArtifact );
         for ( Artifact classPathArtifact : dependencySubtree )
         {
             File jarFile = classPathArtifact.getFile();
             String destinationFileName = "framework/lib/" + jarFile.getName();
-            zipArchiver.addFile( jarFile, destinationFileName );
+            entryIndex.addFile( jarFile, destinationFileName );
             filteredArtifacts.remove( classPathArtifact );
         }
 
@@ -247,6 +524,7 @@ public abstract class AbstractPlayDistMojo
         }
 
         // modules/*/lib and application/modules/*/lib
+        entryIndex.setLayer( "modules" );
         Set<Artifact> notActiveProvidedModules = new HashSet<Artifact>();
         Map<String, Artifact> moduleArtifacts = findAllModuleArtifacts( false );
         for ( Map.Entry<String, Artifact> moduleArtifactEntry : moduleArtifacts.entrySet() )
@@ -265,7 +543,7 @@ public abstract class AbstractPlayDistMojo
                     {
                         moduleSubDir = String.format( "modules/%s/", moduleName );
                     }
-                    zipArchiver.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
+                    entryIndex.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
                     dependencySubtree = getModuleDependencyArtifacts( filteredArtifacts, moduleZipArtifact );
                     for ( Artifact classPathArtifact : dependencySubtree )
                     {
@@ -277,7 +555,7 @@ public abstract class AbstractPlayDistMojo
                             destinationFileName = scalaHack( classPathArtifact );
                         }
                         String destinationPath = String.format( "%slib/%s", moduleSubDir, destinationFileName );
-                        zipArchiver.addFile( jarFile, destinationPath );
+                        entryIndex.addFile( jarFile, destinationPath );
                         filteredArtifacts.remove( classPathArtifact );
                     }
                 }
@@ -290,7 +568,7 @@ public abstract class AbstractPlayDistMojo
             {
                 String moduleSubDir =
                     String.format( "application/modules/%s-%s/", moduleName, moduleZipArtifact.getBaseVersion() );
-                zipArchiver.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
+                entryIndex.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
                 dependencySubtree = getModuleDependencyArtifacts( filteredArtifacts, moduleZipArtifact );
                 for ( Artifact classPathArtifact : dependencySubtree )
                 {
@@ -304,7 +582,7 @@ public abstract class AbstractPlayDistMojo
                     String destinationPath =
                         String.format( "application/modules/%s-%s/lib/%s", moduleName, moduleZipArtifact.getBaseVersion(),
                                        destinationFileName );
-                    zipArchiver.addFile( jarFile, destinationPath );
+                    entryIndex.addFile( jarFile, destinationPath );
                     filteredArtifacts.remove( classPathArtifact );
                 }
             }
@@ -317,17 +595,476 @@ public abstract class AbstractPlayDistMojo
         }
 
         // application/lib
+        if ( distShrinkLibs )
+        {
+            filteredArtifacts.removeAll( findUnreachableLibraries( entryIndex, filteredArtifacts, distShrinkKeep,
+                                                                   name ) );
+        }
+        if ( distMergeLibs )
+        {
+            entryIndex.setLayer( "libs" );
+            filteredArtifacts.removeAll( mergeLibraries( entryIndex, filteredArtifacts, "application/lib/", name ) );
+        }
         for ( Iterator<?> iter = filteredArtifacts.iterator(); iter.hasNext(); )
         {
             Artifact artifact = (Artifact) iter.next();
             File jarFile = artifact.getFile();
             String destinationFileName = "application/lib/" + jarFile.getName();
-            zipArchiver.addFile( jarFile, destinationFileName );
+            entryIndex.setLayer( artifact.isSnapshot() ? "snapshot-libs" : "libs" );
+            entryIndex.addFile( jarFile, destinationFileName );
+        }
+
+        // Play! server booter, main class of start script and AppCDS training run
+        if ( distStartScript || distAppCds )
+        {
+            entryIndex.setLayer( "framework" );
+            File booterJarFile =
+                getPluginArtifact( "com.google.code.maven-play-plugin", "play-server-booter", "jar" ).getFile();
+            entryIndex.addFile( booterJarFile, "framework/lib/" + booterJarFile.getName() );
+        }
+
+        entryIndex.setLayer( "application" );
+        if ( distClassIndex && addClassIndex( entryIndex, "application/", name ) )
+        {
+            extensionPlugins.add( ClassIndexWriter.PLAY_PLUGIN );
+        }
+        if ( distRouteTable && addRouteTable( entryIndex, "application/", name ) )
+        {
+            extensionPlugins.add( RouteTableWriter.PLAY_PLUGIN );
         }
+        if ( distPrecompiledArchive && addPrecompiledArchive( entryIndex, "application/", name ) )
+        {
+            extensionPlugins.add( PrecompiledArchiveWriter.PLAY_PLUGIN );
+        }
+        if ( distFingerprintAssets )
+        {
+            addFingerprintedAssets( entryIndex, "application/", name );
+            extensionPlugins.add( AssetFingerprinter.PLAY_PLUGIN );
+        }
+        addExtensionPlugins( entryIndex, extensionPlugins, "application/lib/", name );
+
+        checkForDuplicates( entryIndex );
 
-        checkArchiverForProblems( zipArchiver );
+        if ( distAppCds )
+        {
+            addConfigurationArchive( entryIndex, name );
+        }
+        if ( distStartScript )
+        {
+            addStartScript( entryIndex, configParser, distPlayId, name );
+        }
+        if ( distJlink )
+        {
+            addRuntimeImage( entryIndex, name );
+        }
+        if ( distAppCds )
+        {
+            addAppCdsArchive( entryIndex, distPlayId, name );
+        }
         
-        return zipArchiver;
+        return entryIndex;
+    }
+
+    /**
+     * Returns distribution class path, jar files relative to distribution root directory, in Play! python
+     * launcher order: framework jar, application libraries, modules libraries and framework libraries
+     * (application can override framework library with newer version).
+     */
+    protected List<String> getDistClassPath( ArchiveEntryIndex entryIndex )
+    {
+        List<Set<String>> groups = new ArrayList<Set<String>>();
+        for ( int i = 0; i < 5; i++ )
+        {
+            groups.add( new TreeSet<String>() );
+        }
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            String name = entry.getName();
+            if ( entry.isDirectory() || !name.endsWith( ".jar" ) )
+            {
+                continue;
+            }
+            if ( name.startsWith( "framework/" ) && name.indexOf( '/', "framework/".length() ) < 0 )
+            {
+                groups.get( 0 ).add( name );
+            }
+            else if ( name.startsWith( "application/lib/" ) )
+            {
+                groups.get( 1 ).add( name );
+            }
+            else if ( name.startsWith( "modules/" ) && name.indexOf( "/lib/" ) > 0 )
+            {
+                groups.get( 2 ).add( name );
+            }
+            else if ( name.startsWith( "application/modules/" ) && name.indexOf( "/lib/" ) > 0 )
+            {
+                groups.get( 3 ).add( name );
+            }
+            else if ( name.startsWith( "framework/lib/" ) )
+            {
+                groups.get( 4 ).add( name );
+            }
+        }
+        List<String> result = new ArrayList<String>();
+        for ( Set<String> group : groups )
+        {
+            result.addAll( group );
+        }
+        return result;
+    }
+
+    // configuration resources first, like in Play! python launcher
+    private List<String> getRuntimeClassPath( ArchiveEntryIndex entryIndex )
+    {
+        List<String> result = getDistClassPath( entryIndex );
+        result.add( 0, distAppCds ? "application/conf.jar" : "application/conf" );
+        return result;
+    }
+
+    // AppCDS archive cannot be used if a non-empty directory precedes archived jar files on the class path
+    private void addConfigurationArchive( ArchiveEntryIndex entryIndex, String name )
+        throws IOException
+    {
+        String prefix = "application/conf/";
+        ArchiveEntryIndex confIndex = new ArchiveEntryIndex( entryIndex.getArchiver() );
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( !entry.isDirectory() && !entry.isArchiveEntry() && entry.getName().startsWith( prefix ) )
+            {
+                confIndex.indexFile( entry.getFile(), entry.getName().substring( prefix.length() ) );
+            }
+        }
+
+        File confJarFile = new File( project.getBuild().getDirectory(), "play/appcds/" + name + "/conf.jar" );
+        writeGeneratedArchive( confIndex.getEntries(), confJarFile );
+        entryIndex.setLayer( "application" );
+        entryIndex.addFile( confJarFile, "application/conf.jar" );
+    }
+
+    private void addStartScript( ArchiveEntryIndex entryIndex, ConfigurationParser configParser, String distPlayId,
+                                 String name )
+        throws IOException, MojoExecutionException
+    {
+        File startDirectory = new File( project.getBuild().getDirectory(), "play/start/" + name );
+        File startScriptFile = new File( startDirectory, "start" );
+        File classPathFile = new File( startDirectory, "classpath" );
+
+        List<String> classPath = getRuntimeClassPath( entryIndex );
+        StringBuilder classPathFileContent = new StringBuilder();
+        for ( String classPathEntry : classPath )
+        {
+            classPathFileContent.append( classPathEntry ).append( '\n' );
+        }
+
+        List<String> jvmArgs = new ArrayList<String>();
+        boolean memoryInArgs = false;
+        if ( distJvmArgs != null )
+        {
+            for ( String arg : distJvmArgs.trim().split( " +" ) )
+            {
+                if ( arg.length() > 0 )
+                {
+                    jvmArgs.add( arg );
+                    memoryInArgs = memoryInArgs || arg.startsWith( "-Xm" );
+                }
+            }
+        }
+        String jvmMemory = configParser.getProperty( "jvm.memory" );
+        if ( !memoryInArgs && jvmMemory != null && jvmMemory.trim().length() > 0 )
+        {
+            jvmArgs.addAll( Arrays.asList( jvmMemory.trim().split( " +" ) ) );
+        }
+        if ( "prod".equalsIgnoreCase( configParser.getProperty( "application.mode", "dev" ) ) )
+        {
+            jvmArgs.add( "-server" );
+        }
+        String javaPolicy = configParser.getProperty( "java.policy" );
+        if ( javaPolicy != null && javaPolicy.length() > 0
+            && new File( new File( project.getBasedir(), "conf" ), javaPolicy ).isFile() )
+        {
+            jvmArgs.add( "-Djava.security.manager" );
+            jvmArgs.add( "-Djava.security.policy=application/conf/" + javaPolicy );
+        }
+        jvmArgs.add( "-Dplay.home=framework" );
+        jvmArgs.add( "-Dapplication.path=application" );
+        jvmArgs.add( "-Dplay.id=" + ( distPlayId != null ? distPlayId : "" ) );
+        jvmArgs.add( "-DpidFile=application/server.pid" );
+        if ( isPrecompiledIncluded( entryIndex ) )
+        {
+            jvmArgs.add( "-Dprecompiled=true" );
+        }
+
+        StringBuilder script = new StringBuilder();
+        script.append( "#!/bin/sh\n" );
+        script.append( "# Starts Play! application, arguments are passed to it (\"--http.port=9001\").\n" );
+        script.append( "# Generated by Maven Play! Plugin, Play! python launcher is not needed.\n" );
+        script.append( "cd \"$(dirname \"$0\")/..\" || exit 1\n" );
+        script.append( distJlink ? "java=runtime/bin/java\n" : "java=\"${JAVA_HOME:+$JAVA_HOME/bin/}java\"\n" );
+        script.append( "classpath=" ).append( shellQuote( StringUtils.join( classPath.iterator(), ":" ) ) );
+        script.append( '\n' );
+        if ( distAppCds )
+        {
+            script.append( distJlink ? "appcds=$(JAVA_HOME=runtime sh appcds/jvm-flags.sh)\n"
+                            : "appcds=$(sh appcds/jvm-flags.sh)\n" );
+        }
+        script.append( "exec \"$java\"" );
+        for ( String jvmArg : jvmArgs )
+        {
+            script.append( " \\\n    " ).append( shellQuote( jvmArg ) );
+        }
+        if ( distAppCds )
+        {
+            script.append( " \\\n    $appcds" );
+        }
+        script.append( " \\\n    -cp \"$classpath\" com.google.code.play.PlayServerBooter \"$@\"\n" );
+
+        // applies patches generated by "dist" mojo with "distPatchBaseline" parameter
+        File booterJarFile =
+            getPluginArtifact( "com.google.code.maven-play-plugin", "play-server-booter", "jar" ).getFile();
+        File applyPatchScriptFile = new File( startDirectory, "apply-patch" );
+        StringBuilder applyPatchScript = new StringBuilder();
+        applyPatchScript.append( "#!/bin/sh\n" );
+        applyPatchScript.append( "# Applies distribution patch file to this distribution (\"bin/apply-patch app-dist-patch.zip\").\n" );
+        applyPatchScript.append( "# Generated by Maven Play! Plugin, stop the application first.\n" );
+        applyPatchScript.append( "dist=\"$(cd \"$(dirname \"$0\")/..\" && pwd)\" || exit 1\n" );
+        applyPatchScript.append( distJlink ? "java=\"$dist/runtime/bin/java\"\n"
+                            : "java=\"${JAVA_HOME:+$JAVA_HOME/bin/}java\"\n" );
+        applyPatchScript.append( "exec \"$java\" -cp \"$dist/framework/lib/" ).append( booterJarFile.getName() );
+        applyPatchScript.append( "\" com.google.code.play.DistPatcher \"$1\" \"$dist\"\n" );
+
+        writeGeneratedFile( startScriptFile, script.toString() );
+        writeGeneratedFile( classPathFile, classPathFileContent.toString() );
+        writeGeneratedFile( applyPatchScriptFile, applyPatchScript.toString() );
+        entryIndex.setLayer( "application" );
+        entryIndex.addFile( startScriptFile, "bin/" + startScriptFile.getName(), 0755 );
+        entryIndex.addFile( classPathFile, "bin/" + classPathFile.getName() );
+        entryIndex.addFile( applyPatchScriptFile, "bin/" + applyPatchScriptFile.getName(), 0755 );
+    }
+
+    private boolean isPrecompiledIncluded( ArchiveEntryIndex entryIndex )
+    {
+        boolean result = false;
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( entry.getName().startsWith( "application/precompiled/" ) )
+            {
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static String shellQuote( String value )
+    {
+        return value.matches( "[\\w@%+=:,./-]+" ) ? value : "'" + value.replace( "'", "'\\''" ) + "'";
+    }
+
+    /**
+     * Returns modification time file will have in unpacked distribution.
+     * Exploded distribution files keep source file times.
+     */
+    protected long getDistributionFileTime( long lastModified )
+        throws IOException
+    {
+        return lastModified;
+    }
+
+    // archive records class path jar times, the archive is built for files unpacked from the distribution
+    private void setDistributionFileTimes( ArchiveEntryIndex entryIndex, File directory, List<String> paths )
+        throws IOException
+    {
+        Set<String> pathSet = new HashSet<String>( paths );
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            if ( pathSet.contains( entry.getName() ) && entry.getLastModified() > 0L )
+            {
+                File file = new File( directory, entry.getName() );
+                if ( !file.setLastModified( getDistributionFileTime( entry.getLastModified() ) ) )
+                {
+                    throw new IOException( String.format( "Cannot set \"%s\" file modification time",
+                                                          file.getAbsolutePath() ) );
+                }
+            }
+        }
+    }
+
+    private void addAppCdsArchive( ArchiveEntryIndex entryIndex, String distPlayId, String name )
+        throws IOException, MojoExecutionException
+    {
+        File appCdsDirectory = new File( project.getBuild().getDirectory(), "play/appcds/" + name );
+        File archiveFile = new File( appCdsDirectory, "app.jsa" );
+        File classListFile = new File( appCdsDirectory, "classlist" );
+        File classPathFile = new File( appCdsDirectory, "classpath" );
+        File javaVersionFile = new File( appCdsDirectory, "java-version" );
+        File flagsScriptFile = new File( appCdsDirectory, "jvm-flags.sh" );
+        // archived class path is the whole runtime class path, the same in training run and archive dump
+        List<String> classPath = getRuntimeClassPath( entryIndex );
+        // archived file times depend on output format, see "getDistributionFileTime"
+        entryIndex.addParameter( "appCdsFileTime", String.valueOf( getDistributionFileTime( 1001L ) ) );
+
+        if ( !isOutputUpToDate( entryIndex, archiveFile ) )
+        {
+            File trainingDirectory = new File( appCdsDirectory, "dist" );
+            expandArchive( entryIndex, trainingDirectory, "appcds-" + name, true );
+            setDistributionFileTimes( entryIndex, trainingDirectory, classPath );
+
+            File logFile = new File( appCdsDirectory, "training.log" );
+            if ( logFile.isFile() && !logFile.delete() )
+            {
+                throw new IOException( String.format( "Cannot delete \"%s\" file", logFile.getAbsolutePath() ) );
+            }
+            // the archive can be used only by the JVM it was built with
+            File javaExecutable = new File( System.getProperty( "java.home" ), "bin/java" );
+            if ( distAppCdsJava != null )
+            {
+                javaExecutable = new File( distAppCdsJava );
+            }
+            else if ( distJlink )
+            {
+                javaExecutable = new File( getRuntimeImageDirectory( name ), "bin/java" );
+            }
+            AppCdsArchiveBuilder builder =
+                new AppCdsArchiveBuilder( javaExecutable, trainingDirectory, logFile, distAppCdsTimeout );
+
+            List<String> jvmArgs = new ArrayList<String>();
+            jvmArgs.add( "-Dplay.home=framework" );
+            jvmArgs.add( "-Dapplication.path=application" );
+            jvmArgs.add( "-Dplay.id=" + ( distPlayId != null ? distPlayId : "" ) );
+            jvmArgs.add( "-DtrainingFile=" + javaVersionFile.getAbsolutePath() );
+            if ( isPrecompiledIncluded( entryIndex ) )
+            {
+                jvmArgs.add( "-Dprecompiled=true" );
+            }
+            ServerSocket serverSocket = new ServerSocket( 0 );
+            int httpPort = serverSocket.getLocalPort();
+            serverSocket.close();
+
+            getLog().info( String.format( "Recording classes loaded by the application (log: %s)",
+                                          logFile.getAbsolutePath() ) );
+            builder.train( classPath, jvmArgs, "com.google.code.play.PlayServerBooter",
+                           Collections.singletonList( "--http.port=" + httpPort ), classListFile );
+            getLog().info( String.format( "Building AppCDS archive %s", archiveFile.getAbsolutePath() ) );
+            builder.dump( classPath, classListFile, archiveFile );
+
+            StringBuilder classPathFileContent = new StringBuilder();
+            for ( String classPathEntry : classPath )
+            {
+                classPathFileContent.append( classPathEntry ).append( '\n' );
+            }
+            writeGeneratedFile( classPathFile, classPathFileContent.toString() );
+            writeGeneratedFile( flagsScriptFile, APPCDS_FLAGS_SCRIPT );
+            saveInputFingerprint( entryIndex, archiveFile );
+        }
+
+        entryIndex.setLayer( "application" );
+        entryIndex.addFile( archiveFile, "appcds/" + archiveFile.getName() );
+        entryIndex.addFile( classListFile, "appcds/" + classListFile.getName() );
+        entryIndex.addFile( classPathFile, "appcds/" + classPathFile.getName() );
+        entryIndex.addFile( javaVersionFile, "appcds/" + javaVersionFile.getName() );
+        entryIndex.addFile( flagsScriptFile, "appcds/" + flagsScriptFile.getName(), 0755 );
+    }
+
+    private void addRuntimeImage( ArchiveEntryIndex entryIndex, String name )
+        throws IOException
+    {
+        File jlinkDirectory = new File( project.getBuild().getDirectory(), "play/jlink/" + name );
+        File runtimeDirectory = getRuntimeImageDirectory( name );
+        File modulesFile = new File( jlinkDirectory, "modules" );
+        File jdkHome = distJlinkJdk != null && distJlinkJdk.length() > 0 ? new File( distJlinkJdk )
+                        : new File( System.getProperty( "java.home" ) );
+        entryIndex.addParameter( "distJlinkJdk", jdkHome.getAbsolutePath() );
+        entryIndex.addParameter( "distJlinkAddModules", distJlinkAddModules != null ? distJlinkAddModules : "" );
+
+        if ( !runtimeDirectory.isDirectory() || !isOutputUpToDate( entryIndex, modulesFile ) )
+        {
+            File analysisDirectory = new File( jlinkDirectory, "dist" );
+            expandArchive( entryIndex, analysisDirectory, "jlink-" + name, true );
+
+            File logFile = new File( jlinkDirectory, "jlink.log" );
+            if ( logFile.isFile() && !logFile.delete() )
+            {
+                throw new IOException( String.format( "Cannot delete \"%s\" file", logFile.getAbsolutePath() ) );
+            }
+            JlinkRuntimeBuilder builder =
+                new JlinkRuntimeBuilder( jdkHome, analysisDirectory, logFile, distJlinkTimeout );
+
+            List<String> analyzedPaths = getDistClassPath( entryIndex );
+            if ( new File( analysisDirectory, "application/precompiled/java" ).isDirectory() )
+            {
+                analyzedPaths.add( "application/precompiled/java" );
+            }
+            Set<String> modules = builder.findModules( analyzedPaths );
+            if ( distJlinkAddModules != null )
+            {
+                for ( String module : distJlinkAddModules.split( "," ) )
+                {
+                    if ( module.trim().length() > 0 )
+                    {
+                        modules.add( module.trim() );
+                    }
+                }
+            }
+            String modulesFileContent = StringUtils.join( modules.iterator(), "\n" ) + "\n";
+
+            // jdeps runs on every input change, jlink only when required modules change
+            if ( !runtimeDirectory.isDirectory() || !modulesFile.isFile()
+                || !modulesFileContent.equals( FileUtils.fileRead( modulesFile, "UTF-8" ) ) )
+            {
+                getLog().info( String.format( "Linking runtime image %s, modules: %s",
+                                              runtimeDirectory.getAbsolutePath(),
+                                              StringUtils.join( modules.iterator(), "," ) ) );
+                builder.link( modules, runtimeDirectory );
+            }
+            writeGeneratedFile( modulesFile, modulesFileContent );
+            saveInputFingerprint( entryIndex, modulesFile );
+        }
+
+        entryIndex.setLayer( "framework" );
+        addRuntimeImageFiles( entryIndex, runtimeDirectory, "runtime/" );
+    }
+
+    private void addRuntimeImageFiles( ArchiveEntryIndex entryIndex, File directory, String prefix )
+    {
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+        Arrays.sort( files );
+        for ( File file : files )
+        {
+            if ( file.isDirectory() )
+            {
+                addRuntimeImageFiles( entryIndex, file, prefix + file.getName() + "/" );
+            }
+            else if ( isExecutable( file ) )
+            {
+                entryIndex.addFile( file, prefix + file.getName(), 0755 );
+            }
+            else
+            {
+                entryIndex.addFile( file, prefix + file.getName(), 0644 );
+            }
+        }
+    }
+
+    // File.canExecute is not available in Java 5
+    private static boolean isExecutable( File file )
+    {
+        try
+        {
+            return ( (Boolean) File.class.getMethod( "canExecute" ).invoke( file ) ).booleanValue();
+        }
+        catch ( Exception e )
+        {
+            return file.getParentFile().getName().equals( "bin" );
+        }
+    }
+
+    private File getRuntimeImageDirectory( String name )
+    {
+        return new File( project.getBuild().getDirectory(), "play/jlink/" + name + "/runtime" );
     }
 
     private String scalaHack( Artifact dependencyArtifact ) throws IOException
@@ -25,6 +25,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -214,6 +215,24 @@ public abstract class AbstractPlayMojo
         return result;
     }
 
+    // "play12-extensions" library, containing plugins reading files generated by this plugin's mojos
+    protected boolean isExtensionsDependency()
+    {
+        boolean result = false;
+        Set<?> artifacts = project.getArtifacts();
+        for ( Iterator<?> iter = artifacts.iterator(); iter.hasNext(); )
+        {
+            Artifact artifact = (Artifact) iter.next();
+            if ( "com.google.code.maven-play-plugin".equals( artifact.getGroupId() )
+                && "play12-extensions".equals( artifact.getArtifactId() ) )
+            {
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
     protected Map<String, Artifact> findAllModuleArtifacts( boolean minVersionWins )
     {
         Map<String, Artifact> result = new HashMap<String, Artifact>();
@@ -275,10 +294,11 @@ public abstract class AbstractPlayMojo
             }
         }
         File result = new File( outputDirectory, "filtered-web.xml" );
+        StringWriter filtered = new StringWriter();
         BufferedReader reader = createBufferedFileReader( webXml, "UTF-8" );
         try
         {
-            BufferedWriter writer = createBufferedFileWriter( result, "UTF-8" );
+            BufferedWriter writer = new BufferedWriter( filtered );
             try
             {
                 getLog().debug( "web.xml file:" );
@@ -309,6 +329,13 @@ public abstract class AbstractPlayMojo
         {
             reader.close();
         }
+
+        // rewrite only if changed, last modification time is used to detect archive input changes
+        String content = filtered.toString();
+        if ( !result.isFile() || !content.equals( FileUtils.fileRead( result, "UTF-8" ) ) )
+        {
+            FileUtils.fileWrite( result, "UTF-8", content );
+        }
         return result;
     }
 
@@ -356,6 +383,12 @@ public abstract class AbstractPlayMojo
         return configParser;
     }
 
+    // written by "play:compile-assets" mojo, read by packaging mojos
+    protected File getCompiledAssetsDirectory()
+    {
+        return new File( project.getBuild().getDirectory(), "play/compiled-assets" );
+    }
+
     protected boolean isFrameworkEmbeddedModule( String moduleName )
     {
         boolean result =
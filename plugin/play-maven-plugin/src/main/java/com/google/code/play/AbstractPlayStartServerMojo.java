@@ -18,10 +18,14 @@ package com.google.code.play;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.FileUtils;
 
 import org.apache.tools.ant.taskdefs.Java;
 
@@ -33,6 +37,20 @@ import org.apache.tools.ant.taskdefs.Java;
 public abstract class AbstractPlayStartServerMojo
     extends AbstractPlayServerMojo
 {
+    /**
+     * Maximum time in seconds to wait for the server to start (for the http port to be bound),
+     * {@code 0} means no limit. Waiting fails immediately if the server process finishes
+     * or reports startup failure.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.serverStartTimeout", defaultValue = "0" )
+    private int startTimeout;
+
+    // { "name": "playInit", "time": 312 }
+    private static final Pattern TIMING_PHASE_PATTERN =
+        Pattern.compile( "\"name\": \"(\\w+)\", \"time\": (\\d+)" );
+
     protected Java getStartServerTask( ConfigurationParser configParser, String playId, File logFile, boolean spawn )
         throws MojoExecutionException, MojoFailureException, IOException
     {
@@ -68,6 +86,34 @@ public abstract class AbstractPlayStartServerMojo
 
         addSystemProperty( javaTask, "pidFile", pidFile.getAbsolutePath() );
 
+        File statusFile = getStatusFile();
+        if ( statusFile.exists() && !statusFile.delete() )
+        {
+            throw new MojoExecutionException( String.format( "Cannot delete \"%s\" file",
+                                                             statusFile.getAbsolutePath() ) );
+        }
+        if ( !statusFile.getParentFile().isDirectory() && !statusFile.getParentFile().mkdirs() )
+        {
+            throw new MojoExecutionException( String.format( "Cannot create %s directory",
+                                                             statusFile.getParentFile().getAbsolutePath() ) );
+        }
+        addSystemProperty( javaTask, "statusFile", statusFile.getAbsolutePath() );
+
+        File timingFile = getTimingFile();
+        if ( timingFile.exists() && !timingFile.delete() )
+        {
+            throw new MojoExecutionException( String.format( "Cannot delete \"%s\" file",
+                                                             timingFile.getAbsolutePath() ) );
+        }
+        addSystemProperty( javaTask, "timingFile", timingFile.getAbsolutePath() );
+        // startup timing plugin, used by Play! server booter to record framework phases and write timing file
+        if ( !isExtensionsDependency() )
+        {
+            Artifact extensionsArtifact =
+                getPluginArtifact( "com.google.code.maven-play-plugin", "play12-extensions", "jar" );
+            javaTask.createClasspath().createPathElement().setLocation( extensionsArtifact.getFile() );
+        }
+
         if ( logFile != null )
         {
             if ( spawn )
@@ -102,60 +148,93 @@ public abstract class AbstractPlayStartServerMojo
         return String.format( "http://localhost:%d/", serverPort );
     }
 
-    protected void waitForServerStarted( String rootUrl, JavaRunnable runner )
+    /**
+     * Waits for server readiness status written by Play! server booter after http port is bound.
+     * 
+     * @param runner runner of not spawned server process, {@code null} if the process is spawned
+     *               (cannot be monitored, only its status file is checked)
+     */
+    protected void waitForServerStarted( JavaRunnable runner )
         throws MojoExecutionException, IOException
     {
-        // boolean timedOut = false;
-
-        /*
-         * TimerTask timeoutTask = null; if (timeout > 0) { TimerTask task = new TimerTask() { public void run() {
-         * timedOut = true; } }; timer.schedule( task, timeout * 1000 ); //timeoutTask = timer.runAfter(timeout * 1000,
-         * { // timedOut = true; //}) }
-         */
-
-        boolean started = false;
-
-        URL connectUrl = new URL( rootUrl );
-        int verifyWaitDelay = 1000;
-        while ( !started )
+        File statusFile = getStatusFile();
+        long deadline = System.currentTimeMillis() + startTimeout * 1000L;
+        while ( true )
         {
-            // if (timedOut) {
-            // throw new
-            // MojoExecutionException("Unable to verify if Play! Server was started in the given time ($timeout seconds)");
-            // }
+            if ( statusFile.isFile() )
+            {
+                String status = readFileFirstLine( statusFile );
+                if ( status != null && status.startsWith( "started" ) )
+                {
+                    logStartupTiming();
+                    break;
+                }
+                if ( status != null && status.startsWith( "failed" ) )
+                {
+                    throw new MojoExecutionException( String.format( "Failed to start Play! Server: %s",
+                                                                     status.substring( "failed".length() ).trim() ) );
+                }
+            }
+
+            if ( runner != null )
+            {
+                Exception runnerException = runner.getException();
+                if ( runnerException != null )
+                {
+                    throw new MojoExecutionException( "Failed to start Play! Server", runnerException );
+                }
+                if ( runner.isFinished() )
+                {
+                    throw new MojoExecutionException( "Play! Server process finished before it was started" );
+                }
+            }
 
-            Exception runnerException = runner.getException();
-            if ( runnerException != null )
+            if ( startTimeout > 0 && System.currentTimeMillis() > deadline )
             {
-                throw new MojoExecutionException( "Failed to start Play! Server", runnerException );
+                throw new MojoExecutionException( String.format( "Play! Server did not start in %d seconds",
+                                                                 startTimeout ) );
             }
 
             try
             {
-                connectUrl.openConnection().getContent();
-                started = true;
+                Thread.sleep( 50L );
             }
-            catch ( Exception e )
+            catch ( InterruptedException e )
             {
-                // return false;
+                throw new MojoExecutionException( "?", e );
             }
+        }
+    }
 
-            if ( !started )
+    // timing file is written by Play! server booter before status file
+    private void logStartupTiming()
+        throws IOException
+    {
+        File timingFile = getTimingFile();
+        if ( timingFile.isFile() )
+        {
+            StringBuilder summary = new StringBuilder();
+            Matcher matcher = TIMING_PHASE_PATTERN.matcher( FileUtils.fileRead( timingFile, "UTF-8" ) );
+            while ( matcher.find() )
             {
-                try
+                if ( !"jvmStart".equals( matcher.group( 1 ) ) )
                 {
-                    Thread.sleep( verifyWaitDelay );
-                }
-                catch ( InterruptedException e )
-                {
-                    throw new MojoExecutionException( "?", e );
+                    summary.append( summary.length() > 0 ? ", " : "" );
+                    summary.append( matcher.group( 1 ) ).append( ' ' ).append( matcher.group( 2 ) ).append( " ms" );
                 }
             }
+            getLog().info( String.format( "Play! Server startup: %s (%s)", summary, timingFile.getAbsolutePath() ) );
         }
+    }
 
-        /*
-         * if (timeoutTask != null) { timeoutTask.cancel(); }
-         */
+    private File getTimingFile()
+    {
+        return new File( project.getBuild().getDirectory(), "play/startup-timing.json" );
+    }
+
+    private File getStatusFile()
+    {
+        return new File( project.getBuild().getDirectory(), "play/server.status" );
     }
 
 }
@@ -18,7 +18,9 @@ package com.google.code.play;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -153,6 +155,137 @@ public abstract class AbstractPlayWarMojo
     @Parameter( property = "play.warFilterWebXml", defaultValue = "true" )
     private boolean warFilterWebXml;
 
+    /**
+     * Remove application libraries not reachable from application classes. Reachability is computed
+     * from precompiled application classes, application configuration files and framework and modules
+     * libraries. Requires precompiled application. Report is written to "play/shrink/war.txt" file
+     * in build directory.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warShrinkLibs", defaultValue = "false" )
+    private boolean warShrinkLibs;
+
+    /**
+     * Classes never removed by libraries shrinking, comma separated class name patterns
+     * (for example "org.postgresql.**"). Use for classes loaded by reflection.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warShrinkKeep", defaultValue = "" )
+    private String warShrinkKeep;
+
+    /**
+     * Merge released, not signed application libraries into one "war-merged-libs.jar" jar file with
+     * package index, to speed up class and resource lookups. Service files ("META-INF/services/*",
+     * "play.plugins") are concatenated, conflicts are reported in "play/merged/war-conflicts.txt" file
+     * in build directory.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warMergeLibs", defaultValue = "false" )
+    private boolean warMergeLibs;
+
+    /**
+     * Add Play! application class index ("precompiled/class-index.txt") to the war file. The index is used
+     * by class index plugin from "play12-extensions" library (it has to be an application dependency)
+     * to register precompiled application classes at startup without scanning "precompiled/java"
+     * directory. Requires precompiled application.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warClassIndex", defaultValue = "false" )
+    private boolean warClassIndex;
+
+    /**
+     * Pack precompiled application classes and templates into one archive ("precompiled/precompiled.jar")
+     * instead of adding thousands of small files to the war file. The archive is used by precompiled archive
+     * plugin from "play12-extensions" library (it has to be an application dependency). Requires precompiled
+     * application.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warPrecompiledArchive", defaultValue = "false" )
+    private boolean warPrecompiledArchive;
+
+    /**
+     * Add content-hashed copies ("public/stylesheets/main-0123456789.css") and gzip compressed siblings
+     * ("public/stylesheets/main.css.gz") of application public assets, and asset manifest
+     * ("conf/asset-manifest.txt") to the war file. Original assets are kept. The manifest is used by asset plugin
+     * from "play12-extensions" library (it has to be an application dependency), which resolves fingerprinted
+     * asset URLs and serves them with long-lived caching headers and precompressed content.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warFingerprintAssets", defaultValue = "false" )
+    private boolean warFingerprintAssets;
+
+    /**
+     * JavaScript and CSS bundle definitions file. If set, defined bundles of application public assets
+     * are concatenated (and minified, see "warBundlesMinify" parameter) and added to the war file,
+     * source files are kept.
+     * Every line defines one bundle: {@code bundle = includePattern, includePattern, !excludePattern},
+     * paths and patterns are relative to "public" directory, for example
+     * "javascripts/all.min.js = javascripts/jquery.js, javascripts/app/**&#47;*.js, !javascripts/app/debug.js".
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warBundles" )
+    private File warBundles;
+
+    /**
+     * Minify ".js" and ".css" bundles defined in "warBundles" file. Comments and unnecessary whitespace are removed.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warBundlesMinify", defaultValue = "true" )
+    private boolean warBundlesMinify;
+
+    /**
+     * Add Play! route table ("precompiled/routes.txt") to the war file. Application and module routes files
+     * are parsed and validated at build time. The table is used by route table plugin from "play12-extensions"
+     * library (it has to be an application dependency) to load routes in production mode without parsing
+     * routes files. Routes files using template expressions or "module:*" includes cannot be precompiled.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warRouteTable", defaultValue = "false" )
+    private boolean warRouteTable;
+
+    /**
+     * Skinny WAR mode. Third-party dependencies of Play! framework are not added to "WEB-INF/lib",
+     * they are written to versioned shared libraries bundle instead
+     * ("${project.build.directory}/play/shared/play-shared-libs-&lt;play version&gt;-&lt;hash&gt;.zip"),
+     * to be installed once in container's shared class loader (Tomcat "shared.loader") and used
+     * by many applications. Play! framework jar and libraries referencing its classes (directly or through
+     * other libraries, for example patched Hibernate) stay in "WEB-INF/lib": classes loaded by shared class
+     * loader cannot see web application libraries, and Play! static state would be shared by all applications.
+     * Module and application libraries are never shared. Bundle manifest is added to the war file ("conf/shared-libs.txt" in application
+     * directory), shared libraries plugin from "play12-extensions" library (it has to be an application
+     * dependency) stops the application at startup if the installed bundle has different version.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warSkinny", defaultValue = "false" )
+    private boolean warSkinny;
+
+    /**
+     * What to do with classes present in more than one library packaged in "WEB-INF/lib" (and libraries present
+     * in more than one version): "off" (no analysis), "warn", "fail" (the build) or "remove" (warn and remove
+     * libraries fully shadowed by other libraries, all their classes and resources are present with the same
+     * content in other libraries). Libraries are compared by reading zip central directories only. Report with
+     * libraries dependency paths is written to "play/duplicates/war.txt" file in build directory.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warDuplicateClasses", defaultValue = "off" )
+    private String warDuplicateClasses;
+
+    /**
+     * Shared libraries bundle written in skinny WAR mode, null if not written.
+     */
+    private File sharedLibsBundleFile;
+
     protected void checkIfPrecompiled() throws IOException, MojoExecutionException
     {
         File baseDir = project.getBasedir();
@@ -171,17 +304,60 @@ public abstract class AbstractPlayWarMojo
         }
     }
     
-    protected WarArchiver prepareArchiver( ConfigurationParser configParser, boolean addWarDirectory )
+    protected ArchiveEntryIndex prepareArchiver( ConfigurationParser configParser, boolean addWarDirectory )
+        throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
+    {
+        return prepareArchiver( configParser, addWarDirectory, playWarId, "war", null );
+    }
+
+    /**
+     * Prepares WAR entry index for given Play! id.
+     *
+     * @param configParser application configuration for the Play! id
+     * @param addWarDirectory add webapp directory content
+     * @param warPlayId Play! id (profile)
+     * @param name name of this WAR, used in generated files paths
+     * @param scanCache directory and archive scanning results shared with other WARs, may be null
+     */
+    protected ArchiveEntryIndex prepareArchiver( ConfigurationParser configParser, boolean addWarDirectory,
+                                                 String warPlayId, String name,
+                                                 Map<String, List<ArchiveEntryIndex.Entry>> scanCache )
         throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
     {
         WarArchiver warArchiver = getWarArchiver();
+        ArchiveEntryIndex entryIndex = createEntryIndex( warArchiver );
+        entryIndex.setScanCache( scanCache );
+        entryIndex.addParameter( "playWarId", warPlayId );
+        entryIndex.addParameter( "warApplicationIncludes", warApplicationIncludes );
+        entryIndex.addParameter( "warApplicationExcludes", warApplicationExcludes );
+        entryIndex.addParameter( "warFrameworkIncludes", warFrameworkIncludes );
+        entryIndex.addParameter( "warFrameworkExcludes", warFrameworkExcludes );
+        entryIndex.addParameter( "warModulesIncludes", warModulesIncludes );
+        entryIndex.addParameter( "warModulesExcludes", warModulesExcludes );
+        entryIndex.addParameter( "warDependencyIncludes", warDependencyIncludes );
+        entryIndex.addParameter( "warDependencyExcludes", warDependencyExcludes );
+        entryIndex.addParameter( "warConfResourcesIncludes", warConfResourcesIncludes );
+        entryIndex.addParameter( "warConfResourcesExcludes", warConfResourcesExcludes );
+        entryIndex.addParameter( "warFilterWebXml", String.valueOf( warFilterWebXml ) );
+        entryIndex.addParameter( "warShrinkLibs", String.valueOf( warShrinkLibs ) );
+        entryIndex.addParameter( "warShrinkKeep", warShrinkKeep );
+        entryIndex.addParameter( "warMergeLibs", String.valueOf( warMergeLibs ) );
+        entryIndex.addParameter( "warClassIndex", String.valueOf( warClassIndex ) );
+        entryIndex.addParameter( "warPrecompiledArchive", String.valueOf( warPrecompiledArchive ) );
+        entryIndex.addParameter( "warFingerprintAssets", String.valueOf( warFingerprintAssets ) );
+        entryIndex.addParameter( "warBundles", warBundles != null ? warBundles.getAbsolutePath() : null );
+        entryIndex.addParameter( "warBundlesMinify", String.valueOf( warBundlesMinify ) );
+        entryIndex.addParameter( "warRouteTable", String.valueOf( warRouteTable ) );
+        entryIndex.addParameter( "warSkinny", String.valueOf( warSkinny ) );
+        entryIndex.addParameter( "warDuplicateClasses", warDuplicateClasses );
+        entryIndex.addParameter( "applicationName", configParser.getApplicationName() );
 
         File playHome = getPlayHome();
 
         File baseDir = project.getBasedir();
         File buildDirectory = new File( project.getBuild().getDirectory() );
 
-        Set<String> providedModuleNames = getProvidedModuleNames( configParser, playWarId, true );
+        Set<String> providedModuleNames = getProvidedModuleNames( configParser, warPlayId, true );
 
         // APPLICATION
         getLog().debug( "War application includes: " + warApplicationIncludes );
@@ -197,7 +373,21 @@ public abstract class AbstractPlayWarMojo
         {
             applicationExcludes = warApplicationExcludes.split( "," );
         }
-        warArchiver.addDirectory( baseDir, "WEB-INF/application/", applicationIncludes, applicationExcludes );
+        if ( warPrecompiledArchive )
+        {
+            applicationExcludes = getPrecompiledArchiveExcludes( applicationExcludes );
+        }
+        entryIndex.addDirectory( baseDir, "WEB-INF/application/", applicationIncludes, applicationExcludes );
+        // "play12-extensions" library's plugins reading generated files
+        List<String> extensionPlugins = new ArrayList<String>();
+        if ( addCompiledAssets( entryIndex, "WEB-INF/application/" ) )
+        {
+            extensionPlugins.add( AssetCompiler.PLAY_PLUGIN );
+        }
+        if ( warBundles != null )
+        {
+            addBundles( entryIndex, warBundles, warBundlesMinify, "WEB-INF/application/", name );
+        }
 
         getLog().debug( "War conf classpath resources includes: " + warConfResourcesIncludes );
         getLog().debug( "War conf classpath resources excludes: " + warConfResourcesExcludes );
@@ -211,7 +401,8 @@ public abstract class AbstractPlayWarMojo
         {
             confResourcesExcludes = warConfResourcesExcludes.split( "," );
         }
-        warArchiver.addClasses( new File( baseDir, "conf" ), confResourcesIncludes, confResourcesExcludes );
+        entryIndex.addDirectory( new File( baseDir, "conf" ), "WEB-INF/classes/", confResourcesIncludes,
+                                 confResourcesExcludes );
 
         File webXmlFile = new File( warWebappDirectory, "WEB-INF/web.xml" );
         if ( !webXmlFile.isFile() )
@@ -220,10 +411,12 @@ public abstract class AbstractPlayWarMojo
         }
         if ( warFilterWebXml )
         {
-            File tmpDirectory = new File( buildDirectory, "play/tmp" );
-            webXmlFile = filterWebXml( webXmlFile, tmpDirectory, configParser.getApplicationName(), playWarId );
+            // the same directory as in "play:war-support" mojo for default WAR
+            File tmpDirectory = new File( buildDirectory, "war".equals( name ) ? "play/tmp" : "play/tmp/" + name );
+            webXmlFile = filterWebXml( webXmlFile, tmpDirectory, configParser.getApplicationName(), warPlayId );
         }
         warArchiver.setWebxml( webXmlFile );
+        entryIndex.indexFile( webXmlFile, "WEB-INF/web.xml" );
 
         // preparation
         Set<?> projectArtifacts = project.getArtifacts();
@@ -290,18 +483,33 @@ public abstract class AbstractPlayWarMojo
         Artifact frameworkZipArtifact = findFrameworkArtifact( true );
         // TODO-validate not null
         File frameworkZipFile = frameworkZipArtifact.getFile();
-        warArchiver.addArchivedFileSet( frameworkZipFile, "WEB-INF/", frameworkIncludes, frameworkExcludes );
+        entryIndex.addArchivedFileSet( frameworkZipFile, "WEB-INF/", frameworkIncludes, frameworkExcludes );
         Artifact frameworkJarArtifact =
             getDependencyArtifact( filteredArtifacts, frameworkZipArtifact.getGroupId(),
                                    frameworkZipArtifact.getArtifactId(), "jar" );
         // TODO-validate not null
         Set<Artifact> dependencySubtree = getFrameworkDependencyArtifacts( filteredArtifacts, frameworkJarArtifact );
-        for ( Artifact classPathArtifact : dependencySubtree )
+        // framework and modules libraries, added to "WEB-INF/lib" after duplicate classes analysis
+        List<Artifact> frameworkAndModulesLibs = new ArrayList<Artifact>();
+        Set<Artifact> sharedArtifacts = new HashSet<Artifact>();
+        if ( warSkinny )
+        {
+            sharedArtifacts.addAll( getSharedArtifacts( dependencySubtree, frameworkJarArtifact ) );
+            addSharedLibs( entryIndex, sharedArtifacts, frameworkJarArtifact, name );
+            extensionPlugins.add( SharedLibsWriter.PLAY_PLUGIN );
+            for ( Artifact artifact : dependencySubtree )
+            {
+                if ( !sharedArtifacts.contains( artifact ) )
+                {
+                    frameworkAndModulesLibs.add( artifact );
+                }
+            }
+        }
+        else
         {
-            File jarFile = classPathArtifact.getFile();
-            warArchiver.addLib( jarFile );
-            filteredArtifacts.remove( classPathArtifact );
+            frameworkAndModulesLibs.addAll( dependencySubtree );
         }
+        filteredArtifacts.removeAll( dependencySubtree );
 
         // modules
         getLog().debug( "War modules includes: " + warModulesIncludes );
@@ -337,14 +545,10 @@ public abstract class AbstractPlayWarMojo
                     {
                         moduleSubDir = String.format( "WEB-INF/modules/%s/", moduleName );
                     }
-                    warArchiver.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
+                    entryIndex.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
                     dependencySubtree = getModuleDependencyArtifacts( filteredArtifacts, moduleZipArtifact );
-                    for ( Artifact classPathArtifact : dependencySubtree )
-                    {
-                        File jarFile = classPathArtifact.getFile();
-                        warArchiver.addLib( jarFile );
-                        filteredArtifacts.remove( classPathArtifact );
-                    }
+                    frameworkAndModulesLibs.addAll( dependencySubtree );
+                    filteredArtifacts.removeAll( dependencySubtree );
                     // Scala hack - NOT NEEDED, war works without it (maybe bacause precompiled == true)
                     //if ( "scala".equals( moduleName ) )
                     //{
@@ -358,14 +562,10 @@ public abstract class AbstractPlayWarMojo
             }
             else
             {
-                warArchiver.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
+                entryIndex.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
                 dependencySubtree = getModuleDependencyArtifacts( filteredArtifacts, moduleZipArtifact );
-                for ( Artifact classPathArtifact : dependencySubtree )
-                {
-                    File jarFile = classPathArtifact.getFile();
-                    warArchiver.addLib( jarFile );
-                    filteredArtifacts.remove( classPathArtifact );
-                }
+                frameworkAndModulesLibs.addAll( dependencySubtree );
+                filteredArtifacts.removeAll( dependencySubtree );
             }
         }
 
@@ -376,18 +576,60 @@ public abstract class AbstractPlayWarMojo
         }
 
         // lib
+        List<Artifact> allLibs = new ArrayList<Artifact>( frameworkAndModulesLibs );
+        allLibs.addAll( filteredArtifacts );
+        Set<Artifact> shadowedLibs = analyzeDuplicateClasses( allLibs, sharedArtifacts, warDuplicateClasses, name );
+        for ( Artifact artifact : frameworkAndModulesLibs )
+        {
+            if ( !shadowedLibs.contains( artifact ) )
+            {
+                File jarFile = artifact.getFile();
+                entryIndex.addFile( jarFile, "WEB-INF/lib/" + jarFile.getName() );
+            }
+        }
+        filteredArtifacts.removeAll( shadowedLibs );
+        if ( warShrinkLibs )
+        {
+            filteredArtifacts.removeAll( findUnreachableLibraries( entryIndex, filteredArtifacts, warShrinkKeep,
+                                                                   name ) );
+        }
+        if ( warMergeLibs )
+        {
+            filteredArtifacts.removeAll( mergeLibraries( entryIndex, filteredArtifacts, "WEB-INF/lib/", name ) );
+        }
         for ( Iterator<?> iter = filteredArtifacts.iterator(); iter.hasNext(); )
         {
             Artifact artifact = (Artifact) iter.next();
             // TODO-exclude test-scoped dependencies?
             File jarFile = artifact.getFile();
-            warArchiver.addLib( jarFile );
+            entryIndex.addFile( jarFile, "WEB-INF/lib/" + jarFile.getName() );
+        }
+
+        if ( warClassIndex && addClassIndex( entryIndex, "WEB-INF/application/", name ) )
+        {
+            extensionPlugins.add( ClassIndexWriter.PLAY_PLUGIN );
+        }
+        if ( warRouteTable && addRouteTable( entryIndex, "WEB-INF/application/", name ) )
+        {
+            extensionPlugins.add( RouteTableWriter.PLAY_PLUGIN );
+        }
+        if ( warPrecompiledArchive && addPrecompiledArchive( entryIndex, "WEB-INF/application/", name ) )
+        {
+            extensionPlugins.add( PrecompiledArchiveWriter.PLAY_PLUGIN );
+        }
+        if ( warFingerprintAssets )
+        {
+            addFingerprintedAssets( entryIndex, "WEB-INF/application/", name );
+            extensionPlugins.add( AssetFingerprinter.PLAY_PLUGIN );
         }
+        addExtensionPlugins( entryIndex, extensionPlugins, "WEB-INF/lib/", name );
 
         if ( addWarDirectory )
         {
             if ( warWebappDirectory.isDirectory() )
             {
+                entryIndex.addParameter( "webappIncludes", getWebappIncludes() );
+                entryIndex.addParameter( "webappExcludes", getWebappExcludes() );
                 String[] webappIncludes = null;
                 if ( getWebappIncludes() != null )
                 {
@@ -398,13 +640,73 @@ public abstract class AbstractPlayWarMojo
                 {
                     webappExcludes = getWebappExcludes().split( "," );
                 }
-                warArchiver.addDirectory( warWebappDirectory, webappIncludes, webappExcludes );
+                entryIndex.addDirectory( warWebappDirectory, webappIncludes, webappExcludes );
             }
         }
 
-        checkArchiverForProblems( warArchiver );
+        checkForDuplicates( entryIndex );
         
-        return warArchiver;
+        return entryIndex;
+    }
+
+    // framework dependencies not depending on Play! framework jar, Play! classes have to be loaded
+    // by web application class loader
+    private Set<Artifact> getSharedArtifacts( Set<Artifact> frameworkArtifacts, Artifact frameworkJarArtifact )
+        throws IOException
+    {
+        ClassReachabilityAnalyzer analyzer = new ClassReachabilityAnalyzer();
+        Set<Artifact> result = new HashSet<Artifact>();
+        for ( Artifact artifact : frameworkArtifacts )
+        {
+            File file = artifact.getFile();
+            if ( file != null && file.isFile() && file.getName().endsWith( ".jar" ) )
+            {
+                analyzer.addCandidateJar( file );
+                result.add( artifact );
+            }
+        }
+        Set<File> playDependentJars =
+            analyzer.findDependentJars( Collections.singleton( frameworkJarArtifact.getFile() ) );
+        for ( Iterator<Artifact> iter = result.iterator(); iter.hasNext(); )
+        {
+            Artifact artifact = iter.next();
+            if ( playDependentJars.contains( artifact.getFile() ) )
+            {
+                getLog().debug( String.format( "Library %s depends on Play! framework, kept in \"WEB-INF/lib\"",
+                                               artifact.getId() ) );
+                iter.remove();
+            }
+        }
+        return result;
+    }
+
+    private void addSharedLibs( ArchiveEntryIndex entryIndex, Set<Artifact> sharedArtifacts,
+                                Artifact frameworkJarArtifact, String name )
+        throws IOException
+    {
+        File sharedDirectory = new File( project.getBuild().getDirectory(), "play/shared" );
+        SharedLibsWriter sharedLibsWriter =
+            new SharedLibsWriter( "play-shared-libs-" + frameworkJarArtifact.getBaseVersion() );
+        for ( Artifact artifact : sharedArtifacts )
+        {
+            sharedLibsWriter.addLib( artifact.getFile() );
+        }
+        sharedLibsBundleFile = sharedLibsWriter.write( sharedDirectory );
+        getLog().info( String.format( "%d framework libraries moved to shared libraries bundle %s, install its content in container's shared class loader",
+                                      sharedArtifacts.size(), sharedLibsBundleFile.getAbsolutePath() ) );
+
+        File manifestFile = new File( sharedDirectory, name + "-shared-libs.txt" );
+        writeGeneratedFile( manifestFile, sharedLibsWriter.getManifest() );
+        entryIndex.addFile( manifestFile, "WEB-INF/application/conf/shared-libs.txt" );
+    }
+
+    /**
+     * Returns shared libraries bundle written by the last {@code prepareArchiver} call
+     * in skinny WAR mode, null if not written.
+     */
+    protected File getSharedLibsBundleFile()
+    {
+        return sharedLibsBundleFile;
     }
 
     protected String getWebappIncludes()
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Builds AppCDS (application class data sharing) archive.
+ *
+ * Loaded classes are recorded during training run of the application
+ * ({@code -XX:DumpLoadedClassList}), then shared archive is dumped from
+ * recorded class list ({@code -Xshare:dump}). Only classes loaded from the class path
+ * (not from Play&#33; application class loader) are archived. Requires Java 10 or later.
+ * The archive can be used only with the same JVM and the same class path (class
+ * path used at runtime can have additional entries at the end).
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AppCdsArchiveBuilder
+{
+    private File javaExecutable;
+
+    private ProcessExecutor executor;
+
+    /**
+     * Creates builder.
+     *
+     * @param javaExecutable java executable
+     * @param workingDirectory working directory of executed JVMs, relative class path entries are resolved against it
+     * @param logFile file the output of executed JVMs is written to
+     * @param timeout maximum execution time of every JVM in seconds
+     */
+    public AppCdsArchiveBuilder( File javaExecutable, File workingDirectory, File logFile, int timeout )
+    {
+        this.javaExecutable = javaExecutable;
+        this.executor = new ProcessExecutor( workingDirectory, logFile, timeout );
+    }
+
+    /**
+     * Executes training run of the application recording loaded classes. Main class must exit
+     * after the application is started.
+     */
+    public void train( List<String> classPath, List<String> jvmArgs, String mainClass, List<String> args,
+                       File classListFile )
+        throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( javaExecutable.getAbsolutePath() );
+        command.add( "-XX:DumpLoadedClassList=" + classListFile.getAbsolutePath() );
+        command.addAll( jvmArgs );
+        command.add( "-cp" );
+        command.add( StringUtils.join( classPath.iterator(), File.pathSeparator ) );
+        command.add( mainClass );
+        command.addAll( args );
+        executor.execute( "AppCDS training run", command );
+    }
+
+    /**
+     * Dumps shared archive containing classes from class list.
+     */
+    public void dump( List<String> classPath, File classListFile, File archiveFile )
+        throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( javaExecutable.getAbsolutePath() );
+        command.add( "-Xshare:dump" );
+        command.add( "-XX:SharedClassListFile=" + classListFile.getAbsolutePath() );
+        command.add( "-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath() );
+        command.add( "-cp" );
+        command.add( StringUtils.join( classPath.iterator(), File.pathSeparator ) );
+        executor.execute( "AppCDS archive dump", command );
+    }
+
+}
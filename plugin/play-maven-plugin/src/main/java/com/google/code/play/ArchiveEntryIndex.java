@@ -0,0 +1,507 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.archiver.Archiver;
+import org.codehaus.plexus.archiver.commonscompress.archivers.zip.ZipArchiveEntry;
+import org.codehaus.plexus.archiver.commonscompress.archivers.zip.ZipFile;
+import org.codehaus.plexus.archiver.util.DefaultArchivedFileSet;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Archive entry path index.
+ *
+ * Every resource added to the archiver through this class is indexed by its
+ * destination path. Directories are listed and archives are read from their
+ * central directories only, so building the index is much cheaper than
+ * iterating over archiver resources.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ArchiveEntryIndex
+{
+
+    /**
+     * Indexed archive entry.
+     */
+    public static class Entry
+    {
+        private String name;
+
+        private File file;
+
+        private String archiveEntryName;
+
+        private boolean directory;
+
+        private long size;
+
+        private long lastModified;
+
+        private String layer;
+
+        private int mode;
+
+        Entry( String name, File file, String archiveEntryName, boolean directory, long size, long lastModified )
+        {
+            this.name = name;
+            this.file = file;
+            this.archiveEntryName = archiveEntryName;
+            this.directory = directory;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Destination path, always '/' separated.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Source file, or source archive file for archive entries.
+         */
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * Source archive entry name, {@code null} if the source is not an archive entry.
+         */
+        public String getArchiveEntryName()
+        {
+            return archiveEntryName;
+        }
+
+        public boolean isArchiveEntry()
+        {
+            return archiveEntryName != null;
+        }
+
+        public boolean isDirectory()
+        {
+            return directory;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         * Unix file mode stored in source archive or given when adding the file, {@code 0} if unknown.
+         */
+        public int getMode()
+        {
+            return mode;
+        }
+
+        /**
+         * Layer this entry belongs to, {@code null} if not assigned.
+         */
+        public String getLayer()
+        {
+            return layer;
+        }
+
+        public String getSourceDescription()
+        {
+            String result = file.getPath();
+            if ( archiveEntryName != null )
+            {
+                result = result + "!/" + archiveEntryName;
+            }
+            return result;
+        }
+    }
+
+    private Archiver archiver;
+
+    private Map<String, List<Entry>> files = new LinkedHashMap<String, List<Entry>>();
+
+    private Map<String, Entry> directories = new LinkedHashMap<String, Entry>();
+
+    private Map<String, String> parameters = new TreeMap<String, String>();
+
+    private String layer;
+
+    // scan key -> entries found by directory or archive scanning, shared between indexes
+    private Map<String, List<Entry>> scanCache;
+
+    public ArchiveEntryIndex( Archiver archiver )
+    {
+        this.archiver = archiver;
+    }
+
+    public Archiver getArchiver()
+    {
+        return archiver;
+    }
+
+    public void addDirectory( File directory, String[] includes, String[] excludes )
+    {
+        addDirectory( directory, "", includes, excludes );
+    }
+
+    public void addDirectory( File directory, String prefix, String[] includes, String[] excludes )
+    {
+        archiver.addDirectory( directory, prefix, includes, excludes );
+        indexDirectory( directory, prefix, includes, excludes );
+    }
+
+    public void addArchivedFileSet( File archiveFile, String[] includes, String[] excludes )
+        throws IOException
+    {
+        addArchivedFileSet( archiveFile, "", includes, excludes );
+    }
+
+    public void addArchivedFileSet( File archiveFile, String prefix, String[] includes, String[] excludes )
+        throws IOException
+    {
+        archiver.addArchivedFileSet( DefaultArchivedFileSet.archivedFileSet( archiveFile ).prefixed( prefix )
+            .includeExclude( includes, excludes ).includeEmptyDirs( archiver.getIncludeEmptyDirs() ) );
+        indexArchive( archiveFile, prefix, includes, excludes );
+    }
+
+    public void addFile( File file, String destFileName )
+    {
+        archiver.addFile( file, destFileName );
+        indexFile( file, destFileName );
+    }
+
+    /**
+     * Adds file with given Unix file mode (for example {@code 0755} for scripts).
+     */
+    public void addFile( File file, String destFileName, int mode )
+    {
+        archiver.addFile( file, destFileName, mode );
+        Entry entry = new Entry( destFileName, file, null, false, file.length(), file.lastModified() );
+        entry.mode = mode;
+        addEntry( entry );
+    }
+
+    /**
+     * Indexes file added to the archiver by other means (for example WAR archiver's deployment descriptor).
+     */
+    public void indexFile( File file, String destFileName )
+    {
+        addEntry( new Entry( destFileName, file, null, false, file.length(), file.lastModified() ) );
+    }
+
+    /**
+     * Sets cache of directory and archive scanning results. Indexes sharing the same cache
+     * (for example indexes of several archives built from the same sources) scan every
+     * directory and archive only once. Not thread safe.
+     */
+    public void setScanCache( Map<String, List<Entry>> scanCache )
+    {
+        this.scanCache = scanCache;
+    }
+
+    /**
+     * Sets layer assigned to entries added from now on.
+     */
+    public void setLayer( String layer )
+    {
+        this.layer = layer;
+    }
+
+    /**
+     * Records configuration parameter influencing archive content (used in input fingerprint).
+     */
+    public void addParameter( String name, String value )
+    {
+        parameters.put( name, value );
+    }
+
+    public Map<String, String> getParameters()
+    {
+        return Collections.unmodifiableMap( parameters );
+    }
+
+    /**
+     * Returns all indexed file and directory entries. If there are duplicated paths,
+     * only the first entry for every path is returned.
+     */
+    public Collection<Entry> getEntries()
+    {
+        List<Entry> result = new ArrayList<Entry>( directories.size() + files.size() );
+        result.addAll( directories.values() );
+        for ( List<Entry> entries : files.values() )
+        {
+            result.add( entries.get( 0 ) );
+        }
+        return result;
+    }
+
+    /**
+     * Returns all file paths added more than once, with all their sources.
+     */
+    public Map<String, List<Entry>> getDuplicates()
+    {
+        Map<String, List<Entry>> result = new LinkedHashMap<String, List<Entry>>();
+        for ( Map.Entry<String, List<Entry>> entry : files.entrySet() )
+        {
+            if ( entry.getValue().size() > 1 )
+            {
+                result.put( entry.getKey(), entry.getValue() );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts entries by path and adds missing parent directories.
+     *
+     * @param entries entries to sort
+     * @return map from entry path (directory paths end with '/') to entry,
+     *         {@code null} for added parent directories
+     */
+    public static SortedMap<String, Entry> sortWithParentDirectories( Collection<Entry> entries )
+    {
+        SortedMap<String, Entry> result = new TreeMap<String, Entry>();
+        for ( Entry entry : entries )
+        {
+            result.put( entry.isDirectory() ? entry.getName() + "/" : entry.getName(), entry );
+        }
+        for ( Entry entry : entries )
+        {
+            String name = entry.getName();
+            int p = name.lastIndexOf( '/' );
+            while ( p > 0 )
+            {
+                name = name.substring( 0, p );
+                if ( !result.containsKey( name + "/" ) )
+                {
+                    result.put( name + "/", null );
+                }
+                p = name.lastIndexOf( '/' );
+            }
+        }
+        return result;
+    }
+
+    private void indexDirectory( File directory, String prefix, String[] includes, String[] excludes )
+    {
+        if ( !directory.isDirectory() )
+        {
+            return;
+        }
+
+        String scanKey = getScanKey( directory, prefix, includes, excludes );
+        if ( addCachedEntries( scanKey ) )
+        {
+            return;
+        }
+        List<Entry> scannedEntries = new ArrayList<Entry>();
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir( directory );
+        scanner.setIncludes( includes );
+        scanner.setExcludes( excludes );
+        scanner.addDefaultExcludes();
+        scanner.scan();
+
+        String pathPrefix = normalizePrefix( prefix );
+        for ( String name : scanner.getIncludedDirectories() )
+        {
+            if ( name.length() > 0 )
+            {
+                File dir = new File( directory, name );
+                scannedEntries.add( new Entry( pathPrefix + name.replace( File.separatorChar, '/' ), dir, null, true,
+                                               0L, dir.lastModified() ) );
+            }
+        }
+        for ( String name : scanner.getIncludedFiles() )
+        {
+            File file = new File( directory, name );
+            scannedEntries.add( new Entry( pathPrefix + name.replace( File.separatorChar, '/' ), file, null, false,
+                                           file.length(), file.lastModified() ) );
+        }
+        addScannedEntries( scanKey, scannedEntries );
+    }
+
+    private void indexArchive( File archiveFile, String prefix, String[] includes, String[] excludes )
+        throws IOException
+    {
+        String scanKey = getScanKey( archiveFile, prefix, includes, excludes );
+        if ( addCachedEntries( scanKey ) )
+        {
+            return;
+        }
+        List<Entry> scannedEntries = new ArrayList<Entry>();
+
+        String pathPrefix = normalizePrefix( prefix );
+        String[] includePatterns = normalizePatterns( includes );
+        String[] excludePatterns = normalizePatterns( excludes );
+        String[] defaultExcludePatterns = normalizePatterns( DirectoryScanner.DEFAULTEXCLUDES );
+
+        // Plexus Archiver's zip file implementation reads Unix file modes
+        ZipFile zipFile = new ZipFile( archiveFile );
+        try
+        {
+            for ( Enumeration<ZipArchiveEntry> en = zipFile.getEntries(); en.hasMoreElements(); )
+            {
+                ZipArchiveEntry zipEntry = en.nextElement();
+                String entryName = zipEntry.getName();
+                String name = entryName.endsWith( "/" ) ? entryName.substring( 0, entryName.length() - 1 ) : entryName;
+                if ( name.length() > 0
+                    && ( includePatterns == null || matches( name, includePatterns ) )
+                    && !matches( name, excludePatterns ) && !matches( name, defaultExcludePatterns ) )
+                {
+                    Entry entry = new Entry( pathPrefix + name, archiveFile, entryName, zipEntry.isDirectory(),
+                                             zipEntry.getSize(), zipEntry.getTime() );
+                    entry.mode = zipEntry.getUnixMode();
+                    scannedEntries.add( entry );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        addScannedEntries( scanKey, scannedEntries );
+    }
+
+    private static String getScanKey( File source, String prefix, String[] includes, String[] excludes )
+    {
+        return source.getAbsolutePath() + "|" + prefix + "|" + ( includes != null ? Arrays.asList( includes ) : null )
+            + "|" + ( excludes != null ? Arrays.asList( excludes ) : null );
+    }
+
+    private boolean addCachedEntries( String scanKey )
+    {
+        List<Entry> cachedEntries = scanCache != null ? scanCache.get( scanKey ) : null;
+        if ( cachedEntries != null )
+        {
+            addScannedEntries( null, cachedEntries );
+        }
+        return cachedEntries != null;
+    }
+
+    // entries are copied, every index assigns its own layers
+    private void addScannedEntries( String scanKey, List<Entry> scannedEntries )
+    {
+        for ( Entry scannedEntry : scannedEntries )
+        {
+            Entry entry = new Entry( scannedEntry.name, scannedEntry.file, scannedEntry.archiveEntryName,
+                                     scannedEntry.directory, scannedEntry.size, scannedEntry.lastModified );
+            entry.mode = scannedEntry.mode;
+            addEntry( entry );
+        }
+        if ( scanKey != null && scanCache != null )
+        {
+            scanCache.put( scanKey, scannedEntries );
+        }
+    }
+
+    private void addEntry( Entry entry )
+    {
+        entry.layer = layer;
+        if ( entry.isDirectory() )
+        {
+            if ( !directories.containsKey( entry.getName() ) )
+            {
+                directories.put( entry.getName(), entry );
+            }
+        }
+        else
+        {
+            List<Entry> entries = files.get( entry.getName() );
+            if ( entries == null )
+            {
+                entries = new ArrayList<Entry>( 1 );
+                files.put( entry.getName(), entries );
+            }
+            entries.add( entry );
+        }
+    }
+
+    private static String normalizePrefix( String prefix )
+    {
+        String result = "";
+        if ( prefix != null && prefix.length() > 0 )
+        {
+            result = prefix.replace( '\\', '/' );
+            if ( !result.endsWith( "/" ) )
+            {
+                result = result + "/";
+            }
+        }
+        return result;
+    }
+
+    // the same normalization as in Plexus IO include/exclude file selector
+    private static String[] normalizePatterns( String[] patterns )
+    {
+        String[] result = null;
+        if ( patterns != null && patterns.length > 0 )
+        {
+            result = new String[patterns.length];
+            for ( int i = 0; i < patterns.length; i++ )
+            {
+                String pattern = patterns[i].trim().replace( '\\', '/' );
+                if ( pattern.endsWith( "/" ) )
+                {
+                    pattern = pattern + "**";
+                }
+                result[i] = pattern;
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches( String name, String[] patterns )
+    {
+        boolean result = false;
+        if ( patterns != null )
+        {
+            for ( String pattern : patterns )
+            {
+                if ( SelectorUtils.matchPath( pattern, name, "/", true ) )
+                {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+}
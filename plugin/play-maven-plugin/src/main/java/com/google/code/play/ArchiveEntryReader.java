@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads contents of indexed archive entries.
+ *
+ * Every source archive is opened once and kept open until this reader is closed.
+ * Thread safe, entries can be read concurrently.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ArchiveEntryReader
+{
+    private Map<File, ZipFile> archives = new HashMap<File, ZipFile>();
+
+    public synchronized InputStream open( ArchiveEntryIndex.Entry entry )
+        throws IOException
+    {
+        if ( !entry.isArchiveEntry() )
+        {
+            return new FileInputStream( entry.getFile() );
+        }
+
+        ZipFile zipFile = archives.get( entry.getFile() );
+        if ( zipFile == null )
+        {
+            zipFile = new ZipFile( entry.getFile() );
+            archives.put( entry.getFile(), zipFile );
+        }
+        ZipEntry zipEntry = zipFile.getEntry( entry.getArchiveEntryName() );
+        if ( zipEntry == null )
+        {
+            throw new IOException( String.format( "Entry \"%s\" not found", entry.getSourceDescription() ) );
+        }
+        return zipFile.getInputStream( zipEntry );
+    }
+
+    public synchronized void close()
+        throws IOException
+    {
+        IOException firstException = null;
+        for ( ZipFile zipFile : archives.values() )
+        {
+            try
+            {
+                zipFile.close();
+            }
+            catch ( IOException e )
+            {
+                if ( firstException == null )
+                {
+                    firstException = e;
+                }
+            }
+        }
+        archives.clear();
+        if ( firstException != null )
+        {
+            throw firstException;
+        }
+    }
+
+}
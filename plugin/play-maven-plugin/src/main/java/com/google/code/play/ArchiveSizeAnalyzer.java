@@ -0,0 +1,355 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.archiver.commonscompress.archivers.tar.TarArchiveEntry;
+import org.codehaus.plexus.archiver.commonscompress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Breaks distribution or WAR archive size down by content groups, compares it with a baseline
+ * and checks size budgets.
+ *
+ * Groups are: "framework", "module &lt;name&gt;" (every Play&#33; module), "library &lt;file name&gt;"
+ * (every library jar file), "application" (application code and configuration), "public assets",
+ * "runtime" (Java runtime image), "appcds" and "other". Zip file sizes are read from the central
+ * directory; compressed sizes of tar.gz file entries are not known (only the whole file's size is).
+ *
+ * Report is a tab separated text file; a report written by previous build can be used as a baseline.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ArchiveSizeAnalyzer
+{
+    public static final String TOTAL = "total";
+
+    // "20MB", "512k", "1048576"
+    private static final Pattern SIZE_PATTERN = Pattern.compile( "(\\d+)\\s*([kKmMgG]?)[bB]?" );
+
+    private static class Group
+    {
+        int entryCount;
+
+        long size;
+
+        long compressedSize; // -1 if unknown
+    }
+
+    private Map<String, Group> groups = new TreeMap<String, Group>();
+
+    private Group total;
+
+    /**
+     * Analyzes zip (jar, war) or tar.gz archive file.
+     */
+    public void analyze( File archiveFile )
+        throws IOException
+    {
+        groups.clear();
+        total = new Group();
+        if ( archiveFile.getName().endsWith( ".tar.gz" ) )
+        {
+            analyzeTarGz( archiveFile );
+            total.compressedSize = archiveFile.length();
+        }
+        else
+        {
+            analyzeZip( archiveFile );
+            total.compressedSize = archiveFile.length(); // including zip headers and central directory
+        }
+    }
+
+    private void analyzeZip( File archiveFile )
+        throws IOException
+    {
+        ZipFile zipFile = new ZipFile( archiveFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                ZipEntry entry = en.nextElement();
+                if ( !entry.isDirectory() )
+                {
+                    addEntry( entry.getName(), entry.getSize(), entry.getCompressedSize() );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+    }
+
+    private void analyzeTarGz( File archiveFile )
+        throws IOException
+    {
+        TarArchiveInputStream tis =
+            new TarArchiveInputStream( new GZIPInputStream( new BufferedInputStream( new FileInputStream( archiveFile ) ) ) );
+        try
+        {
+            TarArchiveEntry entry;
+            while ( ( entry = tis.getNextTarEntry() ) != null )
+            {
+                if ( !entry.isDirectory() )
+                {
+                    addEntry( entry.getName(), entry.getSize(), -1L );
+                }
+            }
+        }
+        finally
+        {
+            tis.close();
+        }
+    }
+
+    private void addEntry( String name, long size, long compressedSize )
+    {
+        String groupName = getGroupName( name );
+        Group group = groups.get( groupName );
+        if ( group == null )
+        {
+            group = new Group();
+            groups.put( groupName, group );
+        }
+        group.entryCount++;
+        group.size += size;
+        group.compressedSize = compressedSize >= 0L && group.compressedSize >= 0L ? group.compressedSize
+            + compressedSize : -1L;
+        total.entryCount++;
+        total.size += size;
+    }
+
+    /**
+     * Returns content group of archive entry (distribution and WAR layouts).
+     */
+    public static String getGroupName( String entryName )
+    {
+        String name = entryName.startsWith( "WEB-INF/" ) ? entryName.substring( "WEB-INF/".length() ) : entryName;
+        if ( name.endsWith( ".jar" ) && ( name.startsWith( "lib/" ) || name.indexOf( "/lib/" ) > 0 ) )
+        {
+            return "library " + name.substring( name.lastIndexOf( '/' ) + 1 );
+        }
+        boolean application = name.startsWith( "application/" );
+        if ( application )
+        {
+            name = name.substring( "application/".length() );
+        }
+        if ( name.startsWith( "modules/" ) && name.indexOf( '/', "modules/".length() ) > 0 )
+        {
+            return "module " + name.substring( "modules/".length(), name.indexOf( '/', "modules/".length() ) );
+        }
+        if ( application )
+        {
+            return name.startsWith( "public/" ) ? "public assets" : "application";
+        }
+        if ( name.startsWith( "framework/" ) )
+        {
+            return "framework";
+        }
+        if ( name.startsWith( "runtime/" ) )
+        {
+            return "runtime";
+        }
+        if ( name.startsWith( "appcds/" ) )
+        {
+            return "appcds";
+        }
+        return "other";
+    }
+
+    /**
+     * Returns report, with size changes if baseline report is given.
+     *
+     * @param baseline baseline report content, {@code null} if not available
+     */
+    public String getReport( String baseline )
+    {
+        Map<String, long[]> baselineSizes = baseline != null ? parseReport( baseline ) : null;
+        StringBuilder result = new StringBuilder();
+        result.append( "# group\tentries\tsize\tcompressed size" );
+        if ( baselineSizes != null )
+        {
+            result.append( "\tsize change\tcompressed size change" );
+        }
+        result.append( '\n' );
+
+        TreeSet<String> names = new TreeSet<String>( groups.keySet() );
+        if ( baselineSizes != null )
+        {
+            names.addAll( baselineSizes.keySet() );
+            names.remove( TOTAL );
+        }
+        List<String> orderedNames = new ArrayList<String>();
+        orderedNames.add( TOTAL );
+        orderedNames.addAll( names );
+        for ( String name : orderedNames )
+        {
+            Group group = TOTAL.equals( name ) ? total : groups.get( name );
+            if ( group == null )
+            {
+                group = new Group(); // removed since baseline
+            }
+            result.append( name ).append( '\t' ).append( group.entryCount ).append( '\t' ).append( group.size );
+            result.append( '\t' ).append( group.compressedSize >= 0L ? String.valueOf( group.compressedSize ) : "-" );
+            if ( baselineSizes != null )
+            {
+                long[] baselineGroup = baselineSizes.get( name );
+                if ( baselineGroup == null )
+                {
+                    baselineGroup = new long[] { 0L, 0L };
+                }
+                result.append( '\t' ).append( formatChange( group.size, baselineGroup[0] ) );
+                result.append( '\t' ).append( formatChange( group.compressedSize, baselineGroup[1] ) );
+            }
+            result.append( '\n' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Checks size budgets, compressed sizes are checked if known, uncompressed otherwise.
+     *
+     * @param budgets comma separated "group=size" budgets, group names can contain "*" wildcards,
+     *                for example "total=60MB,library *=5MB,public assets=10MB"
+     * @return exceeded budgets descriptions, empty if none
+     */
+    public List<String> checkBudgets( String budgets )
+        throws IOException
+    {
+        List<String> result = new ArrayList<String>();
+        for ( String budget : budgets.split( "," ) )
+        {
+            if ( budget.trim().length() == 0 )
+            {
+                continue;
+            }
+            int i = budget.lastIndexOf( '=' );
+            Matcher matcher = SIZE_PATTERN.matcher( i > 0 ? budget.substring( i + 1 ).trim() : "" );
+            if ( !matcher.matches() )
+            {
+                throw new IOException( String.format( "Invalid size budget \"%s\", expected \"group=size\" (\"library *=5MB\")",
+                                                      budget.trim() ) );
+            }
+            long limit = Long.parseLong( matcher.group( 1 ) ) << getShift( matcher.group( 2 ) );
+            Pattern groupPattern = toPattern( budget.substring( 0, i ).trim() );
+
+            Map<String, Group> checked = new TreeMap<String, Group>( groups );
+            checked.put( TOTAL, total );
+            for ( Map.Entry<String, Group> group : checked.entrySet() )
+            {
+                long size = group.getValue().compressedSize >= 0L ? group.getValue().compressedSize
+                                : group.getValue().size;
+                if ( groupPattern.matcher( group.getKey() ).matches() && size > limit )
+                {
+                    result.add( String.format( "\"%s\" size %d bytes exceeds \"%s\" budget", group.getKey(), size,
+                                               budget.trim() ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int getShift( String unit )
+    {
+        int result = 0;
+        if ( "k".equalsIgnoreCase( unit ) )
+        {
+            result = 10;
+        }
+        else if ( "m".equalsIgnoreCase( unit ) )
+        {
+            result = 20;
+        }
+        else if ( "g".equalsIgnoreCase( unit ) )
+        {
+            result = 30;
+        }
+        return result;
+    }
+
+    private static Pattern toPattern( String groupPattern )
+    {
+        StringBuilder regex = new StringBuilder();
+        for ( String part : groupPattern.split( "\\*", -1 ) )
+        {
+            if ( regex.length() > 0 )
+            {
+                regex.append( ".*" );
+            }
+            regex.append( Pattern.quote( part ) );
+        }
+        return Pattern.compile( regex.toString() );
+    }
+
+    private static String formatChange( long size, long baselineSize )
+    {
+        if ( size < 0L || baselineSize < 0L )
+        {
+            return "-";
+        }
+        long change = size - baselineSize;
+        return change > 0L ? "+" + change : String.valueOf( change );
+    }
+
+    // group name -> { size, compressed size (-1 if unknown) }
+    private static Map<String, long[]> parseReport( String report )
+    {
+        Map<String, long[]> result = new TreeMap<String, long[]>();
+        for ( String line : report.split( "\n" ) )
+        {
+            String[] fields = line.split( "\t" );
+            if ( line.startsWith( "#" ) || fields.length < 4 )
+            {
+                continue;
+            }
+            long compressedSize = "-".equals( fields[3].trim() ) ? -1L : Long.parseLong( fields[3].trim() );
+            result.put( fields[0], new long[] { Long.parseLong( fields[2].trim() ), compressedSize } );
+        }
+        return result;
+    }
+
+    public long getTotalSize()
+    {
+        return total.size;
+    }
+
+    public long getTotalCompressedSize()
+    {
+        return total.compressedSize;
+    }
+
+    public int getGroupCount()
+    {
+        return groups.size();
+    }
+
+}
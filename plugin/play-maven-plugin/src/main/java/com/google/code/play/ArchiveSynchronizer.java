@@ -0,0 +1,521 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Synchronizes directory content with indexed archive entries.
+ *
+ * Up to date files are skipped, file writes are executed by a thread pool,
+ * file-backed entries are copied using file channel transfer and files
+ * not present in the index anymore are deleted. Archive entries are read
+ * into memory before their writes are queued, the queue is bounded (when it is
+ * full, the synchronizing thread writes the file itself), so only a few entries
+ * are held in memory at once.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ArchiveSynchronizer
+{
+    // zip entry last modification time precision is two seconds
+    private static final long ARCHIVE_ENTRY_LAST_MODIFIED_TOLERANCE = 2000L;
+
+    private File destDirectory;
+
+    private File manifestFile;
+
+    private boolean deleteUnknownFiles;
+
+    private int threads;
+
+    private int copiedCount;
+
+    private int skippedCount;
+
+    private int deletedCount;
+
+    /**
+     * Creates synchronizer.
+     *
+     * @param destDirectory synchronized directory
+     * @param manifestFile file containing list of files written in previous synchronization,
+     *                     only these files are deleted if not present in index anymore
+     * @param deleteUnknownFiles delete all files not present in index, not only the ones
+     *                           written in previous synchronization
+     * @param threads number of file writing threads, available processors count if not positive
+     */
+    public ArchiveSynchronizer( File destDirectory, File manifestFile, boolean deleteUnknownFiles, int threads )
+    {
+        this.destDirectory = destDirectory;
+        this.manifestFile = manifestFile;
+        this.deleteUnknownFiles = deleteUnknownFiles;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void synchronize( ArchiveEntryIndex entryIndex )
+        throws IOException
+    {
+        copiedCount = 0;
+        skippedCount = 0;
+        deletedCount = 0;
+
+        Set<String> files = new HashSet<String>();
+        Set<String> directories = new HashSet<String>();
+
+        ArchiveEntryReader entryReader = new ArchiveEntryReader();
+        ExecutorService executor =
+            new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                    new ArrayBlockingQueue<Runnable>( threads * 2 ),
+                                    new ThreadPoolExecutor.CallerRunsPolicy() );
+        try
+        {
+            List<Future<?>> writes = new ArrayList<Future<?>>();
+            for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+            {
+                String name = entry.getName();
+                File destFile = new File( destDirectory, name );
+
+                if ( entry.isDirectory() )
+                {
+                    addWithParents( directories, name );
+                    mkdirs( destFile );
+                }
+                else
+                {
+                    files.add( name );
+                    addParents( directories, name );
+                    if ( isUpToDate( entry, destFile ) )
+                    {
+                        skippedCount++;
+                    }
+                    else
+                    {
+                        writes.add( executor.submit( createWrite( entry, destFile, entryReader ) ) );
+                        copiedCount++;
+                    }
+                }
+            }
+            waitFor( writes );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            entryReader.close();
+        }
+
+        deleteOrphans( files, directories );
+        writeManifest( files );
+    }
+
+    public int getCopiedCount()
+    {
+        return copiedCount;
+    }
+
+    public int getSkippedCount()
+    {
+        return skippedCount;
+    }
+
+    public int getDeletedCount()
+    {
+        return deletedCount;
+    }
+
+    private boolean isUpToDate( ArchiveEntryIndex.Entry entry, File destFile )
+    {
+        boolean result = false;
+        if ( !entry.isArchiveEntry() && destFile.getAbsoluteFile().equals( entry.getFile().getAbsoluteFile() ) )
+        {
+            result = true; // "war-inplace" resource from "warWebappDirectory" directory
+        }
+        else if ( destFile.isFile() )
+        {
+            long entryLastModified = entry.getLastModified();
+            long entrySize = entry.getSize();
+            if ( entryLastModified > 0L && ( entrySize < 0L || entrySize == destFile.length() ) )
+            {
+                if ( entry.isArchiveEntry() )
+                {
+                    result = Math.abs( destFile.lastModified() - entryLastModified )
+                        < ARCHIVE_ENTRY_LAST_MODIFIED_TOLERANCE;
+                }
+                else
+                {
+                    // written files get source file's time, same size edits have to be detected
+                    result = destFile.lastModified() == entryLastModified;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Runnable createWrite( ArchiveEntryIndex.Entry entry, final File destFile, ArchiveEntryReader entryReader )
+        throws IOException
+    {
+        final long lastModified = entry.getLastModified();
+        final boolean executable = ( entry.getMode() & 0100 ) != 0;
+        if ( !entry.isArchiveEntry() )
+        {
+            final File sourceFile = entry.getFile();
+            return new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        copyFile( sourceFile, destFile );
+                        setExecutable( destFile, executable );
+                        setLastModified( destFile, lastModified );
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new SynchronizationException( e );
+                    }
+                }
+            };
+        }
+
+        // Archive entries are read here, every archive file is opened only once.
+        final byte[] contents = readContents( entryReader.open( entry ) );
+        return new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    writeFile( contents, destFile );
+                    setExecutable( destFile, executable );
+                    setLastModified( destFile, lastModified );
+                }
+                catch ( IOException e )
+                {
+                    throw new SynchronizationException( e );
+                }
+            }
+        };
+    }
+
+    private byte[] readContents( InputStream is )
+        throws IOException
+    {
+        try
+        {
+            return IOUtil.toByteArray( is );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private void copyFile( File sourceFile, File destFile )
+        throws IOException
+    {
+        mkdirs( destFile.getAbsoluteFile().getParentFile() );
+        FileInputStream fis = new FileInputStream( sourceFile );
+        try
+        {
+            FileOutputStream fos = new FileOutputStream( destFile );
+            try
+            {
+                FileChannel in = fis.getChannel();
+                FileChannel out = fos.getChannel();
+                long size = in.size();
+                long position = 0L;
+                while ( position < size )
+                {
+                    position += in.transferTo( position, size - position, out );
+                }
+            }
+            finally
+            {
+                fos.close();
+            }
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    private void writeFile( byte[] contents, File destFile )
+        throws IOException
+    {
+        mkdirs( destFile.getAbsoluteFile().getParentFile() );
+        FileOutputStream fos = new FileOutputStream( destFile );
+        try
+        {
+            fos.write( contents );
+        }
+        finally
+        {
+            fos.close();
+        }
+    }
+
+    private void setLastModified( File file, long lastModified )
+    {
+        if ( lastModified > 0L )
+        {
+            file.setLastModified( lastModified ); // best effort, next synchronization will copy the file again
+        }
+    }
+
+    // File.setExecutable is not available in Java 5
+    private void setExecutable( File file, boolean executable )
+    {
+        if ( executable )
+        {
+            try
+            {
+                File.class.getMethod( "setExecutable", boolean.class, boolean.class ).invoke( file, Boolean.TRUE,
+                                                                                              Boolean.FALSE );
+            }
+            catch ( Exception e )
+            {
+                // ignore, Unix file mode cannot be set
+            }
+        }
+    }
+
+    private void mkdirs( File directory )
+        throws IOException
+    {
+        // other thread can create the same directory concurrently
+        if ( !directory.mkdirs() && !directory.isDirectory() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory", directory.getAbsolutePath() ) );
+        }
+    }
+
+    private void waitFor( List<Future<?>> writes )
+        throws IOException
+    {
+        for ( Future<?> write : writes )
+        {
+            try
+            {
+                write.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Directory synchronization interrupted" );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof SynchronizationException )
+                {
+                    throw ( (SynchronizationException) cause ).getIOException();
+                }
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+
+    private void deleteOrphans( Set<String> files, Set<String> directories )
+        throws IOException
+    {
+        Set<String> candidates = new TreeSet<String>( Collections.reverseOrder() ); // children before parents
+        candidates.addAll( readManifest() );
+        if ( deleteUnknownFiles && destDirectory.isDirectory() )
+        {
+            listFiles( destDirectory, "", candidates );
+        }
+
+        for ( String name : candidates )
+        {
+            File file = new File( destDirectory, name );
+            if ( file.isFile() && !files.contains( name ) )
+            {
+                delete( file );
+                deletedCount++;
+            }
+            else if ( file.isDirectory() && !directories.contains( name ) )
+            {
+                String[] children = file.list();
+                if ( children != null && children.length == 0 )
+                {
+                    delete( file );
+                }
+            }
+        }
+
+        // remove directories left empty after deleting files written in previous synchronization
+        Set<String> parents = new TreeSet<String>( Collections.reverseOrder() );
+        for ( String name : candidates )
+        {
+            addParents( parents, name );
+        }
+        for ( String name : parents )
+        {
+            File directory = new File( destDirectory, name );
+            String[] children = directory.list();
+            if ( !directories.contains( name ) && children != null && children.length == 0 )
+            {
+                delete( directory );
+            }
+        }
+    }
+
+    private void listFiles( File directory, String prefix, Set<String> result )
+    {
+        File[] children = directory.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                String name = prefix + child.getName();
+                result.add( name );
+                if ( child.isDirectory() )
+                {
+                    listFiles( child, name + "/", result );
+                }
+            }
+        }
+    }
+
+    private void delete( File file )
+        throws IOException
+    {
+        if ( !file.delete() )
+        {
+            throw new IOException( String.format( "Cannot delete \"%s\" file", file.getAbsolutePath() ) );
+        }
+    }
+
+    private Set<String> readManifest()
+        throws IOException
+    {
+        Set<String> result = new HashSet<String>();
+        if ( manifestFile != null && manifestFile.isFile() )
+        {
+            BufferedReader reader =
+                new BufferedReader( new InputStreamReader( new FileInputStream( manifestFile ), "UTF-8" ) );
+            try
+            {
+                String line = reader.readLine();
+                while ( line != null )
+                {
+                    if ( line.length() > 0 )
+                    {
+                        result.add( line );
+                    }
+                    line = reader.readLine();
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return result;
+    }
+
+    private void writeManifest( Set<String> files )
+        throws IOException
+    {
+        if ( manifestFile != null )
+        {
+            mkdirs( manifestFile.getAbsoluteFile().getParentFile() );
+            BufferedWriter writer =
+                new BufferedWriter( new OutputStreamWriter( new FileOutputStream( manifestFile ), "UTF-8" ) );
+            try
+            {
+                for ( String name : new TreeSet<String>( files ) )
+                {
+                    writer.write( name );
+                    writer.newLine();
+                }
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+    }
+
+    private static void addWithParents( Set<String> directories, String name )
+    {
+        if ( name.length() > 0 )
+        {
+            directories.add( name );
+            addParents( directories, name );
+        }
+    }
+
+    private static void addParents( Set<String> directories, String name )
+    {
+        int p = name.lastIndexOf( '/' );
+        while ( p > 0 )
+        {
+            name = name.substring( 0, p );
+            directories.add( name );
+            p = name.lastIndexOf( '/' );
+        }
+    }
+
+    /**
+     * Unchecked wrapper for I/O exceptions thrown by file writing tasks.
+     */
+    private static class SynchronizationException
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        SynchronizationException( IOException cause )
+        {
+            super( cause );
+        }
+
+        IOException getIOException()
+        {
+            return (IOException) getCause();
+        }
+    }
+
+}
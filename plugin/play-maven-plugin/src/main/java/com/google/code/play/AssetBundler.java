@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Concatenates and minifies JavaScript and CSS bundles of application public assets.
+ *
+ * Bundle definitions file contains one line for every bundle:
+ * {@code bundle = pattern, pattern, !excludePattern}, for example
+ * "javascripts/all.min.js = javascripts/jquery.js, javascripts/app/**&#47;*.js, !javascripts/app/debug.js".
+ * Bundle path and patterns are relative to public directory. Files are concatenated in pattern order,
+ * files matching one pattern in path order, every file only once. Bundles with ".js" and ".css"
+ * extensions are minified with {@link AssetMinifier}. Lines starting with "#" are comments.
+ * Source files are not modified, bundles are written only if their content changed.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AssetBundler
+{
+    private File publicDirectory;
+
+    private File outputDirectory;
+
+    private boolean minify;
+
+    // bundle path -> source file paths
+    private Map<String, List<String>> bundles = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * @param publicDirectory application public directory
+     * @param outputDirectory directory bundles are written to
+     * @param minify minify ".js" and ".css" bundles
+     */
+    public AssetBundler( File publicDirectory, File outputDirectory, boolean minify )
+    {
+        this.publicDirectory = publicDirectory;
+        this.outputDirectory = outputDirectory;
+        this.minify = minify;
+    }
+
+    /**
+     * Reads bundle definitions.
+     */
+    public void readDefinitions( File definitionsFile )
+        throws IOException
+    {
+        int lineNumber = 0;
+        for ( String line : FileUtils.fileRead( definitionsFile, "UTF-8" ).split( "\n" ) )
+        {
+            lineNumber++;
+            line = line.trim();
+            if ( line.length() == 0 || line.startsWith( "#" ) )
+            {
+                continue;
+            }
+            int eq = line.indexOf( '=' );
+            if ( eq <= 0 )
+            {
+                throw new IOException( String.format( "Invalid bundle definition in \"%s\" at line %d: %s",
+                                                      definitionsFile.getAbsolutePath(), lineNumber, line ) );
+            }
+            String bundlePath = line.substring( 0, eq ).trim();
+            List<String> includes = new ArrayList<String>();
+            List<String> excludes = new ArrayList<String>();
+            for ( String pattern : line.substring( eq + 1 ).split( "," ) )
+            {
+                pattern = pattern.trim();
+                if ( pattern.startsWith( "!" ) )
+                {
+                    excludes.add( pattern.substring( 1 ).trim() );
+                }
+                else if ( pattern.length() > 0 )
+                {
+                    includes.add( pattern );
+                }
+            }
+            List<String> sources = findSources( includes, excludes );
+            sources.remove( bundlePath ); // previously generated bundle in public directory
+            bundles.put( bundlePath, sources );
+        }
+    }
+
+    /**
+     * Writes all bundles.
+     *
+     * @return written bundle paths, relative to output and public directories
+     */
+    public List<String> write()
+        throws IOException
+    {
+        List<String> result = new ArrayList<String>();
+        for ( Map.Entry<String, List<String>> bundle : bundles.entrySet() )
+        {
+            String bundlePath = bundle.getKey();
+            boolean js = bundlePath.endsWith( ".js" );
+            StringBuilder content = new StringBuilder();
+            for ( String sourcePath : bundle.getValue() )
+            {
+                content.append( FileUtils.fileRead( new File( publicDirectory, sourcePath ), "UTF-8" ) );
+                content.append( js ? "\n;\n" : "\n" ); // unterminated last statement of previous file
+            }
+            String output = content.toString();
+            if ( minify && js )
+            {
+                output = AssetMinifier.minifyJs( output );
+            }
+            else if ( minify && bundlePath.endsWith( ".css" ) )
+            {
+                output = AssetMinifier.minifyCss( output );
+            }
+
+            File bundleFile = new File( outputDirectory, bundlePath );
+            if ( !bundleFile.isFile() || !output.equals( FileUtils.fileRead( bundleFile, "UTF-8" ) ) )
+            {
+                FileUtils.forceMkdir( bundleFile.getParentFile() );
+                FileUtils.fileWrite( bundleFile, "UTF-8", output );
+            }
+            result.add( bundlePath );
+        }
+        return result;
+    }
+
+    /**
+     * Returns bundle definitions, bundle paths and their source file paths.
+     */
+    public Map<String, List<String>> getBundles()
+    {
+        return bundles;
+    }
+
+    private List<String> findSources( List<String> includes, List<String> excludes )
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        for ( String include : includes )
+        {
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( publicDirectory );
+            scanner.setIncludes( new String[] { include } );
+            scanner.setExcludes( excludes.toArray( new String[excludes.size()] ) );
+            scanner.scan();
+            String[] files = scanner.getIncludedFiles();
+            Arrays.sort( files );
+            for ( String file : files )
+            {
+                result.add( file.replace( File.separatorChar, '/' ) );
+            }
+        }
+        return new ArrayList<String>( result );
+    }
+
+}
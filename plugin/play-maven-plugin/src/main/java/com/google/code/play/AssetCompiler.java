@@ -0,0 +1,413 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Compiles LESS, Sass (".sass" and ".scss") and CoffeeScript public assets to static CSS and JavaScript files,
+ * so they don't have to be compiled at runtime by "less", "sass" and "coffee" Play&#33; modules.
+ *
+ * Compilers are the Java libraries used by these modules at runtime, loaded from the given class loader:
+ * "com.asual.lesscss.LessEngine", JRuby "org.jruby.embed.ScriptingContainer" with Sass gem
+ * and "org.jcoffeescript.JCoffeeScriptCompiler". Compiled file path is source file path with
+ * ".css" or ".js" extension, for example "stylesheets/main.less" is compiled to "stylesheets/main.css".
+ *
+ * Compilation results are cached. Cache key is a hash of compiler library and of the source file content
+ * together with all files it imports, so unchanged sources are not compiled again.
+ * The manifest contains one tab separated line for every compiled asset: source path and compiled path
+ * (relative to public directory). It is read at runtime by {@code com.google.code.play.plugins.CompiledAssetPlugin}
+ * from "play12-extensions" library.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AssetCompiler
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the compiled assets manifest.
+     */
+    public static final String PLAY_PLUGIN = "50:com.google.code.play.plugins.CompiledAssetPlugin";
+
+    public static final String MANIFEST_FILE_NAME = "compiled-assets.txt";
+
+    private static final Pattern IMPORT_PATTERN =
+        Pattern.compile( "@import\\s+(?:\\([^)]*\\)\\s*)?(?:url\\(\\s*)?[\"']?([^\"'\\s;),]+)" );
+
+    private static final String SASS_SCRIPT = "require 'sass'\n"
+        + "Sass::Engine.new( source, :syntax => syntax.to_sym, :load_paths => [ directory ],"
+        + " :filename => filename, :cache => false ).render";
+
+    private File publicDirectory;
+
+    private File outputDirectory;
+
+    private ClassLoader compilerClassLoader;
+
+    private List<String> sassLoadPaths;
+
+    private File cacheFile;
+
+    // source path -> cache key
+    private Map<String, String> cache = new TreeMap<String, String>();
+
+    // source path -> compiled path
+    private Map<String, String> compiledPaths = new TreeMap<String, String>();
+
+    private Object lessEngine;
+
+    private Object coffeeCompiler;
+
+    private Object sassContainer;
+
+    private int compiledCount;
+
+    /**
+     * @param publicDirectory application public directory
+     * @param outputDirectory directory compiled files are written to
+     * @param compilerClassLoader class loader containing compiler libraries
+     * @param sassLoadPaths directories containing Sass gem ("sass.rb" file)
+     */
+    public AssetCompiler( File publicDirectory, File outputDirectory, ClassLoader compilerClassLoader,
+                          List<String> sassLoadPaths )
+        throws IOException
+    {
+        this.publicDirectory = publicDirectory;
+        this.outputDirectory = outputDirectory;
+        this.compilerClassLoader = compilerClassLoader;
+        this.sassLoadPaths = sassLoadPaths;
+        this.cacheFile = new File( outputDirectory, "cache.txt" );
+        if ( cacheFile.isFile() )
+        {
+            for ( String line : FileUtils.fileRead( cacheFile, "UTF-8" ).split( "\n" ) )
+            {
+                String[] columns = line.split( "\t" );
+                if ( columns.length == 3 )
+                {
+                    cache.put( columns[0], columns[2] );
+                    compiledPaths.put( columns[0], columns[1] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns compiled file path for source file path, or {@code null} if the source file type is not supported.
+     */
+    public static String getCompiledPath( String sourcePath )
+    {
+        int dot = sourcePath.lastIndexOf( '.' );
+        String extension = dot > sourcePath.lastIndexOf( '/' ) ? sourcePath.substring( dot + 1 ) : "";
+        String base = sourcePath.substring( 0, sourcePath.length() - extension.length() );
+        if ( "less".equals( extension ) || "sass".equals( extension ) || "scss".equals( extension ) )
+        {
+            return base + "css";
+        }
+        else if ( "coffee".equals( extension ) )
+        {
+            return base + "js";
+        }
+        return null;
+    }
+
+    /**
+     * Compiles source file, if it was changed since previous compilation.
+     *
+     * @param sourcePath source file path, relative to public directory
+     * @return {@code true} if the file was compiled, {@code false} if cached result was used
+     */
+    public boolean compile( String sourcePath )
+        throws IOException
+    {
+        String compiledPath = getCompiledPath( sourcePath );
+        File sourceFile = new File( publicDirectory, sourcePath );
+        File compiledFile = new File( outputDirectory, "public/" + compiledPath );
+        String key = getCacheKey( sourceFile );
+        if ( key.equals( cache.get( sourcePath ) ) && compiledFile.isFile() )
+        {
+            compiledPaths.put( sourcePath, compiledPath );
+            return false;
+        }
+
+        String output;
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader( compilerClassLoader );
+        try
+        {
+            if ( sourcePath.endsWith( ".less" ) )
+            {
+                output = compileLess( sourceFile );
+            }
+            else if ( sourcePath.endsWith( ".coffee" ) )
+            {
+                output = compileCoffee( sourceFile );
+            }
+            else
+            {
+                output = compileSass( sourceFile );
+            }
+        }
+        catch ( InvocationTargetException e )
+        {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            forget( sourcePath, compiledFile );
+            throw new IOException( String.format( "Cannot compile \"%s\": %s", sourcePath, cause.getMessage() ) );
+        }
+        catch ( Exception e )
+        {
+            forget( sourcePath, compiledFile );
+            throw new IOException( String.format( "Cannot compile \"%s\": %s", sourcePath, e.toString() ) );
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader( contextClassLoader );
+        }
+
+        if ( !compiledFile.isFile() || !output.equals( FileUtils.fileRead( compiledFile, "UTF-8" ) ) )
+        {
+            FileUtils.forceMkdir( compiledFile.getParentFile() );
+            FileUtils.fileWrite( compiledFile, "UTF-8", output );
+        }
+        cache.put( sourcePath, key );
+        compiledPaths.put( sourcePath, compiledPath );
+        compiledCount++;
+        return true;
+    }
+
+    /**
+     * Deletes compiled files of sources not existing anymore, writes cache and manifest files.
+     *
+     * @param sourcePaths all existing source paths
+     */
+    public void finish( Set<String> sourcePaths )
+        throws IOException
+    {
+        for ( String sourcePath : new ArrayList<String>( compiledPaths.keySet() ) )
+        {
+            if ( !sourcePaths.contains( sourcePath ) )
+            {
+                FileUtils.fileDelete( new File( outputDirectory, "public/" + compiledPaths.get( sourcePath ) )
+                    .getPath() );
+                compiledPaths.remove( sourcePath );
+                cache.remove( sourcePath );
+            }
+        }
+
+        StringBuilder cacheContent = new StringBuilder();
+        StringBuilder manifest = new StringBuilder();
+        manifest.append( "# Play! compiled assets manifest, generated by Maven Play! Plugin\n" );
+        for ( Map.Entry<String, String> entry : compiledPaths.entrySet() )
+        {
+            cacheContent.append( entry.getKey() ).append( '\t' ).append( entry.getValue() ).append( '\t' )
+                .append( cache.get( entry.getKey() ) ).append( '\n' );
+            manifest.append( entry.getKey() ).append( '\t' ).append( entry.getValue() ).append( '\n' );
+        }
+        writeIfChanged( cacheFile, cacheContent.toString() );
+        writeIfChanged( new File( outputDirectory, "conf/" + MANIFEST_FILE_NAME ), manifest.toString() );
+    }
+
+    /**
+     * Returns compiled assets, source paths and compiled paths.
+     */
+    public Map<String, String> getCompiledPaths()
+    {
+        return compiledPaths;
+    }
+
+    /**
+     * Returns number of files really compiled (not taken from cache).
+     */
+    public int getCompiledCount()
+    {
+        return compiledCount;
+    }
+
+    // failed source is left to runtime compilation
+    private void forget( String sourcePath, File compiledFile )
+    {
+        compiledFile.delete();
+        cache.remove( sourcePath );
+        compiledPaths.remove( sourcePath );
+    }
+
+    private String compileLess( File sourceFile )
+        throws Exception
+    {
+        if ( lessEngine == null )
+        {
+            lessEngine = newInstance( "com.asual.lesscss.LessEngine", "less" );
+        }
+        Method compile = lessEngine.getClass().getMethod( "compile", File.class );
+        return (String) compile.invoke( lessEngine, sourceFile );
+    }
+
+    private String compileCoffee( File sourceFile )
+        throws Exception
+    {
+        if ( coffeeCompiler == null )
+        {
+            coffeeCompiler = newInstance( "org.jcoffeescript.JCoffeeScriptCompiler", "coffee" );
+        }
+        Method compile = coffeeCompiler.getClass().getMethod( "compile", String.class );
+        return (String) compile.invoke( coffeeCompiler, FileUtils.fileRead( sourceFile, "UTF-8" ) );
+    }
+
+    private String compileSass( File sourceFile )
+        throws Exception
+    {
+        if ( sassContainer == null )
+        {
+            if ( sassLoadPaths.isEmpty() )
+            {
+                throw new IOException( "Sass gem (\"sass.rb\" file) not found in application modules" );
+            }
+            sassContainer = newInstance( "org.jruby.embed.ScriptingContainer", "sass" );
+            sassContainer.getClass().getMethod( "setLoadPaths", List.class ).invoke( sassContainer, sassLoadPaths );
+        }
+        Method put = sassContainer.getClass().getMethod( "put", String.class, Object.class );
+        put.invoke( sassContainer, "source", FileUtils.fileRead( sourceFile, "UTF-8" ) );
+        put.invoke( sassContainer, "syntax", sourceFile.getName().endsWith( ".sass" ) ? "sass" : "scss" );
+        put.invoke( sassContainer, "directory", sourceFile.getParentFile().getAbsolutePath() );
+        put.invoke( sassContainer, "filename", sourceFile.getAbsolutePath() );
+        Method runScriptlet = sassContainer.getClass().getMethod( "runScriptlet", String.class );
+        return String.valueOf( runScriptlet.invoke( sassContainer, SASS_SCRIPT ) );
+    }
+
+    private Object newInstance( String className, String moduleName )
+        throws Exception
+    {
+        Class<?> compilerClass;
+        try
+        {
+            compilerClass = Class.forName( className, true, compilerClassLoader );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw new IOException( String.format( "Compiler class \"%s\" not found, is \"%s\" module a dependency?",
+                                                  className, moduleName ) );
+        }
+        return compilerClass.newInstance();
+    }
+
+    // hash of compiler class location and of all source files, the given one and imported ones
+    private String getCacheKey( File sourceFile )
+        throws IOException
+    {
+        Set<File> files = new LinkedHashSet<File>();
+        collectImports( sourceFile, files );
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            digest.update( getCompilerId( sourceFile.getName() ).getBytes( "UTF-8" ) );
+            for ( File file : files )
+            {
+                digest.update( FileUtils.fileRead( file, "UTF-8" ).getBytes( "UTF-8" ) );
+                digest.update( (byte) 0 );
+            }
+            return InputFingerprint.toHex( digest.digest() );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "SHA-1 algorithm not available" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IOException( "UTF-8 encoding not available" );
+        }
+    }
+
+    private String getCompilerId( String fileName )
+    {
+        String resourceName;
+        if ( fileName.endsWith( ".less" ) )
+        {
+            resourceName = "com/asual/lesscss/LessEngine.class";
+        }
+        else if ( fileName.endsWith( ".coffee" ) )
+        {
+            resourceName = "org/jcoffeescript/JCoffeeScriptCompiler.class";
+        }
+        else
+        {
+            resourceName = "org/jruby/embed/ScriptingContainer.class";
+        }
+        Object location = compilerClassLoader.getResource( resourceName );
+        return fileName.substring( fileName.lastIndexOf( '.' ) + 1 ) + ":" + location + ":" + sassLoadPaths;
+    }
+
+    private void collectImports( File file, Set<File> files )
+        throws IOException
+    {
+        if ( !files.add( file ) || file.getName().endsWith( ".coffee" ) )
+        {
+            return;
+        }
+        Matcher matcher = IMPORT_PATTERN.matcher( FileUtils.fileRead( file, "UTF-8" ) );
+        while ( matcher.find() )
+        {
+            File imported = resolveImport( file.getParentFile(), matcher.group( 1 ) );
+            if ( imported != null )
+            {
+                collectImports( imported, files );
+            }
+        }
+    }
+
+    // imported file, or null if not found (for example plain CSS imported by URL)
+    private static File resolveImport( File directory, String name )
+    {
+        int slash = name.lastIndexOf( '/' );
+        String partialName = name.substring( 0, slash + 1 ) + "_" + name.substring( slash + 1 );
+        String[] candidates =
+            { name, name + ".less", name + ".scss", name + ".sass", partialName + ".scss", partialName + ".sass" };
+        for ( String candidate : candidates )
+        {
+            File file = new File( directory, candidate );
+            if ( file.isFile() )
+            {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static void writeIfChanged( File file, String content )
+        throws IOException
+    {
+        if ( !file.isFile() || !content.equals( FileUtils.fileRead( file, "UTF-8" ) ) )
+        {
+            FileUtils.forceMkdir( file.getParentFile() );
+            FileUtils.fileWrite( file, "UTF-8", content );
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Generates content-hashed copies ("stylesheets/main-0123456789.css") and precompressed gzip siblings
+ * ("stylesheets/main.css.gz") of public assets, and asset manifest ("conf/asset-manifest.txt").
+ *
+ * The manifest contains one tab separated line for every asset: public directory relative path,
+ * fingerprinted path and "gzip" if gzip compressed sibling exists ("-" otherwise). Generated files
+ * only depend on asset contents. The manifest is read at runtime by
+ * {@code com.google.code.play.plugins.AssetPlugin} from "play12-extensions" library.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AssetFingerprinter
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the asset manifest.
+     */
+    public static final String PLAY_PLUGIN = "50:com.google.code.play.plugins.AssetPlugin";
+
+    private static final int HASH_LENGTH = 10;
+
+    // compression of smaller files does not pay off
+    private static final int MIN_COMPRESSED_SIZE = 256;
+
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<String>(
+        Arrays.asList( "css", "csv", "eot", "htm", "html", "js", "json", "map", "otf", "svg", "ttf", "txt", "xml" ) );
+
+    private File outputDirectory;
+
+    private Map<String, String> manifestLines = new TreeMap<String, String>();
+
+    // generated file path (relative to output directory) -> asset path (relative to public directory)
+    private Map<String, String> generatedFiles = new LinkedHashMap<String, String>();
+
+    /**
+     * @param outputDirectory directory generated files are written to
+     */
+    public AssetFingerprinter( File outputDirectory )
+    {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Processes public asset.
+     *
+     * @param file asset file
+     * @param path asset path, relative to public directory, for example "stylesheets/main.css"
+     */
+    public void addAsset( File file, String path )
+        throws IOException
+    {
+        byte[] content = readFile( file );
+        String fingerprintedPath = getFingerprintedPath( path, getHash( content ) );
+        writeFile( fingerprintedPath, content );
+        generatedFiles.put( fingerprintedPath, path );
+
+        boolean gzip = false;
+        if ( content.length >= MIN_COMPRESSED_SIZE && COMPRESSIBLE_EXTENSIONS.contains( getExtension( path ) ) )
+        {
+            byte[] compressed = gzip( content );
+            if ( compressed.length < content.length )
+            {
+                writeFile( path + ".gz", compressed );
+                generatedFiles.put( path + ".gz", path );
+                gzip = true;
+            }
+        }
+        manifestLines.put( path, path + "\t" + fingerprintedPath + "\t" + ( gzip ? "gzip" : "-" ) );
+    }
+
+    /**
+     * Returns generated files, paths relative to output directory and public directory.
+     */
+    public Map<String, String> getGeneratedFiles()
+    {
+        return generatedFiles;
+    }
+
+    public int getAssetCount()
+    {
+        return manifestLines.size();
+    }
+
+    /**
+     * Returns asset manifest file content.
+     */
+    public String getManifest()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "# Play! asset manifest, generated by Maven Play! Plugin\n" );
+        for ( String line : manifestLines.values() )
+        {
+            buf.append( line ).append( '\n' );
+        }
+        return buf.toString();
+    }
+
+    private void writeFile( String path, byte[] content )
+        throws IOException
+    {
+        File file = new File( outputDirectory, path );
+        if ( !file.isFile() || !Arrays.equals( content, readFile( file ) ) )
+        {
+            FileUtils.forceMkdir( file.getParentFile() );
+            OutputStream os = new FileOutputStream( file );
+            try
+            {
+                os.write( content );
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+    }
+
+    private static String getFingerprintedPath( String path, String hash )
+    {
+        int slash = path.lastIndexOf( '/' );
+        int dot = path.lastIndexOf( '.' );
+        if ( dot <= slash + 1 ) // no extension or hidden file
+        {
+            return path + "-" + hash;
+        }
+        return path.substring( 0, dot ) + "-" + hash + path.substring( dot );
+    }
+
+    private static String getExtension( String path )
+    {
+        int dot = path.lastIndexOf( '.' );
+        return dot > path.lastIndexOf( '/' ) ? path.substring( dot + 1 ).toLowerCase( Locale.ENGLISH ) : "";
+    }
+
+    private static String getHash( byte[] content )
+        throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            return InputFingerprint.toHex( digest.digest( content ) ).substring( 0, HASH_LENGTH );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "SHA-1 algorithm not available" );
+        }
+    }
+
+    // "GZIPOutputStream" header does not contain modification time, so output is deterministic
+    private static byte[] gzip( byte[] content )
+        throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( content.length );
+        GZIPOutputStream gzos = new GZIPOutputStream( baos );
+        gzos.write( content );
+        gzos.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] readFile( File file )
+        throws IOException
+    {
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            return IOUtil.toByteArray( is );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+}
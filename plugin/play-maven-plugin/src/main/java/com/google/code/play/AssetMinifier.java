@@ -0,0 +1,302 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Conservative JavaScript and CSS minifier.
+ *
+ * Removes comments (except "/*!" license comments) and unnecessary whitespace, nothing is renamed
+ * or rewritten. JavaScript line breaks are kept where automatic semicolon insertion could depend on them.
+ * String, template and regular expression literals are copied unchanged.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AssetMinifier
+{
+    // keywords after which "/" starts regular expression literal
+    private static final Set<String> REGEXP_PRECEDING_KEYWORDS = new HashSet<String>(
+        Arrays.asList( "case", "delete", "do", "else", "in", "instanceof", "new", "return", "throw", "typeof",
+                       "void", "yield", "await" ) );
+
+    // characters after which "/" starts regular expression literal
+    private static final String REGEXP_PRECEDING_CHARS = "(,=:[!&|?{};+-*%<>~^";
+
+    // line break is not needed after these characters
+    private static final String NO_NEWLINE_AFTER = "{[(,;=:?&|!*%<>~^";
+
+    // line break is not needed before these characters
+    private static final String NO_NEWLINE_BEFORE = "}]),.;:?=&|*%<>";
+
+    // whitespace around these characters is not needed in CSS
+    private static final String CSS_SEPARATORS = "{};,>~";
+
+    private AssetMinifier()
+    {
+    }
+
+    public static String minifyJs( String source )
+    {
+        StringBuilder out = new StringBuilder( source.length() );
+        int length = source.length();
+        char lastSignificant = '\n'; // last non-whitespace input character outside comments
+        String lastWord = "";
+        boolean pendingSpace = false;
+        boolean pendingNewline = false;
+        int i = 0;
+        while ( i < length )
+        {
+            char c = source.charAt( i );
+            if ( c == '/' && i + 1 < length && source.charAt( i + 1 ) == '/' )
+            {
+                int end = source.indexOf( '\n', i );
+                i = end < 0 ? length : end; // line break is processed as whitespace
+                continue;
+            }
+            if ( c == '/' && i + 1 < length && source.charAt( i + 1 ) == '*' )
+            {
+                int end = source.indexOf( "*/", i + 2 );
+                end = end < 0 ? length : end + 2;
+                if ( i + 2 < length && source.charAt( i + 2 ) == '!' )
+                {
+                    flushWhitespace( out, pendingSpace, pendingNewline, lastSignificant, '/' );
+                    pendingSpace = false;
+                    pendingNewline = false;
+                    out.append( source, i, end ).append( '\n' );
+                }
+                else if ( source.substring( i, end ).indexOf( '\n' ) >= 0 )
+                {
+                    pendingNewline = true;
+                }
+                else
+                {
+                    pendingSpace = true;
+                }
+                i = end;
+                continue;
+            }
+            if ( Character.isWhitespace( c ) )
+            {
+                if ( c == '\n' || c == '\r' )
+                {
+                    pendingNewline = true;
+                }
+                else
+                {
+                    pendingSpace = true;
+                }
+                i++;
+                continue;
+            }
+
+            if ( out.length() > 0 )
+            {
+                flushWhitespace( out, pendingSpace, pendingNewline, lastSignificant, c );
+            }
+            pendingSpace = false;
+            pendingNewline = false;
+
+            int end;
+            if ( c == '"' || c == '\'' || c == '`' )
+            {
+                end = skipQuoted( source, i, c );
+            }
+            else if ( c == '/' && ( REGEXP_PRECEDING_CHARS.indexOf( lastSignificant ) >= 0 || lastSignificant == '\n'
+                || REGEXP_PRECEDING_KEYWORDS.contains( lastWord ) ) )
+            {
+                end = skipRegExp( source, i );
+            }
+            else if ( isWordChar( c ) )
+            {
+                end = i + 1;
+                while ( end < length && isWordChar( source.charAt( end ) ) )
+                {
+                    end++;
+                }
+            }
+            else
+            {
+                end = i + 1;
+            }
+            out.append( source, i, end );
+            lastWord = isWordChar( c ) ? source.substring( i, end ) : "";
+            lastSignificant = source.charAt( end - 1 );
+            i = end;
+        }
+        return out.toString();
+    }
+
+    public static String minifyCss( String source )
+    {
+        StringBuilder out = new StringBuilder( source.length() );
+        int length = source.length();
+        boolean pendingSpace = false;
+        int i = 0;
+        while ( i < length )
+        {
+            char c = source.charAt( i );
+            if ( c == '/' && i + 1 < length && source.charAt( i + 1 ) == '*' )
+            {
+                int end = source.indexOf( "*/", i + 2 );
+                end = end < 0 ? length : end + 2;
+                if ( i + 2 < length && source.charAt( i + 2 ) == '!' )
+                {
+                    out.append( source, i, end ).append( '\n' );
+                    pendingSpace = false;
+                }
+                i = end;
+                continue;
+            }
+            if ( Character.isWhitespace( c ) )
+            {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+
+            if ( pendingSpace && out.length() > 0 )
+            {
+                char last = out.charAt( out.length() - 1 );
+                // space before ":" is significant in selectors ("a :hover")
+                if ( CSS_SEPARATORS.indexOf( last ) < 0 && CSS_SEPARATORS.indexOf( c ) < 0 && last != ':'
+                    && last != '\n' )
+                {
+                    out.append( ' ' );
+                }
+            }
+            pendingSpace = false;
+
+            if ( c == '"' || c == '\'' )
+            {
+                int end = skipQuoted( source, i, c );
+                out.append( source, i, end );
+                i = end;
+            }
+            else if ( c == '}' && out.length() > 0 && out.charAt( out.length() - 1 ) == ';' )
+            {
+                out.setCharAt( out.length() - 1, '}' );
+                i++;
+            }
+            else
+            {
+                out.append( c );
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void flushWhitespace( StringBuilder out, boolean pendingSpace, boolean pendingNewline,
+                                         char previous, char next )
+    {
+        if ( out.length() > 0 && out.charAt( out.length() - 1 ) == '\n' )
+        {
+            return; // after license comment
+        }
+        if ( pendingNewline )
+        {
+            if ( NO_NEWLINE_AFTER.indexOf( previous ) < 0 && NO_NEWLINE_BEFORE.indexOf( next ) < 0 )
+            {
+                out.append( '\n' );
+            }
+            else if ( needsSpace( previous, next ) )
+            {
+                out.append( ' ' );
+            }
+        }
+        else if ( pendingSpace && needsSpace( previous, next ) )
+        {
+            out.append( ' ' );
+        }
+    }
+
+    private static boolean needsSpace( char previous, char next )
+    {
+        return ( isWordChar( previous ) && isWordChar( next ) ) || ( previous == '+' && next == '+' )
+            || ( previous == '-' && next == '-' ) || ( previous == '/' && ( next == '/' || next == '*' ) )
+            || ( Character.isDigit( previous ) && next == '.' );
+    }
+
+    private static boolean isWordChar( char c )
+    {
+        return Character.isLetterOrDigit( c ) || c == '_' || c == '$' || c == '\\' || c > 126;
+    }
+
+    // returns index after closing quote
+    private static int skipQuoted( String source, int start, char quote )
+    {
+        int i = start + 1;
+        while ( i < source.length() )
+        {
+            char c = source.charAt( i );
+            if ( c == '\\' )
+            {
+                i += 2;
+            }
+            else
+            {
+                i++;
+                if ( c == quote )
+                {
+                    break;
+                }
+            }
+        }
+        return Math.min( i, source.length() );
+    }
+
+    // returns index after regular expression flags
+    private static int skipRegExp( String source, int start )
+    {
+        int i = start + 1;
+        boolean inClass = false;
+        while ( i < source.length() )
+        {
+            char c = source.charAt( i );
+            i++;
+            if ( c == '\\' )
+            {
+                i++;
+            }
+            else if ( c == '[' )
+            {
+                inClass = true;
+            }
+            else if ( c == ']' )
+            {
+                inClass = false;
+            }
+            else if ( c == '/' && !inClass )
+            {
+                break;
+            }
+            else if ( c == '\n' )
+            {
+                return start + 1; // not a regular expression, division operator
+            }
+        }
+        while ( i < source.length() && Character.isLetter( source.charAt( i ) ) )
+        {
+            i++;
+        }
+        return Math.min( i, source.length() );
+    }
+
+}
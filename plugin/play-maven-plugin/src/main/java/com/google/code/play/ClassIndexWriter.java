@@ -0,0 +1,321 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Builds Play&#33; application class index ("precompiled/class-index.txt").
+ *
+ * The index contains one tab separated line for every precompiled application
+ * class: "class", class name, superclass name, comma separated interface names and
+ * comma separated runtime visible class annotation names ("-" if none), and one line
+ * for every "play.plugins" entry found in libraries: "plugin", entry, library file name.
+ * Lines are sorted, so the index content is stable. The index is read at startup
+ * by {@code com.google.code.play.plugins.ClassIndexPlugin} from "play12-extensions" library.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ClassIndexWriter
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the class index.
+     */
+    public static final String PLAY_PLUGIN = "50:com.google.code.play.plugins.ClassIndexPlugin";
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+    private Map<String, String> classLines = new TreeMap<String, String>();
+
+    private List<String> pluginLines = new ArrayList<String>();
+
+    /**
+     * Adds all classes from precompiled classes directory ("precompiled/java").
+     */
+    public void addClassDirectory( File directory )
+        throws IOException
+    {
+        addClassDirectory( directory, "" );
+    }
+
+    /**
+     * Adds "play.plugins" entries from library.
+     */
+    public void addLibrary( File jarFile )
+        throws IOException
+    {
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            ZipEntry entry = zipFile.getEntry( "play.plugins" );
+            if ( entry != null )
+            {
+                InputStream is = zipFile.getInputStream( entry );
+                try
+                {
+                    for ( String line : IOUtil.toString( is, "UTF-8" ).split( "[\r\n]+" ) )
+                    {
+                        line = line.trim();
+                        if ( line.length() > 0 && !line.startsWith( "#" ) )
+                        {
+                            pluginLines.add( "plugin\t" + line + "\t" + jarFile.getName() );
+                        }
+                    }
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+    }
+
+    public int getClassCount()
+    {
+        return classLines.size();
+    }
+
+    /**
+     * Returns index file content.
+     */
+    public String getContent()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "# Play! application class index, generated by Maven Play! Plugin\n" );
+        for ( String line : classLines.values() )
+        {
+            buf.append( line ).append( '\n' );
+        }
+        for ( String line : pluginLines )
+        {
+            buf.append( line ).append( '\n' );
+        }
+        return buf.toString();
+    }
+
+    private void addClassDirectory( File directory, String packagePrefix )
+        throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                String fileName = file.getName();
+                if ( file.isDirectory() )
+                {
+                    addClassDirectory( file, packagePrefix + fileName + "." );
+                }
+                else if ( fileName.endsWith( ".class" ) && !fileName.startsWith( "." ) )
+                {
+                    // same naming as Play!'s "ApplicationClassloader.scanPrecompiled"
+                    String className = packagePrefix + fileName.substring( 0, fileName.length() - ".class".length() );
+                    InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+                    try
+                    {
+                        classLines.put( className, "class\t" + className + "\t" + readClassInfo( is ) );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+            }
+        }
+    }
+
+    // returns superclass, interfaces and annotations columns, also used by "PrecompiledArchiveWriter"
+    static String readClassInfo( InputStream is )
+        throws IOException
+    {
+        DataInputStream dis = new DataInputStream( is );
+        if ( dis.readInt() != CLASS_FILE_MAGIC )
+        {
+            throw new IOException( "Not a class file" );
+        }
+        dis.readUnsignedShort(); // minor version
+        dis.readUnsignedShort(); // major version
+
+        int constantPoolCount = dis.readUnsignedShort();
+        Map<Integer, String> utf8Values = new HashMap<Integer, String>();
+        Map<Integer, Integer> classNameIndexes = new HashMap<Integer, Integer>();
+        for ( int i = 1; i < constantPoolCount; i++ )
+        {
+            int tag = dis.readUnsignedByte();
+            switch ( tag )
+            {
+                case 1: // Utf8
+                    utf8Values.put( Integer.valueOf( i ), dis.readUTF() );
+                    break;
+                case 7: // Class
+                    classNameIndexes.put( Integer.valueOf( i ), Integer.valueOf( dis.readUnsignedShort() ) );
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    dis.skipBytes( 2 );
+                    break;
+                case 15: // MethodHandle
+                    dis.skipBytes( 3 );
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    dis.skipBytes( 4 );
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    dis.skipBytes( 8 );
+                    i++; // takes two constant pool entries
+                    break;
+                default:
+                    throw new IOException( "Unknown constant pool tag " + tag );
+            }
+        }
+
+        dis.readUnsignedShort(); // access flags
+        dis.readUnsignedShort(); // this class
+        int superClassIndex = dis.readUnsignedShort();
+        String superClassName =
+            superClassIndex != 0 ? getClassName( superClassIndex, utf8Values, classNameIndexes ) : "-";
+        StringBuilder interfaces = new StringBuilder();
+        int interfacesCount = dis.readUnsignedShort();
+        for ( int i = 0; i < interfacesCount; i++ )
+        {
+            appendListItem( interfaces, getClassName( dis.readUnsignedShort(), utf8Values, classNameIndexes ) );
+        }
+        skipMembers( dis ); // fields
+        skipMembers( dis ); // methods
+
+        StringBuilder annotations = new StringBuilder();
+        int attributesCount = dis.readUnsignedShort();
+        for ( int i = 0; i < attributesCount; i++ )
+        {
+            String attributeName = utf8Values.get( Integer.valueOf( dis.readUnsignedShort() ) );
+            int attributeLength = dis.readInt();
+            if ( "RuntimeVisibleAnnotations".equals( attributeName ) )
+            {
+                int annotationsCount = dis.readUnsignedShort();
+                for ( int j = 0; j < annotationsCount; j++ )
+                {
+                    String descriptor = utf8Values.get( Integer.valueOf( dis.readUnsignedShort() ) ); // "Lname;"
+                    String annotationName = descriptor.substring( 1, descriptor.length() - 1 );
+                    appendListItem( annotations, annotationName.replace( '/', '.' ) );
+                    int pairsCount = dis.readUnsignedShort();
+                    for ( int k = 0; k < pairsCount; k++ )
+                    {
+                        dis.skipBytes( 2 ); // element name
+                        skipElementValue( dis );
+                    }
+                }
+            }
+            else
+            {
+                dis.skipBytes( attributeLength );
+            }
+        }
+
+        return superClassName + "\t" + ( interfaces.length() > 0 ? interfaces.toString() : "-" ) + "\t"
+            + ( annotations.length() > 0 ? annotations.toString() : "-" );
+    }
+
+    private static String getClassName( int classIndex, Map<Integer, String> utf8Values,
+                                        Map<Integer, Integer> classNameIndexes )
+    {
+        return utf8Values.get( classNameIndexes.get( Integer.valueOf( classIndex ) ) ).replace( '/', '.' );
+    }
+
+    private static void appendListItem( StringBuilder list, String item )
+    {
+        if ( list.length() > 0 )
+        {
+            list.append( ',' );
+        }
+        list.append( item );
+    }
+
+    private static void skipMembers( DataInputStream dis )
+        throws IOException
+    {
+        int count = dis.readUnsignedShort();
+        for ( int i = 0; i < count; i++ )
+        {
+            dis.skipBytes( 6 ); // access flags, name, descriptor
+            int attributesCount = dis.readUnsignedShort();
+            for ( int j = 0; j < attributesCount; j++ )
+            {
+                dis.skipBytes( 2 ); // name
+                dis.skipBytes( dis.readInt() );
+            }
+        }
+    }
+
+    private static void skipElementValue( DataInputStream dis )
+        throws IOException
+    {
+        int tag = dis.readUnsignedByte();
+        switch ( tag )
+        {
+            case 'e': // enum constant
+                dis.skipBytes( 4 );
+                break;
+            case '@': // annotation
+                dis.skipBytes( 2 );
+                int pairsCount = dis.readUnsignedShort();
+                for ( int i = 0; i < pairsCount; i++ )
+                {
+                    dis.skipBytes( 2 );
+                    skipElementValue( dis );
+                }
+                break;
+            case '[': // array
+                int valuesCount = dis.readUnsignedShort();
+                for ( int i = 0; i < valuesCount; i++ )
+                {
+                    skipElementValue( dis );
+                }
+                break;
+            default: // constant or class
+                dis.skipBytes( 2 );
+        }
+    }
+
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Finds candidate jar files not reachable from root classes.
+ *
+ * Class references are read from class file constant pools (class names,
+ * descriptors, signatures and string constants looking like class names).
+ * Analysis is done at jar level: when any class of a candidate jar is
+ * reachable, the whole jar is kept and all its classes become reachable.
+ * Classes listed in "play.plugins" and "META-INF/services" files of candidate
+ * jars and classes matching keep patterns are roots too. The same references are used
+ * to find candidate jars depending on given jars.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ClassReachabilityAnalyzer
+{
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+    private static final Pattern DESCRIPTOR_CLASS_NAME = Pattern.compile( "L([\\w$]+(?:/[\\w$]+)*);" );
+
+    private static final Pattern CLASS_NAME = Pattern.compile( "[A-Za-z_$][\\w$]*(?:[./][A-Za-z_$][\\w$]*)+" );
+
+    private Set<String> rootClassNames = new HashSet<String>();
+
+    private List<String> keepPatterns = new ArrayList<String>();
+
+    private Map<File, List<String>> candidateJarClasses = new LinkedHashMap<File, List<String>>();
+
+    private Map<String, File> candidateClassJars = new HashMap<String, File>();
+
+    private Set<File> reachableJars = new HashSet<File>();
+
+    /**
+     * Adds all classes (and class names found in other files) from directory as roots.
+     */
+    public void addRootDirectory( File directory )
+        throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                if ( file.isDirectory() )
+                {
+                    addRootDirectory( file );
+                }
+                else
+                {
+                    InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+                    try
+                    {
+                        readReferences( is, rootClassNames );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds class names found in text file (for example "application.conf") as roots.
+     */
+    public void addRootTextFile( File file )
+        throws IOException
+    {
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            readTextReferences( IOUtil.toByteArray( is ), rootClassNames );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Adds all classes from jar file, which is always kept, as roots.
+     */
+    public void addRootJar( File jarFile )
+        throws IOException
+    {
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                ZipEntry entry = en.nextElement();
+                if ( entry.getName().endsWith( ".class" ) )
+                {
+                    InputStream is = zipFile.getInputStream( entry );
+                    try
+                    {
+                        readReferences( new BufferedInputStream( is ), rootClassNames );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Adds keep pattern, for example "org.postgresql.**".
+     */
+    public void addKeepPattern( String pattern )
+    {
+        keepPatterns.add( pattern.trim().replace( '.', '/' ) );
+    }
+
+    /**
+     * Adds jar file which can be removed if not reachable.
+     */
+    public void addCandidateJar( File jarFile )
+        throws IOException
+    {
+        List<String> classNames = new ArrayList<String>();
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                ZipEntry entry = en.nextElement();
+                String name = entry.getName();
+                if ( name.endsWith( ".class" ) )
+                {
+                    String className = name.substring( 0, name.length() - ".class".length() );
+                    classNames.add( className );
+                    if ( !candidateClassJars.containsKey( className ) )
+                    {
+                        candidateClassJars.put( className, jarFile );
+                    }
+                }
+                else if ( "play.plugins".equals( name )
+                    || ( name.startsWith( "META-INF/services/" ) && !entry.isDirectory() ) )
+                {
+                    InputStream is = zipFile.getInputStream( entry );
+                    try
+                    {
+                        readTextReferences( IOUtil.toByteArray( is ), rootClassNames );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        candidateJarClasses.put( jarFile, classNames );
+    }
+
+    public void analyze()
+        throws IOException
+    {
+        LinkedList<File> jarsToProcess = new LinkedList<File>();
+        for ( Map.Entry<File, List<String>> entry : candidateJarClasses.entrySet() )
+        {
+            File jarFile = entry.getKey();
+            List<String> classNames = entry.getValue();
+            if ( classNames.isEmpty() ) // resources only, nothing to analyze
+            {
+                markReachable( jarFile, jarsToProcess );
+            }
+            for ( String className : classNames )
+            {
+                if ( rootClassNames.contains( className ) || isKept( className ) )
+                {
+                    markReachable( jarFile, jarsToProcess );
+                    break;
+                }
+            }
+        }
+        for ( String className : rootClassNames )
+        {
+            File jarFile = candidateClassJars.get( className );
+            if ( jarFile != null )
+            {
+                markReachable( jarFile, jarsToProcess );
+            }
+        }
+
+        while ( !jarsToProcess.isEmpty() )
+        {
+            File jarFile = jarsToProcess.removeFirst();
+            for ( String className : readJarReferences( jarFile ) )
+            {
+                File referencedJarFile = candidateClassJars.get( className );
+                if ( referencedJarFile != null )
+                {
+                    markReachable( referencedJarFile, jarsToProcess );
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds candidate jars depending on given candidate jars, referencing their classes directly
+     * or through other dependent candidate jars. Root classes are not used.
+     *
+     * @param jarFiles candidate jars
+     * @return given and dependent candidate jars
+     */
+    public Set<File> findDependentJars( Collection<File> jarFiles )
+        throws IOException
+    {
+        Map<File, Set<String>> jarReferences = new LinkedHashMap<File, Set<String>>();
+        for ( File jarFile : candidateJarClasses.keySet() )
+        {
+            jarReferences.put( jarFile, readJarReferences( jarFile ) );
+        }
+
+        Set<File> result = new HashSet<File>( jarFiles );
+        boolean changed = true;
+        while ( changed )
+        {
+            changed = false;
+            for ( Map.Entry<File, Set<String>> entry : jarReferences.entrySet() )
+            {
+                if ( !result.contains( entry.getKey() ) )
+                {
+                    for ( String className : entry.getValue() )
+                    {
+                        File referencedJarFile = candidateClassJars.get( className );
+                        if ( referencedJarFile != null && result.contains( referencedJarFile ) )
+                        {
+                            result.add( entry.getKey() );
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean isReachable( File candidateJarFile )
+    {
+        return reachableJars.contains( candidateJarFile );
+    }
+
+    public int getClassCount( File candidateJarFile )
+    {
+        return candidateJarClasses.get( candidateJarFile ).size();
+    }
+
+    private void markReachable( File jarFile, LinkedList<File> jarsToProcess )
+    {
+        if ( reachableJars.add( jarFile ) )
+        {
+            jarsToProcess.add( jarFile );
+        }
+    }
+
+    private boolean isKept( String className )
+    {
+        boolean result = false;
+        for ( String pattern : keepPatterns )
+        {
+            if ( SelectorUtils.matchPath( pattern, className, "/", true ) )
+            {
+                result = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    private Set<String> readJarReferences( File jarFile )
+        throws IOException
+    {
+        Set<String> result = new HashSet<String>();
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( String className : candidateJarClasses.get( jarFile ) )
+            {
+                ZipEntry entry = zipFile.getEntry( className + ".class" );
+                InputStream is = zipFile.getInputStream( entry );
+                try
+                {
+                    readReferences( new BufferedInputStream( is ), result );
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        return result;
+    }
+
+    private void readReferences( InputStream is, Set<String> result )
+        throws IOException
+    {
+        is.mark( 4 );
+        DataInputStream dis = new DataInputStream( is );
+        if ( dis.readInt() == CLASS_FILE_MAGIC )
+        {
+            readClassReferences( dis, result );
+        }
+        else
+        {
+            // for example Play! precompiled templates
+            is.reset();
+            readTextReferences( IOUtil.toByteArray( is ), result );
+        }
+    }
+
+    private void readClassReferences( DataInputStream dis, Set<String> result )
+        throws IOException
+    {
+        dis.readUnsignedShort(); // minor version
+        dis.readUnsignedShort(); // major version
+        int constantPoolCount = dis.readUnsignedShort();
+        for ( int i = 1; i < constantPoolCount; i++ )
+        {
+            int tag = dis.readUnsignedByte();
+            switch ( tag )
+            {
+                case 1: // Utf8
+                    addUtf8References( dis.readUTF(), result );
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    dis.skipBytes( 2 );
+                    break;
+                case 15: // MethodHandle
+                    dis.skipBytes( 3 );
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    dis.skipBytes( 4 );
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    dis.skipBytes( 8 );
+                    i++; // takes two constant pool entries
+                    break;
+                default:
+                    throw new IOException( "Unknown constant pool tag " + tag );
+            }
+        }
+    }
+
+    private void addUtf8References( String value, Set<String> result )
+    {
+        if ( value.indexOf( ';' ) >= 0 )
+        {
+            Matcher m = DESCRIPTOR_CLASS_NAME.matcher( value );
+            while ( m.find() )
+            {
+                result.add( m.group( 1 ) );
+            }
+        }
+        else if ( CLASS_NAME.matcher( value ).matches() )
+        {
+            result.add( value.replace( '.', '/' ) );
+        }
+    }
+
+    private void readTextReferences( byte[] contents, Set<String> result )
+        throws IOException
+    {
+        Matcher m = CLASS_NAME.matcher( new String( contents, "ISO-8859-1" ) );
+        while ( m.find() )
+        {
+            result.add( m.group().replace( '.', '/' ) );
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.archiver.commonscompress.archivers.zip.ZipArchiveEntry;
+import org.codehaus.plexus.archiver.commonscompress.archivers.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes delta patch between two zip distribution files.
+ *
+ * Entries are compared by central directory data (CRC-32, size and Unix mode), unchanged entries
+ * (including unchanged jar files) are not read at all. Patch file is a zip file containing added
+ * and changed entries of the new distribution and patch index ("{@value #PATCH_INDEX_NAME}" entry)
+ * with one line for every added, changed and deleted entry: operation ("A", "M" or "D"), path,
+ * baseline CRC-32, new CRC-32 and Unix mode. CRC-32 values let "DistPatcher" utility
+ * (shipped in Play&#33; server booter library) verify that patched distribution matches the baseline
+ * before anything is changed.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class DistPatchWriter
+{
+    public static final String PATCH_INDEX_NAME = ".play-patch/index.txt";
+
+    private int addedCount;
+
+    private int changedCount;
+
+    private int deletedCount;
+
+    public int getAddedCount()
+    {
+        return addedCount;
+    }
+
+    public int getChangedCount()
+    {
+        return changedCount;
+    }
+
+    public int getDeletedCount()
+    {
+        return deletedCount;
+    }
+
+    /**
+     * Writes patch file.
+     *
+     * @param baselineFile baseline (deployed) distribution zip file
+     * @param distFile new distribution zip file
+     * @param patchFile patch file to write
+     */
+    public void write( File baselineFile, File distFile, File patchFile )
+        throws IOException
+    {
+        addedCount = 0;
+        changedCount = 0;
+        deletedCount = 0;
+
+        File parentDir = patchFile.getAbsoluteFile().getParentFile();
+        if ( !parentDir.isDirectory() && !parentDir.mkdirs() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory", parentDir.getAbsolutePath() ) );
+        }
+
+        StringBuilder index = new StringBuilder( getHeader( baselineFile, distFile ) );
+        index.append( "# operation\tpath\tbaseline crc\tnew crc\tmode\n" );
+
+        ZipFile baselineZip = new ZipFile( baselineFile );
+        try
+        {
+            ZipFile distZip = new ZipFile( distFile );
+            try
+            {
+                SortedMap<String, ZipArchiveEntry> baselineEntries = getEntries( baselineZip );
+                SortedMap<String, ZipArchiveEntry> distEntries = getEntries( distZip );
+
+                List<ZipArchiveEntry> patchEntries = new ArrayList<ZipArchiveEntry>();
+                for ( ZipArchiveEntry entry : distEntries.values() )
+                {
+                    ZipArchiveEntry baselineEntry = baselineEntries.get( entry.getName() );
+                    if ( baselineEntry == null )
+                    {
+                        appendLine( index, "A", entry.getName(), null, entry );
+                        patchEntries.add( entry );
+                        addedCount++;
+                    }
+                    else if ( !entry.isDirectory()
+                        && ( baselineEntry.getCrc() != entry.getCrc() || baselineEntry.getSize() != entry.getSize()
+                            || baselineEntry.getUnixMode() != entry.getUnixMode() ) )
+                    {
+                        appendLine( index, "M", entry.getName(), baselineEntry, entry );
+                        patchEntries.add( entry );
+                        changedCount++;
+                    }
+                }
+                // deepest entries first, directories are deleted after their content
+                List<ZipArchiveEntry> baselineList = new ArrayList<ZipArchiveEntry>( baselineEntries.values() );
+                Collections.reverse( baselineList );
+                for ( ZipArchiveEntry baselineEntry : baselineList )
+                {
+                    if ( !distEntries.containsKey( baselineEntry.getName() ) )
+                    {
+                        appendLine( index, "D", baselineEntry.getName(), baselineEntry, null );
+                        deletedCount++;
+                    }
+                }
+
+                writePatch( index.toString(), distZip, patchEntries, patchFile );
+            }
+            finally
+            {
+                distZip.close();
+            }
+        }
+        finally
+        {
+            baselineZip.close();
+        }
+    }
+
+    /**
+     * Checks whether patch file was written for given baseline and distribution files. SHA-256 digests
+     * of both files recorded in the patch index header are compared, file modification times
+     * are not used (baseline downloaded or copied again is not newer than the patch).
+     *
+     * @param baselineFile baseline (deployed) distribution zip file
+     * @param distFile new distribution zip file
+     * @param patchFile existing patch file
+     * @return {@code true} if the patch file exists and matches both files
+     */
+    public static boolean isUpToDate( File baselineFile, File distFile, File patchFile )
+        throws IOException
+    {
+        if ( !patchFile.isFile() )
+        {
+            return false;
+        }
+
+        String index;
+        try
+        {
+            ZipFile patchZip = new ZipFile( patchFile );
+            try
+            {
+                ZipArchiveEntry indexEntry = patchZip.getEntry( PATCH_INDEX_NAME );
+                if ( indexEntry == null )
+                {
+                    return false;
+                }
+                InputStream is = patchZip.getInputStream( indexEntry );
+                try
+                {
+                    index = IOUtil.toString( is, "UTF-8" );
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            finally
+            {
+                patchZip.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return false; // corrupted, will be written again
+        }
+        return index.startsWith( getHeader( baselineFile, distFile ) );
+    }
+
+    private static String getHeader( File baselineFile, File distFile )
+        throws IOException
+    {
+        StringBuilder result = new StringBuilder();
+        result.append( "# Play! distribution patch, apply with \"bin/apply-patch <patch file>\"\n" );
+        result.append( "# baseline: " ).append( baselineFile.getName() ).append( ", sha-256 " );
+        result.append( sha256( baselineFile ) ).append( '\n' );
+        result.append( "# target: " ).append( distFile.getName() ).append( ", sha-256 " );
+        result.append( sha256( distFile ) ).append( '\n' );
+        return result.toString();
+    }
+
+    private void writePatch( String index, ZipFile distZip, List<ZipArchiveEntry> patchEntries, File patchFile )
+        throws IOException
+    {
+        ZipOutputStream zos = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( patchFile ) ) );
+        try
+        {
+            ZipEntry indexEntry = new ZipEntry( PATCH_INDEX_NAME );
+            indexEntry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+            zos.putNextEntry( indexEntry );
+            zos.write( index.getBytes( "UTF-8" ) );
+            zos.closeEntry();
+            for ( ZipArchiveEntry entry : patchEntries )
+            {
+                ZipEntry zipEntry = new ZipEntry( entry.getName() );
+                zipEntry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+                zos.putNextEntry( zipEntry );
+                if ( !entry.isDirectory() )
+                {
+                    InputStream is = distZip.getInputStream( entry );
+                    try
+                    {
+                        IOUtil.copy( is, zos );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+                zos.closeEntry();
+            }
+        }
+        finally
+        {
+            zos.close();
+        }
+    }
+
+    private static SortedMap<String, ZipArchiveEntry> getEntries( ZipFile zipFile )
+    {
+        SortedMap<String, ZipArchiveEntry> result = new TreeMap<String, ZipArchiveEntry>();
+        for ( Enumeration<?> e = zipFile.getEntries(); e.hasMoreElements(); )
+        {
+            ZipArchiveEntry entry = (ZipArchiveEntry) e.nextElement();
+            result.put( entry.getName(), entry );
+        }
+        return result;
+    }
+
+    private static void appendLine( StringBuilder index, String operation, String name, ZipArchiveEntry baselineEntry,
+                                    ZipArchiveEntry entry )
+    {
+        index.append( operation ).append( '\t' ).append( name );
+        index.append( '\t' ).append( getCrc( baselineEntry ) );
+        index.append( '\t' ).append( getCrc( entry ) );
+        index.append( '\t' ).append( entry != null ? Integer.toOctalString( entry.getUnixMode() & 07777 ) : "-" );
+        index.append( '\n' );
+    }
+
+    private static String getCrc( ZipArchiveEntry entry )
+    {
+        return entry != null && !entry.isDirectory() ? Long.toHexString( entry.getCrc() ) : "-";
+    }
+
+    private static String sha256( File file )
+        throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ); // every Java platform implementation supports SHA-256
+        }
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = is.read( buffer ) ) > 0 )
+            {
+                digest.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return InputFingerprint.toHex( digest.digest() );
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds classes present in more than one library jar file and libraries present in more than one version.
+ *
+ * Only zip central directories are read (entry names and CRC-32 values), no entry is decompressed.
+ * Library is fully shadowed if all its entries (except "META-INF/*" ones) are present, with the same
+ * content, in other libraries. Such libraries can be removed without changing available classes
+ * and resources; when several libraries shadow each other, the one with the lowest file name is kept.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class DuplicateClassAnalyzer
+{
+    // "commons-lang-2.6.jar" -> "commons-lang"
+    private static final Pattern VERSIONED_JAR_NAME = Pattern.compile( "(.+?)-\\d[^-]*(?:-.*)?\\.jar" );
+
+    private static class Library
+    {
+        File file;
+
+        String description;
+
+        boolean removable;
+
+        int index;
+
+        // entry name -> CRC-32
+        Map<String, Long> entries = new HashMap<String, Long>();
+    }
+
+    private static class Overlap
+    {
+        int sharedCount;
+
+        int differentCount;
+
+        String exampleClass;
+    }
+
+    private Map<String, Library> libraries = new TreeMap<String, Library>(); // by file name
+
+    private Set<File> shadowedLibraries = new LinkedHashSet<File>();
+
+    private StringBuilder report = new StringBuilder();
+
+    private int overlapCount;
+
+    private int multiVersionCount;
+
+    /**
+     * Adds library jar file.
+     *
+     * @param jarFile jar file
+     * @param description library description for the report (dependency path)
+     * @param removable if library can be removed when fully shadowed
+     */
+    public void addJar( File jarFile, String description, boolean removable )
+        throws IOException
+    {
+        Library library = new Library();
+        library.file = jarFile;
+        library.description = description;
+        library.removable = removable;
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                ZipEntry entry = en.nextElement();
+                String name = entry.getName();
+                if ( !entry.isDirectory() && !name.startsWith( "META-INF/" ) && !"module-info.class".equals( name ) )
+                {
+                    library.entries.put( name, Long.valueOf( entry.getCrc() ) );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        libraries.put( jarFile.getName() + "\t" + jarFile.getAbsolutePath(), library );
+    }
+
+    /**
+     * Analyzes added libraries.
+     *
+     * @param removeShadowed find fully shadowed removable libraries
+     */
+    public void analyze( boolean removeShadowed )
+    {
+        List<Library> libraryList = new ArrayList<Library>( libraries.values() );
+        for ( int i = 0; i < libraryList.size(); i++ )
+        {
+            libraryList.get( i ).index = i;
+        }
+
+        // class name -> libraries
+        Map<String, List<Library>> classLibraries = new HashMap<String, List<Library>>();
+        for ( Library library : libraryList )
+        {
+            for ( String name : library.entries.keySet() )
+            {
+                if ( name.endsWith( ".class" ) )
+                {
+                    List<Library> list = classLibraries.get( name );
+                    if ( list == null )
+                    {
+                        list = new ArrayList<Library>( 1 );
+                        classLibraries.put( name, list );
+                    }
+                    list.add( library );
+                }
+            }
+        }
+
+        // (first library index << 32 | second library index) -> overlap, class lists are in index order
+        Map<Long, Overlap> overlaps = new TreeMap<Long, Overlap>();
+        for ( Map.Entry<String, List<Library>> classEntry : classLibraries.entrySet() )
+        {
+            String className = classEntry.getKey();
+            List<Library> list = classEntry.getValue();
+            for ( int i = 0; i < list.size(); i++ )
+            {
+                for ( int j = i + 1; j < list.size(); j++ )
+                {
+                    Long key = Long.valueOf( ( (long) list.get( i ).index << 32 ) | list.get( j ).index );
+                    Overlap overlap = overlaps.get( key );
+                    if ( overlap == null )
+                    {
+                        overlap = new Overlap();
+                        overlaps.put( key, overlap );
+                    }
+                    overlap.sharedCount++;
+                    if ( !list.get( i ).entries.get( className ).equals( list.get( j ).entries.get( className ) ) )
+                    {
+                        overlap.differentCount++;
+                    }
+                    if ( overlap.exampleClass == null || className.compareTo( overlap.exampleClass ) < 0 )
+                    {
+                        overlap.exampleClass = className;
+                    }
+                }
+            }
+        }
+        overlapCount = overlaps.size();
+
+        report.append( "# Libraries containing the same classes\n" );
+        for ( Map.Entry<Long, Overlap> overlapEntry : overlaps.entrySet() )
+        {
+            long key = overlapEntry.getKey().longValue();
+            Overlap overlap = overlapEntry.getValue();
+            appendLibrary( libraryList.get( (int) ( key >>> 32 ) ) );
+            appendLibrary( libraryList.get( (int) key ) );
+            report.append( "    " ).append( overlap.sharedCount ).append( " shared classes, " );
+            report.append( overlap.differentCount ).append( " with different content, for example " );
+            report.append( overlap.exampleClass ).append( '\n' );
+        }
+
+        // artifact name -> file names
+        Map<String, Set<String>> versions = new TreeMap<String, Set<String>>();
+        for ( Library library : libraryList )
+        {
+            Matcher matcher = VERSIONED_JAR_NAME.matcher( library.file.getName() );
+            if ( matcher.matches() )
+            {
+                Set<String> set = versions.get( matcher.group( 1 ) );
+                if ( set == null )
+                {
+                    set = new TreeSet<String>();
+                    versions.put( matcher.group( 1 ), set );
+                }
+                set.add( library.file.getName() );
+            }
+        }
+        report.append( "# Libraries present in more than one version\n" );
+        for ( Map.Entry<String, Set<String>> version : versions.entrySet() )
+        {
+            if ( version.getValue().size() > 1 )
+            {
+                report.append( version.getKey() ).append( ": " ).append( version.getValue() ).append( '\n' );
+                multiVersionCount++;
+            }
+        }
+
+        if ( removeShadowed )
+        {
+            findShadowedLibraries( libraryList );
+        }
+    }
+
+    private void findShadowedLibraries( List<Library> libraryList )
+    {
+        // "entry name \t CRC-32" -> number of libraries containing it
+        Map<String, Integer> entryCounts = new HashMap<String, Integer>();
+        for ( Library library : libraryList )
+        {
+            for ( Map.Entry<String, Long> entry : library.entries.entrySet() )
+            {
+                String key = entry.getKey() + "\t" + entry.getValue();
+                Integer count = entryCounts.get( key );
+                entryCounts.put( key, Integer.valueOf( count != null ? count.intValue() + 1 : 1 ) );
+            }
+        }
+
+        report.append( "# Removed libraries (fully shadowed by other libraries)\n" );
+        // the last library of identical ones is removed first, so the one with the lowest file name is kept
+        for ( int i = libraryList.size() - 1; i >= 0; i-- )
+        {
+            Library library = libraryList.get( i );
+            if ( !library.removable || library.entries.isEmpty() )
+            {
+                continue;
+            }
+            boolean shadowed = true;
+            for ( Map.Entry<String, Long> entry : library.entries.entrySet() )
+            {
+                if ( entryCounts.get( entry.getKey() + "\t" + entry.getValue() ).intValue() < 2 )
+                {
+                    shadowed = false;
+                    break;
+                }
+            }
+            if ( shadowed )
+            {
+                for ( Map.Entry<String, Long> entry : library.entries.entrySet() )
+                {
+                    String key = entry.getKey() + "\t" + entry.getValue();
+                    entryCounts.put( key, Integer.valueOf( entryCounts.get( key ).intValue() - 1 ) );
+                }
+                shadowedLibraries.add( library.file );
+                appendLibrary( library );
+            }
+        }
+    }
+
+    private void appendLibrary( Library library )
+    {
+        report.append( library.file.getName() );
+        if ( library.description != null )
+        {
+            report.append( " (" ).append( library.description ).append( ')' );
+        }
+        report.append( '\n' );
+    }
+
+    /**
+     * Returns number of library pairs containing the same classes.
+     */
+    public int getOverlapCount()
+    {
+        return overlapCount;
+    }
+
+    /**
+     * Returns number of libraries present in more than one version.
+     */
+    public int getMultiVersionCount()
+    {
+        return multiVersionCount;
+    }
+
+    /**
+     * Returns fully shadowed removable libraries, empty if shadowed libraries were not searched.
+     */
+    public Set<File> getShadowedLibraries()
+    {
+        return shadowedLibraries;
+    }
+
+    public String getReport()
+    {
+        return report.toString();
+    }
+
+}
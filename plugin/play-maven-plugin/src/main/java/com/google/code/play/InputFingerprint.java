@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Archive input fingerprint.
+ *
+ * SHA-1 digest of indexed archive entries (destination path, layer, source, size,
+ * last modification time and Unix file mode) and configuration parameters recorded in the index.
+ * Source file contents are not read.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class InputFingerprint
+{
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private String value;
+
+    public InputFingerprint( ArchiveEntryIndex entryIndex )
+    {
+        MessageDigest digest = createDigest();
+
+        for ( Map.Entry<String, String> parameter : entryIndex.getParameters().entrySet() )
+        {
+            update( digest, "P", parameter.getKey(), parameter.getValue() );
+        }
+
+        // sorted, order of adding dependencies to the archiver is not stable
+        Map<String, ArchiveEntryIndex.Entry> entries = new TreeMap<String, ArchiveEntryIndex.Entry>();
+        for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+        {
+            entries.put( entry.getName(), entry );
+        }
+        for ( ArchiveEntryIndex.Entry entry : entries.values() )
+        {
+            if ( entry.isDirectory() )
+            {
+                update( digest, "D", entry.getName(), entry.getLayer() );
+            }
+            else
+            {
+                update( digest, "F", entry.getName(), entry.getLayer(), entry.getSourceDescription(),
+                        String.valueOf( entry.getSize() ), String.valueOf( entry.getLastModified() ),
+                        getModeDescription( entry ) );
+            }
+        }
+
+        value = toHex( digest.digest() );
+    }
+
+    public String getValue()
+    {
+        return value;
+    }
+
+    @Override
+    public String toString()
+    {
+        return value;
+    }
+
+    // files added from directories without explicit mode are archived with their file system permissions
+    private static String getModeDescription( ArchiveEntryIndex.Entry entry )
+    {
+        if ( entry.getMode() != 0 || entry.isArchiveEntry() )
+        {
+            return Integer.toOctalString( entry.getMode() );
+        }
+        try
+        {
+            // File.canExecute is not available in Java 5
+            boolean executable =
+                ( (Boolean) File.class.getMethod( "canExecute" ).invoke( entry.getFile() ) ).booleanValue();
+            return executable ? "x" : "-";
+        }
+        catch ( Exception e )
+        {
+            return "?";
+        }
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ); // every Java platform implementation supports SHA-1
+        }
+    }
+
+    private static void update( MessageDigest digest, String... values )
+    {
+        try
+        {
+            for ( String value : values )
+            {
+                digest.update( String.valueOf( value ).getBytes( "UTF-8" ) );
+                digest.update( (byte) 0 );
+            }
+            digest.update( (byte) '\n' );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e ); // UTF-8 is always supported
+        }
+    }
+
+    static String toHex( byte[] bytes )
+    {
+        StringBuilder buf = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            buf.append( HEX_DIGITS[( b >> 4 ) & 0x0f] ).append( HEX_DIGITS[b & 0x0f] );
+        }
+        return buf.toString();
+    }
+
+}
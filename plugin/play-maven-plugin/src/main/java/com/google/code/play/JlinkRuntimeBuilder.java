@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Builds trimmed Java runtime image containing only JDK modules required by the application.
+ *
+ * Required modules are computed by {@code jdeps} from class path jar files, then runtime image
+ * is linked by {@code jlink} from JDK's modules (offline, without debug information, header files
+ * and manual pages). Modules loaded only by reflection or service loader (for example
+ * {@code jdk.crypto.ec} or {@code jdk.localedata}) are not found and have to be added explicitly.
+ * Requires JDK 11 or later.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class JlinkRuntimeBuilder
+{
+    private File jdkHome;
+
+    private ProcessExecutor executor;
+
+    /**
+     * Creates builder.
+     *
+     * @param jdkHome JDK home directory, containing "bin/jdeps" and "bin/jlink" tools
+     * @param workingDirectory working directory of executed tools, relative class path entries are resolved against it
+     * @param logFile file the output of executed tools is written to
+     * @param timeout maximum execution time of every tool in seconds
+     */
+    public JlinkRuntimeBuilder( File jdkHome, File workingDirectory, File logFile, int timeout )
+    {
+        this.jdkHome = jdkHome;
+        this.executor = new ProcessExecutor( workingDirectory, logFile, timeout );
+    }
+
+    /**
+     * Returns JDK modules required by class path jar files.
+     */
+    public SortedSet<String> findModules( List<String> classPath )
+        throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( getTool( "jdeps" ).getAbsolutePath() );
+        command.add( "--ignore-missing-deps" );
+        command.add( "--multi-release" );
+        command.add( "base" );
+        command.add( "--print-module-deps" );
+        command.add( "--class-path" );
+        command.add( StringUtils.join( classPath.iterator(), File.pathSeparator ) );
+        command.addAll( classPath );
+        String output = executor.executeForOutput( "jdeps", command );
+
+        // the output is one comma separated line, for example "java.base,java.naming,java.sql"
+        SortedSet<String> result = new TreeSet<String>();
+        for ( String line : output.split( "[\r\n]+" ) )
+        {
+            if ( line.trim().matches( "[\\w.]+(,[\\w.]+)*" ) )
+            {
+                result.clear();
+                for ( String module : line.trim().split( "," ) )
+                {
+                    result.add( module );
+                }
+            }
+        }
+        if ( result.isEmpty() )
+        {
+            result.add( "java.base" );
+        }
+        return result;
+    }
+
+    /**
+     * Links runtime image containing given modules (and modules they require).
+     *
+     * @param modules module names
+     * @param outputDirectory runtime image directory, deleted first if exists
+     */
+    public void link( Collection<String> modules, File outputDirectory )
+        throws IOException
+    {
+        if ( outputDirectory.exists() )
+        {
+            FileUtils.deleteDirectory( outputDirectory );
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add( getTool( "jlink" ).getAbsolutePath() );
+        // JDKs with packaged modules, newer JDKs can link from their own runtime image
+        File jmodsDirectory = new File( jdkHome, "jmods" );
+        if ( jmodsDirectory.isDirectory() )
+        {
+            command.add( "--module-path" );
+            command.add( jmodsDirectory.getAbsolutePath() );
+        }
+        command.add( "--add-modules" );
+        command.add( StringUtils.join( modules.iterator(), "," ) );
+        command.add( "--strip-debug" );
+        command.add( "--no-header-files" );
+        command.add( "--no-man-pages" );
+        command.add( "--output" );
+        command.add( outputDirectory.getAbsolutePath() );
+        executor.execute( "jlink", command );
+    }
+
+    private File getTool( String name )
+        throws IOException
+    {
+        File result = new File( jdkHome, "bin/" + name );
+        if ( !result.isFile() )
+        {
+            result = new File( jdkHome, "bin/" + name + ".exe" );
+        }
+        if ( !result.isFile() )
+        {
+            throw new IOException( String.format( "\"%s\" tool not found in \"%s\" directory, JDK 11 or later required",
+                                                  name, jdkHome.getAbsolutePath() ) );
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Merges library jar files into one jar file with package index ("META-INF/INDEX.LIST").
+ *
+ * Files read by frameworks from all classpath elements ("META-INF/services/*",
+ * "play.plugins", Spring handlers and schemas) are concatenated. For other
+ * duplicated entries the first one wins, duplicates with different content are
+ * reported as conflicts. Signed jars cannot be merged (their signatures would
+ * become invalid), see {@link #isMergeable(File)}.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class LibraryJarMerger
+{
+    private File destFile;
+
+    private Map<String, ArchiveEntryIndex.Entry> entries = new TreeMap<String, ArchiveEntryIndex.Entry>();
+
+    private Map<String, Long> entryCrcs = new TreeMap<String, Long>();
+
+    private Map<String, ByteArrayOutputStream> concatenatedEntries = new TreeMap<String, ByteArrayOutputStream>();
+
+    private List<String> conflicts = new ArrayList<String>();
+
+    public LibraryJarMerger( File destFile )
+    {
+        this.destFile = destFile;
+    }
+
+    /**
+     * Checks if jar file can be merged (is not signed).
+     */
+    public static boolean isMergeable( File jarFile )
+        throws IOException
+    {
+        boolean result = true;
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                if ( isSignatureFile( en.nextElement().getName() ) )
+                {
+                    result = false;
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+        return result;
+    }
+
+    /**
+     * Adds jar file. Jar files should be added in classpath order.
+     */
+    public void addJar( File jarFile )
+        throws IOException
+    {
+        ZipFile zipFile = new ZipFile( jarFile );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements(); )
+            {
+                ZipEntry zipEntry = en.nextElement();
+                String name = zipEntry.getName();
+                if ( zipEntry.isDirectory() || isSkipped( name ) )
+                {
+                    continue;
+                }
+
+                if ( isConcatenated( name ) )
+                {
+                    ByteArrayOutputStream contents = concatenatedEntries.get( name );
+                    if ( contents == null )
+                    {
+                        contents = new ByteArrayOutputStream();
+                        concatenatedEntries.put( name, contents );
+                    }
+                    InputStream is = zipFile.getInputStream( zipEntry );
+                    try
+                    {
+                        byte[] bytes = IOUtil.toByteArray( is );
+                        contents.write( bytes );
+                        if ( bytes.length > 0 && bytes[bytes.length - 1] != '\n' )
+                        {
+                            contents.write( '\n' );
+                        }
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+                else if ( !entries.containsKey( name ) )
+                {
+                    entries.put( name, new ArchiveEntryIndex.Entry( name, jarFile, name, false, zipEntry.getSize(),
+                                                                    zipEntry.getTime() ) );
+                    entryCrcs.put( name, Long.valueOf( zipEntry.getCrc() ) );
+                }
+                else if ( entryCrcs.get( name ).longValue() != zipEntry.getCrc()
+                    || entries.get( name ).getSize() != zipEntry.getSize() )
+                {
+                    conflicts.add( String.format( "%s: %s wins over %s", name, entries.get( name ).getFile().getName(),
+                                                  jarFile.getName() ) );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Returns duplicated entries with different content, in "name: winner wins over loser" format.
+     */
+    public List<String> getConflicts()
+    {
+        return conflicts;
+    }
+
+    /**
+     * Writes merged jar file. Existing file is not overwritten if its content would not change.
+     */
+    public void merge()
+        throws IOException
+    {
+        Set<String> packages = new TreeSet<String>();
+        for ( String name : entries.keySet() )
+        {
+            packages.add( getPackage( name ) );
+        }
+        for ( String name : concatenatedEntries.keySet() )
+        {
+            packages.add( getPackage( name ) );
+        }
+
+        File tmpFile = new File( destFile.getPath() + ".tmp" );
+        FileUtils.forceMkdir( destFile.getAbsoluteFile().getParentFile() );
+        ArchiveEntryReader entryReader = new ArchiveEntryReader();
+        try
+        {
+            ZipOutputStream zos = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+            try
+            {
+                putEntry( zos, "META-INF/", null );
+                putEntry( zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n" );
+                StringBuilder index = new StringBuilder( "JarIndex-Version: 1.0\n\n" );
+                index.append( destFile.getName() ).append( '\n' );
+                for ( String packageName : packages )
+                {
+                    index.append( packageName ).append( '\n' );
+                }
+                index.append( '\n' );
+                putEntry( zos, "META-INF/INDEX.LIST", index.toString() );
+
+                Map<String, Object> sortedEntries = new TreeMap<String, Object>( entries );
+                sortedEntries.putAll( concatenatedEntries );
+                for ( Map.Entry<String, Object> sortedEntry : sortedEntries.entrySet() )
+                {
+                    ZipEntry zipEntry = new ZipEntry( sortedEntry.getKey() );
+                    zipEntry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+                    zos.putNextEntry( zipEntry );
+                    if ( sortedEntry.getValue() instanceof ByteArrayOutputStream )
+                    {
+                        ( (ByteArrayOutputStream) sortedEntry.getValue() ).writeTo( zos );
+                    }
+                    else
+                    {
+                        InputStream is = entryReader.open( (ArchiveEntryIndex.Entry) sortedEntry.getValue() );
+                        try
+                        {
+                            IOUtil.copy( is, zos );
+                        }
+                        finally
+                        {
+                            is.close();
+                        }
+                    }
+                    zos.closeEntry();
+                }
+            }
+            finally
+            {
+                zos.close();
+            }
+        }
+        finally
+        {
+            entryReader.close();
+        }
+
+        if ( destFile.isFile() && FileUtils.contentEquals( tmpFile, destFile ) )
+        {
+            FileUtils.forceDelete( tmpFile ); // keep last modification time of unchanged file
+        }
+        else
+        {
+            FileUtils.rename( tmpFile, destFile );
+        }
+    }
+
+    private void putEntry( ZipOutputStream zos, String name, String contents )
+        throws IOException
+    {
+        ZipEntry zipEntry = new ZipEntry( name );
+        zipEntry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+        zos.putNextEntry( zipEntry );
+        if ( contents != null )
+        {
+            zos.write( contents.getBytes( "UTF-8" ) );
+        }
+        zos.closeEntry();
+    }
+
+    // jar index entry: package (directory) name or file name for files in root directory
+    private static String getPackage( String name )
+    {
+        int p = name.lastIndexOf( '/' );
+        return p > 0 ? name.substring( 0, p ) : name;
+    }
+
+    private static boolean isSkipped( String name )
+    {
+        return "META-INF/MANIFEST.MF".equals( name ) || "META-INF/INDEX.LIST".equals( name )
+            || "module-info.class".equals( name ) || isSignatureFile( name );
+    }
+
+    private static boolean isConcatenated( String name )
+    {
+        return name.startsWith( "META-INF/services/" ) || "play.plugins".equals( name )
+            || "META-INF/spring.handlers".equals( name ) || "META-INF/spring.schemas".equals( name );
+    }
+
+    private static boolean isSignatureFile( String name )
+    {
+        String upperCaseName = name.toUpperCase( Locale.ENGLISH );
+        return upperCaseName.startsWith( "META-INF/" ) && upperCaseName.indexOf( '/', "META-INF/".length() ) < 0
+            && ( upperCaseName.endsWith( ".SF" ) || upperCaseName.endsWith( ".RSA" )
+                || upperCaseName.endsWith( ".DSA" ) || upperCaseName.endsWith( ".EC" ) );
+    }
+
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes several zip files from indexed archive entries at once.
+ *
+ * Every distinct source (file or source archive entry) is compressed only once, even if it is contained
+ * in many zip files. Sources are streamed and compressed by worker threads (few at once), compressed data
+ * is kept in a spool file and copied into all zip files, which are written concurrently. Like in {@link ReproducibleZipWriter}, entries are written in path order with
+ * the same modification time and with parent directory entries, Unix file modes are preserved.
+ * Zip64 format is not supported.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class MultiZipWriter
+{
+    private static final int DEFAULT_FILE_MODE = 0644;
+
+    private static final int DEFAULT_DIR_MODE = 0755;
+
+    private static final long MAX_ZIP_VALUE = 0xFFFFFFFFL;
+
+    private static final int MAX_ZIP_ENTRIES = 0xFFFF;
+
+    private int threads;
+
+    private long dosTime = toDosTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+
+    private boolean normalizeModes;
+
+    // source description -> compressed data in spool file
+    private Map<String, CompressedData> compressedData = new HashMap<String, CompressedData>();
+
+    private int compressedCount;
+
+    /**
+     * Creates writer.
+     *
+     * @param threads number of compressing and writing threads, available processors count if not positive
+     */
+    public MultiZipWriter( int threads )
+    {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets entry modification time, {@link ReproducibleZipWriter#DEFAULT_ENTRY_TIME} by default.
+     */
+    public void setEntryTime( long entryTime )
+    {
+        this.dosTime = toDosTime( entryTime );
+    }
+
+    /**
+     * Normalizes Unix file modes, executable files and directories get {@code 0755} mode, other files {@code 0644}.
+     */
+    public void setNormalizeModes( boolean normalizeModes )
+    {
+        this.normalizeModes = normalizeModes;
+    }
+
+    /**
+     * Writes zip files.
+     *
+     * @param archives zip files and their entries
+     * @param spoolFile temporary file for compressed data, deleted after writing
+     */
+    public void write( Map<File, Collection<ArchiveEntryIndex.Entry>> archives, File spoolFile )
+        throws IOException
+    {
+        Map<File, SortedMap<String, ArchiveEntryIndex.Entry>> sortedArchives =
+            new LinkedHashMap<File, SortedMap<String, ArchiveEntryIndex.Entry>>();
+        Map<String, ArchiveEntryIndex.Entry> sources = new LinkedHashMap<String, ArchiveEntryIndex.Entry>();
+        for ( Map.Entry<File, Collection<ArchiveEntryIndex.Entry>> archive : archives.entrySet() )
+        {
+            SortedMap<String, ArchiveEntryIndex.Entry> sortedEntries =
+                ArchiveEntryIndex.sortWithParentDirectories( archive.getValue() );
+            if ( sortedEntries.size() > MAX_ZIP_ENTRIES )
+            {
+                throw new IOException( String.format( "Too many entries in \"%s\" (zip64 format not supported)",
+                                                      archive.getKey().getAbsolutePath() ) );
+            }
+            sortedArchives.put( archive.getKey(), sortedEntries );
+            for ( ArchiveEntryIndex.Entry entry : sortedEntries.values() )
+            {
+                if ( entry != null && !entry.isDirectory() && !sources.containsKey( entry.getSourceDescription() ) )
+                {
+                    sources.put( entry.getSourceDescription(), entry );
+                }
+            }
+        }
+
+        File parentDir = spoolFile.getAbsoluteFile().getParentFile();
+        if ( !parentDir.isDirectory() && !parentDir.mkdirs() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory", parentDir.getAbsolutePath() ) );
+        }
+        RandomAccessFile spool = new RandomAccessFile( spoolFile, "rw" );
+        // bounded queue, compressed data of few sources is kept in memory at once
+        ExecutorService executor =
+            new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                    new ArrayBlockingQueue<Runnable>( threads * 2 ),
+                                    new ThreadPoolExecutor.CallerRunsPolicy() );
+        try
+        {
+            spool.setLength( 0L );
+            compress( sources.values(), spool, executor );
+
+            List<Future<Object>> writes = new ArrayList<Future<Object>>();
+            for ( Map.Entry<File, SortedMap<String, ArchiveEntryIndex.Entry>> archive : sortedArchives.entrySet() )
+            {
+                writes.add( executor.submit( createWrite( archive.getKey(), archive.getValue(),
+                                                          spool.getChannel() ) ) );
+            }
+            waitFor( writes );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            spool.close();
+            if ( !spoolFile.delete() )
+            {
+                spoolFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Returns number of distinct sources compressed by the last {@link #write} invocation.
+     */
+    public int getCompressedCount()
+    {
+        return compressedCount;
+    }
+
+    private void compress( Collection<ArchiveEntryIndex.Entry> sources, final RandomAccessFile spool,
+                           ExecutorService executor )
+        throws IOException
+    {
+        compressedData.clear();
+        List<Future<Object>> compressions = new ArrayList<Future<Object>>();
+        final ArchiveEntryReader entryReader = new ArchiveEntryReader();
+        try
+        {
+            for ( final ArchiveEntryIndex.Entry entry : sources )
+            {
+                compressions.add( executor.submit( new Callable<Object>()
+                {
+                    public Object call()
+                        throws IOException
+                    {
+                        CompressedData result = deflate( entry, entryReader );
+                        synchronized ( spool )
+                        {
+                            result.offset = spool.length();
+                            spool.seek( result.offset );
+                            if ( result.data != null )
+                            {
+                                spool.write( result.data );
+                                result.data = null;
+                            }
+                            else
+                            {
+                                // stored, read again instead of keeping uncompressed content in memory
+                                copy( entryReader.open( entry ), spool );
+                            }
+                            compressedData.put( entry.getSourceDescription(), result );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            waitFor( compressions );
+        }
+        finally
+        {
+            entryReader.close();
+        }
+        compressedCount = compressedData.size();
+    }
+
+    private Callable<Object> createWrite( final File destFile, final SortedMap<String, ArchiveEntryIndex.Entry> entries,
+                                          final FileChannel spoolChannel )
+    {
+        return new Callable<Object>()
+        {
+            public Object call()
+                throws IOException
+            {
+                File parentDir = destFile.getAbsoluteFile().getParentFile();
+                if ( !parentDir.mkdirs() && !parentDir.isDirectory() )
+                {
+                    throw new IOException( String.format( "Cannot create \"%s\" directory",
+                                                          parentDir.getAbsolutePath() ) );
+                }
+                CountingOutputStream os =
+                    new CountingOutputStream( new BufferedOutputStream( new FileOutputStream( destFile ) ) );
+                try
+                {
+                    writeZip( os, entries, spoolChannel, destFile );
+                }
+                finally
+                {
+                    os.close();
+                }
+                return null;
+            }
+        };
+    }
+
+    private void writeZip( CountingOutputStream os, SortedMap<String, ArchiveEntryIndex.Entry> entries,
+                           FileChannel spoolChannel, File destFile )
+        throws IOException
+    {
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        for ( Map.Entry<String, ArchiveEntryIndex.Entry> sortedEntry : entries.entrySet() )
+        {
+            String name = sortedEntry.getKey();
+            ArchiveEntryIndex.Entry entry = sortedEntry.getValue();
+            boolean directory = name.endsWith( "/" );
+            CompressedData data = directory ? CompressedData.EMPTY : compressedData.get( entry.getSourceDescription() );
+            int mode = entry != null ? entry.getMode() & 07777 : 0;
+            if ( mode == 0 )
+            {
+                mode = directory ? DEFAULT_DIR_MODE : DEFAULT_FILE_MODE;
+            }
+            else if ( normalizeModes )
+            {
+                mode = directory || ( mode & 0111 ) != 0 ? DEFAULT_DIR_MODE : DEFAULT_FILE_MODE;
+            }
+            long headerOffset = os.getCount();
+            if ( headerOffset > MAX_ZIP_VALUE )
+            {
+                throw new IOException( String.format( "\"%s\" is too large (zip64 format not supported)",
+                                                      destFile.getAbsolutePath() ) );
+            }
+            byte[] nameBytes = name.getBytes( "UTF-8" );
+
+            writeInt( os, 0x04034b50 ); // local file header signature
+            writeShort( os, 20 ); // version needed to extract
+            writeEntryHeader( os, data, nameBytes );
+            writeShort( os, 0 ); // extra field length
+            os.write( nameBytes );
+            copy( spoolChannel, data, os );
+
+            writeInt( centralDirectory, 0x02014b50 ); // central file header signature
+            writeShort( centralDirectory, ( 3 << 8 ) | 20 ); // version made by (Unix)
+            writeShort( centralDirectory, 20 ); // version needed to extract
+            writeEntryHeader( centralDirectory, data, nameBytes );
+            writeShort( centralDirectory, 0 ); // extra field length
+            writeShort( centralDirectory, 0 ); // file comment length
+            writeShort( centralDirectory, 0 ); // disk number start
+            writeShort( centralDirectory, 0 ); // internal file attributes
+            writeInt( centralDirectory, ( ( directory ? 040000 : 0100000 ) | mode ) << 16 | ( directory ? 0x10 : 0 ) );
+            writeInt( centralDirectory, (int) headerOffset );
+            centralDirectory.write( nameBytes );
+        }
+
+        long centralDirectoryOffset = os.getCount();
+        if ( centralDirectoryOffset > MAX_ZIP_VALUE )
+        {
+            throw new IOException( String.format( "\"%s\" is too large (zip64 format not supported)",
+                                                  destFile.getAbsolutePath() ) );
+        }
+        centralDirectory.writeTo( os );
+        writeInt( os, 0x06054b50 ); // end of central directory signature
+        writeShort( os, 0 ); // number of this disk
+        writeShort( os, 0 ); // disk where central directory starts
+        writeShort( os, entries.size() );
+        writeShort( os, entries.size() );
+        writeInt( os, centralDirectory.size() );
+        writeInt( os, (int) centralDirectoryOffset );
+        writeShort( os, 0 ); // comment length
+    }
+
+    // common part of local and central headers, from general purpose flags to file name length
+    private void writeEntryHeader( OutputStream os, CompressedData data, byte[] nameBytes )
+        throws IOException
+    {
+        writeShort( os, 0x0800 ); // general purpose flags, UTF-8 names
+        writeShort( os, data.method );
+        writeInt( os, (int) dosTime );
+        writeInt( os, (int) data.crc );
+        writeInt( os, (int) data.compressedSize );
+        writeInt( os, (int) data.size );
+        writeShort( os, nameBytes.length );
+    }
+
+    private static void copy( FileChannel spoolChannel, CompressedData data, OutputStream os )
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( data.compressedSize, 64 * 1024 ) );
+        long position = data.offset;
+        long end = data.offset + data.compressedSize;
+        while ( position < end )
+        {
+            buffer.clear();
+            buffer.limit( (int) Math.min( buffer.capacity(), end - position ) );
+            int read = spoolChannel.read( buffer, position ); // positional read, thread safe
+            if ( read < 0 )
+            {
+                throw new IOException( "Unexpected end of spool file" );
+            }
+            os.write( buffer.array(), 0, read );
+            position += read;
+        }
+    }
+
+    // streamed, only compressed data is kept in memory (null data if the entry has to be stored)
+    private static CompressedData deflate( ArchiveEntryIndex.Entry entry, ArchiveEntryReader entryReader )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        long size = 0L;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+        InputStream is = entryReader.open( entry );
+        try
+        {
+            DeflaterOutputStream dos = new DeflaterOutputStream( compressed, deflater, 64 * 1024 );
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ( ( n = is.read( buffer ) ) > 0 )
+            {
+                crc.update( buffer, 0, n );
+                dos.write( buffer, 0, n );
+                size += n;
+            }
+            dos.finish();
+        }
+        finally
+        {
+            is.close();
+            deflater.end();
+        }
+        if ( size > MAX_ZIP_VALUE )
+        {
+            throw new IOException( String.format( "\"%s\" is too large (zip64 format not supported)",
+                                                  entry.getSourceDescription() ) );
+        }
+
+        CompressedData result = new CompressedData();
+        result.crc = crc.getValue();
+        result.size = size;
+        if ( compressed.size() < size )
+        {
+            result.method = Deflater.DEFLATED;
+            result.data = compressed.toByteArray();
+            result.compressedSize = result.data.length;
+        }
+        else
+        {
+            result.method = 0; // stored, already compressed content
+            result.compressedSize = size;
+        }
+        return result;
+    }
+
+    private static void copy( InputStream is, RandomAccessFile spool )
+        throws IOException
+    {
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ( ( n = is.read( buffer ) ) > 0 )
+            {
+                spool.write( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static void waitFor( List<Future<Object>> futures )
+        throws IOException
+    {
+        for ( Future<Object> future : futures )
+        {
+            try
+            {
+                future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Zip files writing interrupted" );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof IOException )
+                {
+                    throw (IOException) cause;
+                }
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+    }
+
+    private static long toDosTime( long time )
+    {
+        Calendar calendar = new GregorianCalendar();
+        calendar.setTimeInMillis( time );
+        return ( (long) ( calendar.get( Calendar.YEAR ) - 1980 ) << 25 )
+            | ( (long) ( calendar.get( Calendar.MONTH ) + 1 ) << 21 ) | ( calendar.get( Calendar.DAY_OF_MONTH ) << 16 )
+            | ( calendar.get( Calendar.HOUR_OF_DAY ) << 11 ) | ( calendar.get( Calendar.MINUTE ) << 5 )
+            | ( calendar.get( Calendar.SECOND ) >> 1 );
+    }
+
+    private static void writeShort( OutputStream os, int value )
+        throws IOException
+    {
+        os.write( value & 0xFF );
+        os.write( ( value >>> 8 ) & 0xFF );
+    }
+
+    private static void writeInt( OutputStream os, int value )
+        throws IOException
+    {
+        writeShort( os, value & 0xFFFF );
+        writeShort( os, ( value >>> 16 ) & 0xFFFF );
+    }
+
+    private static class CompressedData
+    {
+        static final CompressedData EMPTY = new CompressedData();
+
+        private int method;
+
+        private long crc;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long offset;
+
+        private byte[] data;
+    }
+
+    private static class CountingOutputStream
+        extends OutputStream
+    {
+        private OutputStream out;
+
+        private long count;
+
+        CountingOutputStream( OutputStream out )
+        {
+            this.out = out;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public void write( int b )
+            throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len )
+            throws IOException
+        {
+            out.write( b, off, len );
+            count += len;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            out.close();
+        }
+    }
+
+}
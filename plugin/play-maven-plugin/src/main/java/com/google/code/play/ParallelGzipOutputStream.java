@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip output stream compressing blocks of data in parallel.
+ *
+ * Every block is compressed independently into separate gzip member (like pigz
+ * does), concatenated members form a valid gzip stream readable by any gzip
+ * implementation. Compression ratio is slightly worse than for a single member
+ * stream.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ParallelGzipOutputStream
+    extends OutputStream
+{
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private OutputStream out;
+
+    private int blockSize;
+
+    private int maxPendingBlocks;
+
+    private ExecutorService executor;
+
+    private LinkedList<Future<byte[]>> pendingBlocks = new LinkedList<Future<byte[]>>();
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private boolean written;
+
+    private boolean closed;
+
+    /**
+     * Creates stream.
+     *
+     * @param out underlying output stream
+     * @param threads number of compressing threads, available processors count if not positive
+     * @param blockSize uncompressed block size
+     */
+    public ParallelGzipOutputStream( OutputStream out, int threads, int blockSize )
+    {
+        this.out = out;
+        this.blockSize = blockSize;
+        int threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.maxPendingBlocks = 2 * threadCount; // limits memory usage
+        this.executor = Executors.newFixedThreadPool( threadCount );
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write( int b )
+        throws IOException
+    {
+        block[blockLength++] = (byte) b;
+        if ( blockLength == blockSize )
+        {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len )
+        throws IOException
+    {
+        int offset = off;
+        int remaining = len;
+        while ( remaining > 0 )
+        {
+            int count = Math.min( remaining, blockSize - blockLength );
+            System.arraycopy( b, offset, block, blockLength, count );
+            blockLength += count;
+            offset += count;
+            remaining -= count;
+            if ( blockLength == blockSize )
+            {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            if ( blockLength > 0 || !written )
+            {
+                submitBlock(); // empty gzip stream still needs one member
+            }
+            while ( !pendingBlocks.isEmpty() )
+            {
+                writeBlock( pendingBlocks.removeFirst() );
+            }
+            out.close();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private void submitBlock()
+        throws IOException
+    {
+        final byte[] data = block;
+        final int length = blockLength;
+        pendingBlocks.add( executor.submit( new Callable<byte[]>()
+        {
+            public byte[] call()
+                throws IOException
+            {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream( length / 2 + 64 );
+                GZIPOutputStream gzos = new GZIPOutputStream( compressed );
+                gzos.write( data, 0, length );
+                gzos.close();
+                return compressed.toByteArray();
+            }
+        } ) );
+        written = true;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        while ( pendingBlocks.size() > maxPendingBlocks )
+        {
+            writeBlock( pendingBlocks.removeFirst() );
+        }
+    }
+
+    private void writeBlock( Future<byte[]> pendingBlock )
+        throws IOException
+    {
+        try
+        {
+            out.write( pendingBlock.get() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Compression interrupted" );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Compile LESS, Sass and CoffeeScript public assets of Play&#33; application to static CSS and JavaScript files.
+ *
+ * Compilers are taken from project dependencies ("less", "sass" and "coffee" Play&#33; modules
+ * and their libraries), no network access is needed. Compiled files are written to
+ * "${project.build.directory}/play/compiled-assets" directory and added to "public" directory
+ * of the application by dist and war packaging mojos. "play12-extensions" library's compiled asset plugin
+ * serves them in production mode instead of compiling the sources at runtime.
+ * Unchanged sources are not compiled again.
+ * Bound to "prepare-package" phase of "play" packaging lifecycle, so it runs before
+ * packaging mojos executed in "package" phase.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ * @since 1.0.0
+ */
+@Mojo( name = "compile-assets", defaultPhase = LifecyclePhase.PREPARE_PACKAGE, requiresDependencyResolution = ResolutionScope.TEST )
+public class PlayCompileAssetsMojo
+    extends AbstractPlayMojo
+{
+    /**
+     * Source files to compile, comma separated patterns relative to "public" directory.
+     *
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.compileAssetsIncludes", defaultValue = "**/*.less,**/*.sass,**/*.scss,**/*.coffee" )
+    private String compileAssetsIncludes;
+
+    /**
+     * Source files not to compile, comma separated patterns relative to "public" directory.
+     * Sass partials are not compiled by default.
+     *
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.compileAssetsExcludes", defaultValue = "**/_*.sass,**/_*.scss" )
+    private String compileAssetsExcludes;
+
+    /**
+     * Fail the build on compilation error. If false, compilation errors are logged
+     * and failed sources are left to runtime compilation.
+     *
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.compileAssetsFailOnError", defaultValue = "true" )
+    private boolean compileAssetsFailOnError;
+
+    /**
+     * Allows assets compilation to be skipped.
+     *
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.compileAssetsSkip", defaultValue = "false" )
+    private boolean compileAssetsSkip;
+
+    @Override
+    protected void internalExecute()
+        throws MojoExecutionException, MojoFailureException, IOException
+    {
+        if ( compileAssetsSkip )
+        {
+            getLog().info( "Skipping assets compilation" );
+            return;
+        }
+
+        String checkMessage = playModuleNotApplicationCheck();
+        if ( checkMessage != null )
+        {
+            getLog().info( checkMessage );
+            return;
+        }
+
+        File publicDirectory = new File( project.getBasedir(), "public" );
+        if ( !publicDirectory.isDirectory() )
+        {
+            getLog().info( "No \"public\" directory, skipping execution" );
+            return;
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir( publicDirectory );
+        scanner.setIncludes( compileAssetsIncludes.split( "," ) );
+        if ( compileAssetsExcludes != null )
+        {
+            scanner.setExcludes( compileAssetsExcludes.split( "," ) );
+        }
+        scanner.scan();
+        String[] files = scanner.getIncludedFiles();
+        Arrays.sort( files );
+
+        URLClassLoader compilerClassLoader = getCompilerClassLoader();
+        AssetCompiler compiler =
+            new AssetCompiler( publicDirectory, getCompiledAssetsDirectory(), compilerClassLoader,
+                               getSassLoadPaths() );
+        Set<String> sourcePaths = new HashSet<String>();
+        Set<String> compiledPaths = new HashSet<String>();
+        int failedCount = 0;
+        for ( String file : files )
+        {
+            String sourcePath = file.replace( File.separatorChar, '/' );
+            String compiledPath = AssetCompiler.getCompiledPath( sourcePath );
+            if ( compiledPath == null )
+            {
+                getLog().warn( String.format( "Unsupported asset type \"%s\", not compiled", sourcePath ) );
+                continue;
+            }
+            if ( new File( publicDirectory, compiledPath ).exists() || !compiledPaths.add( compiledPath ) )
+            {
+                getLog().warn( String.format( "\"%s\" not compiled, \"%s\" already exists", sourcePath,
+                                              compiledPath ) );
+                continue;
+            }
+            sourcePaths.add( sourcePath );
+            try
+            {
+                if ( compiler.compile( sourcePath ) )
+                {
+                    getLog().debug( String.format( "\"%s\" compiled to \"%s\"", sourcePath, compiledPath ) );
+                }
+            }
+            catch ( IOException e )
+            {
+                if ( compileAssetsFailOnError )
+                {
+                    throw new MojoExecutionException( e.getMessage(), e );
+                }
+                getLog().warn( e.getMessage() );
+                failedCount++;
+            }
+        }
+        compiler.finish( sourcePaths );
+        getLog().info( String.format( "%d asset(s) compiled, %d up to date, %d failed", compiler.getCompiledCount(),
+                                      compiler.getCompiledPaths().size() - compiler.getCompiledCount(),
+                                      failedCount ) );
+    }
+
+    // project dependencies, among others "less", "sass" and "coffee" modules libraries
+    private URLClassLoader getCompilerClassLoader()
+        throws IOException
+    {
+        List<URL> urls = new ArrayList<URL>();
+        for ( Object o : project.getArtifacts() )
+        {
+            Artifact artifact = (Artifact) o;
+            if ( "jar".equals( artifact.getType() ) && artifact.getFile() != null )
+            {
+                urls.add( artifact.getFile().toURI().toURL() );
+            }
+        }
+        return new URLClassLoader( urls.toArray( new URL[urls.size()] ), ClassLoader.getSystemClassLoader()
+            .getParent() );
+    }
+
+    // directories containing Sass gem in modules extracted by "play:dependencies" mojo
+    private List<String> getSassLoadPaths()
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        File modulesDirectory = new File( project.getBasedir(), "modules" );
+        if ( modulesDirectory.isDirectory() )
+        {
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir( modulesDirectory );
+            scanner.setIncludes( new String[] { "**/sass.rb" } );
+            scanner.scan();
+            String[] files = scanner.getIncludedFiles();
+            Arrays.sort( files );
+            for ( String file : files )
+            {
+                result.add( new File( modulesDirectory, file ).getParentFile().getAbsolutePath() );
+            }
+        }
+        return new ArrayList<String>( result );
+    }
+
+}
@@ -29,7 +29,6 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
 
 /**
  * Create exploded Play&#33; framework and Play&#33; application (standalone distribution).
@@ -70,11 +69,11 @@ public class PlayDistExplodedMojo
         {
             ConfigurationParser configParser = getConfiguration();
 
-            ZipArchiver zipArchiver = prepareArchiver( configParser );
+            ArchiveEntryIndex entryIndex = prepareArchiver( configParser );
 
             File distOutputDirectory = new File( project.getBuild().getDirectory(), "dist" );
             getLog().info( "Building dist directory: " + distOutputDirectory.getAbsolutePath() );
-            expandArchive( zipArchiver, distOutputDirectory );
+            expandArchive( entryIndex, distOutputDirectory, "dist-exploded", true );
         }
         catch ( ArchiverException e )
         {
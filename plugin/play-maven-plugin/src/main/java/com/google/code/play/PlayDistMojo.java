@@ -18,6 +18,12 @@ package com.google.code.play;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -31,7 +37,7 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
+import org.codehaus.plexus.util.FileUtils;
 
 /**
  * Package Play&#33; framework and Play&#33; application as one zip achive (standalone distribution).
@@ -84,6 +90,64 @@ public class PlayDistMojo
     @Parameter( property = "play.distAttach", defaultValue = "false" )
     private boolean distAttach;
 
+    /**
+     * Distribution file format, "zip" or "tar.gz". Tar.gz files preserve Unix file modes stored
+     * in framework and module archives, are compressed in parallel and can be extracted in a streaming way.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distFormat", defaultValue = "zip" )
+    private String distFormat;
+
+    /**
+     * Number of threads compressing tar.gz distribution file.
+     * Available processors count is used if not positive.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distCompressionThreads", defaultValue = "0" )
+    private int distCompressionThreads;
+
+    /**
+     * Generate layered distribution. Instead of one distribution file, separate zip file is generated
+     * for every distribution layer ("framework", "modules", "libs", "snapshot-libs" and "application")
+     * together with layers index file containing layer file names and digests. Layer files content
+     * is stable, it changes only if layer entries change, so only changed layers have to be deployed.
+     * Layer files should be extracted into one directory in index file order. Layer files are always
+     * zip files, "distFormat" parameter applies to non-layered distribution only.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distLayered", defaultValue = "false" )
+    private boolean distLayered;
+
+    /**
+     * Comma separated list of Play! ids (profiles). If set, one distribution file is generated for every
+     * Play! id in a single pass, with Play! id added to the classifier ("dist-prod", "dist-staging").
+     * Dependencies are resolved and application directory and archives are scanned only once,
+     * in zip format every distinct file is compressed only once and all distribution files
+     * are written concurrently. "playId" parameter is ignored. Not supported for layered distribution.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distPlayIds", defaultValue = "" )
+    private String distPlayIds;
+
+    /**
+     * Baseline distribution for delta patch generation, zip file path or artifact coordinates
+     * ("groupId:artifactId:version[:classifier]") of distribution in local repository
+     * ("distClassifier" classifier by default). If set, patch file with distribution entries added
+     * or changed since the baseline and list of deleted entries is generated next to the distribution
+     * file ("patch" added to the classifier). Entries are compared using zip central directory data,
+     * unchanged files (jars) are not unpacked. Patch is applied to extracted baseline distribution with
+     * "bin/apply-patch" script (see "distStartScript" parameter). Supported for zip format only,
+     * not supported for layered distribution and together with "distPlayIds" parameter.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.distPatchBaseline", defaultValue = "" )
+    private String distPatchBaseline;
+
     /**
      * Maven ProjectHelper.
      * 
@@ -107,20 +171,64 @@ public class PlayDistMojo
             return;
         }
 
+        if ( !"zip".equals( distFormat ) && !"tar.gz".equals( distFormat ) )
+        {
+            throw new MojoExecutionException( String.format( "Unsupported \"%s\" distribution format, supported formats are \"zip\" and \"tar.gz\"",
+                                                             distFormat ) );
+        }
+
+        if ( distPlayIds != null && distPlayIds.trim().length() > 0 && distLayered )
+        {
+            throw new MojoExecutionException( "\"distPlayIds\" parameter is not supported for layered distribution" );
+        }
+
+        boolean patch = distPatchBaseline != null && distPatchBaseline.trim().length() > 0;
+        if ( patch && ( !"zip".equals( distFormat ) || distLayered
+            || ( distPlayIds != null && distPlayIds.trim().length() > 0 ) ) )
+        {
+            throw new MojoExecutionException( "\"distPatchBaseline\" parameter is supported for non-layered zip distribution only" );
+        }
+
         try
         {
-            File destFile = new File( distOutputDirectory, getDestinationFileName() );
+            if ( distPlayIds != null && distPlayIds.trim().length() > 0 )
+            {
+                createDistributions( distPlayIds.split( "," ) );
+                return;
+            }
 
             ConfigurationParser configParser = getConfiguration();
 
-            ZipArchiver zipArchiver = prepareArchiver( configParser );
-            zipArchiver.setDestFile( destFile );
+            ArchiveEntryIndex entryIndex = prepareArchiver( configParser );
+            if ( distLayered )
+            {
+                createLayers( entryIndex );
+                return;
+            }
 
-            zipArchiver.createArchive();
+            File destFile = new File( distOutputDirectory, getDestinationFileName( distClassifier, distFormat ) );
+            if ( "tar.gz".equals( distFormat ) )
+            {
+                if ( !isOutputUpToDate( entryIndex, destFile ) )
+                {
+                    createTarGzWriter( distCompressionThreads ).write( entryIndex.getEntries(), destFile );
+                    saveInputFingerprint( entryIndex, destFile );
+                }
+            }
+            else
+            {
+                createArchive( entryIndex, destFile );
+            }
+            checkArchiveSize( destFile );
             
             if ( distAttach )
             {
-                projectHelper.attachArtifact( project, "zip", distClassifier, destFile );
+                projectHelper.attachArtifact( project, distFormat, distClassifier, destFile );
+            }
+
+            if ( patch )
+            {
+                createPatch( destFile );
             }
         }
         catch ( ArchiverException e )
@@ -137,19 +245,220 @@ public class PlayDistMojo
         }
     }
 
-    private String getDestinationFileName()
+    private void createDistributions( String[] playIds )
+        throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
+    {
+        Map<String, List<ArchiveEntryIndex.Entry>> scanCache = new HashMap<String, List<ArchiveEntryIndex.Entry>>();
+        Map<File, ArchiveEntryIndex> outdated = new LinkedHashMap<File, ArchiveEntryIndex>();
+        Map<File, String> classifiers = new LinkedHashMap<File, String>();
+        for ( String id : playIds )
+        {
+            String distPlayId = id.trim();
+            if ( distPlayId.length() == 0 )
+            {
+                continue;
+            }
+            String classifier = getPlayIdClassifier( distPlayId );
+            File destFile = new File( distOutputDirectory, getDestinationFileName( classifier, distFormat ) );
+            getLog().info( String.format( "Preparing \"%s\" distribution: %s", distPlayId, destFile.getName() ) );
+            ArchiveEntryIndex entryIndex =
+                prepareArchiver( getConfiguration( distPlayId ), distPlayId, "dist-" + distPlayId, scanCache );
+            if ( !isOutputUpToDate( entryIndex, destFile ) )
+            {
+                outdated.put( destFile, entryIndex );
+            }
+            classifiers.put( destFile, classifier );
+        }
+
+        if ( "tar.gz".equals( distFormat ) )
+        {
+            // gzip stream covers whole archive, nothing can be shared
+            for ( Map.Entry<File, ArchiveEntryIndex> output : outdated.entrySet() )
+            {
+                createTarGzWriter( distCompressionThreads ).write( output.getValue().getEntries(), output.getKey() );
+            }
+        }
+        else if ( !outdated.isEmpty() )
+        {
+            Map<File, Collection<ArchiveEntryIndex.Entry>> archives =
+                new LinkedHashMap<File, Collection<ArchiveEntryIndex.Entry>>();
+            for ( Map.Entry<File, ArchiveEntryIndex> output : outdated.entrySet() )
+            {
+                archives.put( output.getKey(), output.getValue().getEntries() );
+            }
+            MultiZipWriter zipWriter = createMultiZipWriter( distCompressionThreads );
+            zipWriter.write( archives, new File( project.getBuild().getDirectory(), "play/tmp/dist-spool.tmp" ) );
+            getLog().info( String.format( "%d distribution file(s) written, %d distinct file(s) compressed",
+                                          archives.size(), zipWriter.getCompressedCount() ) );
+        }
+        for ( Map.Entry<File, ArchiveEntryIndex> output : outdated.entrySet() )
+        {
+            saveInputFingerprint( output.getValue(), output.getKey() );
+        }
+        for ( File destFile : classifiers.keySet() )
+        {
+            checkArchiveSize( destFile );
+        }
+
+        if ( distAttach )
+        {
+            for ( Map.Entry<File, String> output : classifiers.entrySet() )
+            {
+                projectHelper.attachArtifact( project, distFormat, output.getValue(), output.getKey() );
+            }
+        }
+    }
+
+    @Override
+    protected long getDistributionFileTime( long lastModified )
+        throws IOException
+    {
+        return getUnpackedTime( lastModified, "tar.gz".equals( distFormat ),
+                                distLayered || ( distPlayIds != null && distPlayIds.trim().length() > 0 ) );
+    }
+
+    private void createPatch( File destFile )
+        throws IOException, MojoExecutionException
+    {
+        String baseline = distPatchBaseline.trim();
+        File baselineFile = FileUtils.resolveFile( project.getBasedir(), baseline );
+        if ( !baselineFile.isFile() )
+        {
+            if ( baseline.indexOf( ':' ) < 0 )
+            {
+                throw new MojoExecutionException( String.format( "Baseline distribution file \"%s\" not found",
+                                                                 baselineFile.getAbsolutePath() ) );
+            }
+            baselineFile = getLocalRepositoryFile( baseline, "zip", distClassifier );
+        }
+
+        String patchClassifier = getLayerClassifier( "patch" );
+        File patchFile = new File( distOutputDirectory, getDestinationFileName( patchClassifier, "zip" ) );
+        if ( !DistPatchWriter.isUpToDate( baselineFile, destFile, patchFile ) )
+        {
+            getLog().info( String.format( "Building distribution patch against %s: %s", baselineFile.getName(),
+                                          patchFile.getAbsolutePath() ) );
+            DistPatchWriter patchWriter = new DistPatchWriter();
+            patchWriter.write( baselineFile, destFile, patchFile );
+            getLog().info( String.format( "%d entries added, %d changed, %d deleted, patch size %d bytes (distribution %d bytes)",
+                                          patchWriter.getAddedCount(), patchWriter.getChangedCount(),
+                                          patchWriter.getDeletedCount(), patchFile.length(), destFile.length() ) );
+        }
+
+        if ( distAttach )
+        {
+            projectHelper.attachArtifact( project, "zip", patchClassifier, patchFile );
+        }
+    }
+
+    private String getPlayIdClassifier( String distPlayId )
+    {
+        String result = distPlayId;
+        if ( distClassifier != null && !"".equals( distClassifier ) )
+        {
+            String classifier = distClassifier.startsWith( "-" ) ? distClassifier.substring( 1 ) : distClassifier;
+            result = classifier + "-" + distPlayId;
+        }
+        return result;
+    }
+
+    private void createLayers( ArchiveEntryIndex entryIndex )
+        throws IOException, MojoExecutionException
+    {
+        File layersIndexFile = getLayerFile( "layers", "txt" );
+        if ( !isOutputUpToDate( entryIndex, layersIndexFile ) )
+        {
+            Map<String, List<ArchiveEntryIndex.Entry>> layerEntries =
+                new HashMap<String, List<ArchiveEntryIndex.Entry>>();
+            for ( ArchiveEntryIndex.Entry entry : entryIndex.getEntries() )
+            {
+                List<ArchiveEntryIndex.Entry> entries = layerEntries.get( entry.getLayer() );
+                if ( entries == null )
+                {
+                    entries = new ArrayList<ArchiveEntryIndex.Entry>();
+                    layerEntries.put( entry.getLayer(), entries );
+                }
+                entries.add( entry );
+            }
+
+            ReproducibleZipWriter zipWriter = createReproducibleZipWriter();
+            StringBuilder layersIndex = new StringBuilder();
+            layersIndex.append( "# Extract layer files into one directory in the order of this file\n" );
+            layersIndex.append( "# layer\tfile\tsha-256\n" );
+            for ( String layer : DIST_LAYERS )
+            {
+                File layerFile = getLayerFile( layer, "zip" );
+                List<ArchiveEntryIndex.Entry> entries = layerEntries.get( layer );
+                if ( entries == null )
+                {
+                    if ( layerFile.isFile() && !layerFile.delete() )
+                    {
+                        throw new IOException( String.format( "Cannot delete \"%s\" file",
+                                                              layerFile.getAbsolutePath() ) );
+                    }
+                    continue;
+                }
+                String digest = zipWriter.write( entries, layerFile );
+                getLog().info( String.format( "Building \"%s\" layer: %s (%d entries)", layer,
+                                              layerFile.getAbsolutePath(), entries.size() ) );
+                layersIndex.append( layer ).append( '\t' ).append( layerFile.getName() ).append( '\t' );
+                layersIndex.append( digest ).append( '\n' );
+            }
+            FileUtils.fileWrite( layersIndexFile, "UTF-8", layersIndex.toString() );
+            saveInputFingerprint( entryIndex, layersIndexFile );
+        }
+        for ( String layer : DIST_LAYERS )
+        {
+            File layerFile = getLayerFile( layer, "zip" );
+            if ( layerFile.isFile() )
+            {
+                checkArchiveSize( layerFile );
+            }
+        }
+
+        if ( distAttach )
+        {
+            for ( String layer : DIST_LAYERS )
+            {
+                File layerFile = getLayerFile( layer, "zip" );
+                if ( layerFile.isFile() )
+                {
+                    projectHelper.attachArtifact( project, "zip", getLayerClassifier( layer ), layerFile );
+                }
+            }
+            projectHelper.attachArtifact( project, "txt", getLayerClassifier( "layers" ), layersIndexFile );
+        }
+    }
+
+    private File getLayerFile( String layer, String extension )
+    {
+        return new File( distOutputDirectory, getDestinationFileName( getLayerClassifier( layer ), extension ) );
+    }
+
+    private String getLayerClassifier( String layer )
+    {
+        String result = layer;
+        if ( distClassifier != null && !"".equals( distClassifier ) )
+        {
+            String classifier = distClassifier.startsWith( "-" ) ? distClassifier.substring( 1 ) : distClassifier;
+            result = classifier + "-" + layer;
+        }
+        return result;
+    }
+
+    private String getDestinationFileName( String classifier, String extension )
     {
         StringBuffer buf = new StringBuffer();
         buf.append( distArchiveName );
-        if ( distClassifier != null && !"".equals( distClassifier ) )
+        if ( classifier != null && !"".equals( classifier ) )
         {
-            if ( !distClassifier.startsWith( "-" ) )
+            if ( !classifier.startsWith( "-" ) )
             {
                 buf.append( '-' );
             }
-            buf.append( distClassifier );
+            buf.append( classifier );
         }
-        buf.append( ".zip" );
+        buf.append( '.' ).append( extension );
         return buf.toString();
     }
 
@@ -78,7 +78,7 @@ public class PlayStartMojo
     private boolean startSpawn;
 
     /**
-     * After starting server wait for "http://localhost:${httpPort}/" URL to be available.
+     * After starting server wait for it to be started (for "http://localhost:${httpPort}/" to be available).
      * 
      * @since 1.0.0
      */
@@ -166,7 +166,7 @@ public class PlayStartMojo
 
             getLog().info( String.format( "Waiting for %s", rootUrl ) );
 
-            waitForServerStarted( rootUrl, runner );
+            waitForServerStarted( startSpawn ? null : runner );
         }
         
         getLog().info( "Play! Server started" );
@@ -91,7 +91,7 @@ public class PlayStartServerMojo
 
         getLog().info( String.format( "Waiting for %s", rootUrl ) );
 
-        waitForServerStarted( rootUrl, runner );
+        waitForServerStarted( runner );
 
         Exception startServerException = runner.getException();
         if ( startServerException != null )
@@ -29,7 +29,6 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.war.WarArchiver;
 
 /**
  * Create an exploded Play&#33; application webapp in specified directory.
@@ -91,11 +90,11 @@ public class PlayWarExplodedMojo
         {
             ConfigurationParser configParser = getConfiguration();
 
-            WarArchiver warArchiver = prepareArchiver( configParser, true );
+            ArchiveEntryIndex entryIndex = prepareArchiver( configParser, true );
 
             File warOutputDirectory = new File( project.getBuild().getDirectory(), "war" );
             getLog().info( "Building war directory: " + warOutputDirectory.getAbsolutePath() );
-            expandArchive( warArchiver, warOutputDirectory );
+            expandArchive( entryIndex, warOutputDirectory, "war-exploded", true );
         }
         catch ( ArchiverException e )
         {
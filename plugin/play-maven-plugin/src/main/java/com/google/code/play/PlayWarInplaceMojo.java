@@ -28,7 +28,6 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.war.WarArchiver;
 
 /**
  * Create an exploded Play&#33; application webapp in war source directory.
@@ -71,10 +70,11 @@ public class PlayWarInplaceMojo
         {
             ConfigurationParser configParser = getConfiguration();
 
-            WarArchiver warArchiver = prepareArchiver( configParser, false );
+            ArchiveEntryIndex entryIndex = prepareArchiver( configParser, false );
 
             getLog().info( "Building war directory: " + getWebappDirectory().getAbsolutePath() );
-            expandArchive( warArchiver, getWebappDirectory() );
+            // "warWebappDirectory" contains user files, delete only files written in previous synchronization
+            expandArchive( entryIndex, getWebappDirectory(), "war-inplace", false );
         }
         catch ( ArchiverException e )
         {
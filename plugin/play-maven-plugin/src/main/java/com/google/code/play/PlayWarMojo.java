@@ -18,6 +18,11 @@ package com.google.code.play;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -31,7 +36,6 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.war.WarArchiver;
 
 /**
  * Package Play&#33; application as a war achive.
@@ -103,6 +107,18 @@ public class PlayWarMojo
     @Parameter( property = "play.warWebappExcludes", defaultValue = "WEB-INF/web.xml" )
     private String warWebappExcludes;
 
+    /**
+     * Comma separated list of Play! ids (profiles). If set, one WAR file is generated for every
+     * Play! id in a single pass, with Play! id added to the classifier. Dependencies are resolved
+     * and application directory and archives are scanned only once, every distinct file is compressed
+     * only once and all WAR files are written concurrently. Only Play! id specific content (active
+     * provided modules, filtered "web.xml") differs. "playWarId" parameter is ignored.
+     * 
+     * @since 1.0.0
+     */
+    @Parameter( property = "play.warPlayIds", defaultValue = "" )
+    private String warPlayIds;
+
     /**
      * Maven ProjectHelper.
      * 
@@ -130,18 +146,24 @@ public class PlayWarMojo
 
         try
         {
-            File destFile = new File( warOutputDirectory, getDestinationFileName() );
+            if ( warPlayIds != null && warPlayIds.trim().length() > 0 )
+            {
+                createWars( warPlayIds.split( "," ) );
+                return;
+            }
 
-            ConfigurationParser configParser = getConfiguration();
+            File destFile = new File( warOutputDirectory, getDestinationFileName( warClassifier ) );
 
-            WarArchiver warArchiver = prepareArchiver( configParser, true );
-            warArchiver.setDestFile( destFile );
+            ConfigurationParser configParser = getConfiguration();
 
-            warArchiver.createArchive();
+            ArchiveEntryIndex entryIndex = prepareArchiver( configParser, true );
+            createArchive( entryIndex, destFile );
+            checkArchiveSize( destFile );
             
             if ( warAttach )
             {
                 projectHelper.attachArtifact( project, "war", warClassifier, destFile );
+                attachSharedLibsBundle();
             }
         }
         catch ( ArchiverException e )
@@ -158,17 +180,86 @@ public class PlayWarMojo
         }
     }
 
-    private String getDestinationFileName()
+    private void createWars( String[] playIds )
+        throws DependencyTreeBuilderException, IOException, MojoExecutionException, NoSuchArchiverException
+    {
+        Map<String, List<ArchiveEntryIndex.Entry>> scanCache = new HashMap<String, List<ArchiveEntryIndex.Entry>>();
+        Map<File, Collection<ArchiveEntryIndex.Entry>> archives =
+            new LinkedHashMap<File, Collection<ArchiveEntryIndex.Entry>>();
+        Map<File, ArchiveEntryIndex> outdated = new LinkedHashMap<File, ArchiveEntryIndex>();
+        Map<File, String> classifiers = new LinkedHashMap<File, String>();
+        for ( String id : playIds )
+        {
+            String warPlayId = id.trim();
+            if ( warPlayId.length() == 0 )
+            {
+                continue;
+            }
+            String classifier = warPlayId;
+            if ( warClassifier != null && !"".equals( warClassifier ) )
+            {
+                classifier = ( warClassifier.startsWith( "-" ) ? warClassifier.substring( 1 ) : warClassifier ) + "-"
+                    + warPlayId;
+            }
+            File destFile = new File( warOutputDirectory, getDestinationFileName( classifier ) );
+            getLog().info( String.format( "Preparing \"%s\" WAR: %s", warPlayId, destFile.getName() ) );
+            ArchiveEntryIndex entryIndex =
+                prepareArchiver( getConfiguration( warPlayId ), true, warPlayId, "war-" + warPlayId, scanCache );
+            addWarManifest( entryIndex );
+            if ( !isOutputUpToDate( entryIndex, destFile ) )
+            {
+                outdated.put( destFile, entryIndex );
+                archives.put( destFile, entryIndex.getEntries() );
+            }
+            classifiers.put( destFile, classifier );
+        }
+
+        if ( !archives.isEmpty() )
+        {
+            MultiZipWriter zipWriter = createMultiZipWriter( 0 );
+            zipWriter.write( archives, new File( project.getBuild().getDirectory(), "play/tmp/war-spool.tmp" ) );
+            getLog().info( String.format( "%d WAR file(s) written, %d distinct file(s) compressed", archives.size(),
+                                          zipWriter.getCompressedCount() ) );
+            for ( Map.Entry<File, ArchiveEntryIndex> output : outdated.entrySet() )
+            {
+                saveInputFingerprint( output.getValue(), output.getKey() );
+            }
+        }
+        for ( File destFile : classifiers.keySet() )
+        {
+            checkArchiveSize( destFile );
+        }
+
+        if ( warAttach )
+        {
+            for ( Map.Entry<File, String> output : classifiers.entrySet() )
+            {
+                projectHelper.attachArtifact( project, "war", output.getValue(), output.getKey() );
+            }
+            attachSharedLibsBundle();
+        }
+    }
+
+    // the same bundle for all Play! ids, framework dependencies do not depend on Play! id
+    private void attachSharedLibsBundle()
+    {
+        if ( getSharedLibsBundleFile() != null )
+        {
+            projectHelper.attachArtifact( project, "zip", "play-shared-libs", getSharedLibsBundleFile() );
+        }
+    }
+
+    private String getDestinationFileName( String classifier )
     {
         StringBuffer buf = new StringBuffer();
         buf.append( warArchiveName );
-        if ( warClassifier != null && !"".equals( warClassifier ) )
+        if ( classifier != null && !"".equals( classifier ) )
         {
-            if ( !warClassifier.startsWith( "-" ) )
+            if ( !classifier.startsWith( "-" ) )
             {
                 buf.append( '-' );
             }
-            buf.append( warClassifier );
+            buf.append( classifier );
         }
         buf.append( ".war" );
         return buf.toString();
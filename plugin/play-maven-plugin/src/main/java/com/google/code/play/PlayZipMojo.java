@@ -41,7 +41,6 @@ import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.manager.NoSuchArchiverException;
-import org.codehaus.plexus.archiver.zip.ZipArchiver;
 
 /**
  * Package Play&#33; application as a zip achive.
@@ -119,21 +118,27 @@ public class PlayZipMojo
             String zipName = project.getBuild().getFinalName();
             File destFile = new File( zipOutputDirectory, zipName + ".zip" );
 
-            ZipArchiver zipArchiver = getZipArchiver();
-            zipArchiver.setDestFile( destFile );
+            ArchiveEntryIndex entryIndex = createEntryIndex( getZipArchiver() );
+            entryIndex.addParameter( "zipApplicationIncludes", zipApplicationIncludes );
+            entryIndex.addParameter( "zipApplicationExcludes", zipApplicationExcludes );
+            entryIndex.addParameter( "zipModulesIncludes", zipModulesIncludes );
+            entryIndex.addParameter( "zipModulesExcludes", zipModulesExcludes );
+            entryIndex.addParameter( "zipDependencyIncludes", zipDependencyIncludes );
+            entryIndex.addParameter( "zipDependencyExcludes", zipDependencyExcludes );
+            entryIndex.addParameter( "zipDependencies", String.valueOf( zipDependencies ) );
 
             getLog().debug( "Zip application includes: " + zipApplicationIncludes );
             getLog().debug( "Zip application excludes: " + zipApplicationExcludes );
             String[] includes = ( zipApplicationIncludes != null ? zipApplicationIncludes.split( "," ) : null );
             String[] excludes = ( zipApplicationExcludes != null ? zipApplicationExcludes.split( "," ) : null );
-            zipArchiver.addDirectory( baseDir, includes, excludes );
+            entryIndex.addDirectory( baseDir, includes, excludes );
 
             if ( zipDependencies )
             {
-                processDependencies( zipArchiver );
+                processDependencies( entryIndex );
             }
-            checkArchiverForProblems( zipArchiver );
-            zipArchiver.createArchive();
+            checkForDuplicates( entryIndex );
+            createArchive( entryIndex, destFile );
 
             project.getArtifact().setFile( destFile );
         }
@@ -151,7 +156,7 @@ public class PlayZipMojo
         }
     }
 
-    private void processDependencies( ZipArchiver zipArchiver )
+    private void processDependencies( ArchiveEntryIndex entryIndex )
         throws DependencyTreeBuilderException, IOException
     {
         // preparation
@@ -224,7 +229,7 @@ public class PlayZipMojo
 
             File moduleZipFile = moduleZipArtifact.getFile();
             String moduleSubDir = String.format( "modules/%s-%s/", moduleName, moduleZipArtifact.getBaseVersion() );
-            zipArchiver.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
+            entryIndex.addArchivedFileSet( moduleZipFile, moduleSubDir, modulesIncludes, modulesExcludes );
             Set<Artifact> dependencySubtree = getModuleDependencyArtifacts( filteredArtifacts, moduleZipArtifact );
             for ( Artifact classPathArtifact : dependencySubtree )
             {
@@ -238,7 +243,7 @@ public class PlayZipMojo
                 String destinationPath =
                                 String.format( "modules/%s-%s/lib/%s", moduleName,
                                                moduleZipArtifact.getBaseVersion(), destinationFileName );
-                zipArchiver.addFile( jarFile, destinationPath );
+                entryIndex.addFile( jarFile, destinationPath );
                 filteredArtifacts.remove( classPathArtifact );
             }
 
@@ -250,7 +255,7 @@ public class PlayZipMojo
             Artifact artifact = (Artifact) iter.next();
             File jarFile = artifact.getFile();
             String destinationFileName = "lib/" + jarFile.getName();
-            zipArchiver.addFile( jarFile, destinationFileName );
+            entryIndex.addFile( jarFile, destinationFileName );
         }
     }
 
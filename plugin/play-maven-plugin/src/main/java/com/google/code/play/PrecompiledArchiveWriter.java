@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Packs precompiled Play&#33; application classes ("precompiled/java") and templates
+ * ("precompiled/templates") into one archive ("precompiled/precompiled.jar").
+ *
+ * Class files are stored under "java/" in superclass-first order (every application superclass
+ * and interface is stored before its subclasses), so all classes can be defined in archive order.
+ * Template files are stored under "templates/". The archive is read at startup by
+ * {@code com.google.code.play.plugins.PrecompiledArchivePlugin} from "play12-extensions" library.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class PrecompiledArchiveWriter
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the precompiled archive.
+     */
+    public static final String PLAY_PLUGIN = "40:com.google.code.play.plugins.PrecompiledArchivePlugin";
+
+    private File destFile;
+
+    private Map<String, File> classFiles = new TreeMap<String, File>();
+
+    private Map<String, String[]> classSuperTypes = new TreeMap<String, String[]>();
+
+    private Map<String, File> templateFiles = new TreeMap<String, File>();
+
+    public PrecompiledArchiveWriter( File destFile )
+    {
+        this.destFile = destFile;
+    }
+
+    /**
+     * Adds all classes from precompiled classes directory ("precompiled/java").
+     */
+    public void addClassDirectory( File directory )
+        throws IOException
+    {
+        addClassDirectory( directory, "" );
+    }
+
+    /**
+     * Adds all templates from precompiled templates directory ("precompiled/templates").
+     */
+    public void addTemplateDirectory( File directory )
+    {
+        addTemplateDirectory( directory, "" );
+    }
+
+    public int getClassCount()
+    {
+        return classFiles.size();
+    }
+
+    public int getTemplateCount()
+    {
+        return templateFiles.size();
+    }
+
+    /**
+     * Writes archive file. Existing file is not overwritten if its content would not change.
+     */
+    public void write()
+        throws IOException
+    {
+        List<String> classNames = new ArrayList<String>();
+        Set<String> visited = new HashSet<String>();
+        for ( String className : classFiles.keySet() )
+        {
+            addSuperTypesFirst( className, classNames, visited );
+        }
+
+        File tmpFile = new File( destFile.getPath() + ".tmp" );
+        FileUtils.forceMkdir( destFile.getAbsoluteFile().getParentFile() );
+        ZipOutputStream zos = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+        try
+        {
+            for ( String className : classNames )
+            {
+                putEntry( zos, "java/" + className.replace( '.', '/' ) + ".class", classFiles.get( className ) );
+            }
+            for ( Map.Entry<String, File> templateEntry : templateFiles.entrySet() )
+            {
+                putEntry( zos, "templates/" + templateEntry.getKey(), templateEntry.getValue() );
+            }
+        }
+        finally
+        {
+            zos.close();
+        }
+
+        if ( destFile.isFile() && FileUtils.contentEquals( tmpFile, destFile ) )
+        {
+            FileUtils.forceDelete( tmpFile ); // keep last modification time of unchanged file
+        }
+        else
+        {
+            FileUtils.rename( tmpFile, destFile );
+        }
+    }
+
+    private void addSuperTypesFirst( String className, List<String> classNames, Set<String> visited )
+    {
+        if ( visited.add( className ) )
+        {
+            for ( String superTypeName : classSuperTypes.get( className ) )
+            {
+                if ( classFiles.containsKey( superTypeName ) )
+                {
+                    addSuperTypesFirst( superTypeName, classNames, visited );
+                }
+            }
+            classNames.add( className );
+        }
+    }
+
+    private void putEntry( ZipOutputStream zos, String name, File file )
+        throws IOException
+    {
+        ZipEntry zipEntry = new ZipEntry( name );
+        zipEntry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+        zos.putNextEntry( zipEntry );
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            IOUtil.copy( is, zos );
+        }
+        finally
+        {
+            is.close();
+        }
+        zos.closeEntry();
+    }
+
+    private void addClassDirectory( File directory, String packagePrefix )
+        throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                String fileName = file.getName();
+                if ( file.isDirectory() )
+                {
+                    addClassDirectory( file, packagePrefix + fileName + "." );
+                }
+                else if ( fileName.endsWith( ".class" ) && !fileName.startsWith( "." ) )
+                {
+                    String className = packagePrefix + fileName.substring( 0, fileName.length() - ".class".length() );
+                    InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+                    try
+                    {
+                        // superclass and interfaces columns
+                        String[] classInfo = ClassIndexWriter.readClassInfo( is ).split( "\t" );
+                        classSuperTypes.put( className, ( classInfo[0] + "," + classInfo[1] ).split( "," ) );
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                    classFiles.put( className, file );
+                }
+            }
+        }
+    }
+
+    private void addTemplateDirectory( File directory, String pathPrefix )
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                if ( file.isDirectory() )
+                {
+                    addTemplateDirectory( file, pathPrefix + file.getName() + "/" );
+                }
+                else
+                {
+                    templateFiles.put( pathPrefix + file.getName(), file );
+                }
+            }
+        }
+    }
+
+}
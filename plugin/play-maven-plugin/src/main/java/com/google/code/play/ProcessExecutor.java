@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Executes external processes (JVM, JDK tools) with time limit, appending their output to a log file.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ProcessExecutor
+{
+    private File workingDirectory;
+
+    private File logFile;
+
+    private int timeout;
+
+    /**
+     * Creates executor.
+     *
+     * @param workingDirectory working directory of executed processes
+     * @param logFile file the output of executed processes is appended to
+     * @param timeout maximum execution time of every process in seconds
+     */
+    public ProcessExecutor( File workingDirectory, File logFile, int timeout )
+    {
+        this.workingDirectory = workingDirectory;
+        this.logFile = logFile;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Executes process, its standard and error outputs are appended to the log file.
+     *
+     * @param description process description for error messages
+     * @param command command line
+     */
+    public void execute( String description, List<String> command )
+        throws IOException
+    {
+        execute( description, command, null );
+    }
+
+    /**
+     * Executes process and returns its standard output, error output is appended to the log file.
+     *
+     * @param description process description for error messages
+     * @param command command line
+     * @return standard output of the process
+     */
+    public String executeForOutput( String description, List<String> command )
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        execute( description, command, output );
+        return output.toString();
+    }
+
+    private void execute( String description, List<String> command, OutputStream standardOutput )
+        throws IOException
+    {
+        ProcessBuilder processBuilder = new ProcessBuilder( command );
+        processBuilder.directory( workingDirectory );
+        processBuilder.redirectErrorStream( standardOutput == null );
+        Process process = processBuilder.start();
+        OutputStream log = new FileOutputStream( logFile, true );
+        try
+        {
+            process.getOutputStream().close();
+            Thread outputPumper =
+                new Thread( new OutputPumper( process.getInputStream(), standardOutput != null ? standardOutput : log ) );
+            outputPumper.start();
+            Thread errorPumper = null;
+            if ( standardOutput != null )
+            {
+                errorPumper = new Thread( new OutputPumper( process.getErrorStream(), log ) );
+                errorPumper.start();
+            }
+
+            long deadline = System.currentTimeMillis() + timeout * 1000L;
+            Integer exitCode = null;
+            while ( exitCode == null )
+            {
+                try
+                {
+                    exitCode = Integer.valueOf( process.exitValue() );
+                }
+                catch ( IllegalThreadStateException e )
+                {
+                    if ( System.currentTimeMillis() > deadline )
+                    {
+                        process.destroy();
+                        throw new IOException( String.format( "%s did not finish in %d seconds, see \"%s\" file",
+                                                              description, timeout, logFile.getAbsolutePath() ) );
+                    }
+                    sleep();
+                }
+            }
+            join( outputPumper );
+            if ( errorPumper != null )
+            {
+                join( errorPumper );
+            }
+            if ( exitCode.intValue() != 0 )
+            {
+                throw new IOException( String.format( "%s failed with exit code %d, see \"%s\" file", description,
+                                                      exitCode, logFile.getAbsolutePath() ) );
+            }
+        }
+        finally
+        {
+            log.close();
+        }
+    }
+
+    private static void sleep()
+        throws IOException
+    {
+        try
+        {
+            Thread.sleep( 100L );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted" );
+        }
+    }
+
+    private static void join( Thread thread )
+        throws IOException
+    {
+        try
+        {
+            thread.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted" );
+        }
+    }
+
+    private static class OutputPumper
+        implements Runnable
+    {
+        private InputStream input;
+
+        private OutputStream output;
+
+        OutputPumper( InputStream input, OutputStream output )
+        {
+            this.input = input;
+            this.output = output;
+        }
+
+        public void run()
+        {
+            try
+            {
+                IOUtil.copy( input, output );
+            }
+            catch ( IOException e )
+            {
+                // process destroyed or log not writable, nothing to do
+            }
+            finally
+            {
+                IOUtil.close( input );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.Map;
+
+/**
+ * Writes indexed archive entries into zip file with stable content.
+ *
+ * Entries are written in path order, every entry has the same modification time
+ * and parent directory entries are always present, so the same entries
+ * produce the same bytes regardless of source file timestamps and order
+ * of adding them to the index. Entries are written by {@link MultiZipWriter},
+ * Unix file modes are preserved.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ReproducibleZipWriter
+{
+    /**
+     * Entry modification time, 1980-01-01 00:00:00 (the earliest date zip format can represent).
+     */
+    public static final long DEFAULT_ENTRY_TIME =
+        new GregorianCalendar( 1980, Calendar.JANUARY, 1, 0, 0, 0 ).getTimeInMillis();
+
+    private long entryTime = DEFAULT_ENTRY_TIME;
+
+    private boolean normalizeModes;
+
+    public void setEntryTime( long entryTime )
+    {
+        this.entryTime = entryTime;
+    }
+
+    /**
+     * Normalizes Unix file modes, executable files and directories get {@code 0755} mode, other files {@code 0644}.
+     */
+    public void setNormalizeModes( boolean normalizeModes )
+    {
+        this.normalizeModes = normalizeModes;
+    }
+
+    /**
+     * Writes entries into zip file.
+     *
+     * @param entries entries to write
+     * @param destFile zip file
+     * @return SHA-256 digest of written zip file
+     */
+    public String write( Collection<ArchiveEntryIndex.Entry> entries, File destFile )
+        throws IOException
+    {
+        MultiZipWriter zipWriter = new MultiZipWriter( 1 );
+        zipWriter.setEntryTime( entryTime );
+        zipWriter.setNormalizeModes( normalizeModes );
+        Map<File, Collection<ArchiveEntryIndex.Entry>> archives = Collections.singletonMap( destFile, entries );
+        File spoolFile = new File( destFile.getAbsoluteFile().getParentFile(), destFile.getName() + ".spool" );
+        zipWriter.write( archives, spoolFile );
+
+        MessageDigest digest = createDigest();
+        InputStream is = new FileInputStream( destFile );
+        try
+        {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ( ( n = is.read( buffer ) ) != -1 )
+            {
+                digest.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return InputFingerprint.toHex( digest.digest() );
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ); // every Java platform implementation supports SHA-256
+        }
+    }
+
+}
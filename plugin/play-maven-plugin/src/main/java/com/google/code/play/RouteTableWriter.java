@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Builds Play&#33; 1.2 route table ("precompiled/routes.txt").
+ *
+ * Routes files are parsed the same way Play&#33;'s {@code Router} parses them at startup,
+ * "module:" includes are resolved and their path prefixes applied. Invalid route definitions
+ * are reported as errors. The table contains one tab separated line for every routes file used:
+ * "source", source name ("conf/routes" or "module:name"), CRC32 of file content, and one line
+ * for every route in definition order: "route", method, headers, path, action, params,
+ * source name, line number. The table is read at startup by
+ * {@code com.google.code.play.plugins.RouteTablePlugin} from "play12-extensions" library.
+ *
+ * Routes files using template expressions and "module:*" includes cannot be precompiled,
+ * in such cases {@link #getProblems()} is not empty.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class RouteTableWriter
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the route table.
+     */
+    public static final String PLAY_PLUGIN = "50:com.google.code.play.plugins.RouteTablePlugin";
+
+    public static final String APPLICATION_SOURCE = "conf/routes";
+
+    // "Router.routePattern" regular expression, without named groups
+    private static final Pattern ROUTE_PATTERN =
+        Pattern.compile( "^(GET|POST|PUT|DELETE|OPTIONS|HEAD|WS|\\*)[(]?([^)]*)(\\))?"
+            + "\\s+(.*/[^\\s]*)\\s+([^\\s(]+)(.+)?(\\s*)$" );
+
+    private Map<String, String> moduleRoutes = new HashMap<String, String>();
+
+    private Map<String, String> sourceLines = new LinkedHashMap<String, String>();
+
+    private List<String> routeLines = new ArrayList<String>();
+
+    private List<String> problems = new ArrayList<String>();
+
+    /**
+     * Registers routes file of a module, used if application routes include it.
+     */
+    public void addModuleRoutes( String moduleName, String content )
+    {
+        moduleRoutes.put( moduleName, content );
+    }
+
+    /**
+     * Parses application routes file and routes files of included modules.
+     *
+     * @throws IOException if any route definition is invalid
+     */
+    public void parse( String content )
+        throws IOException
+    {
+        parse( APPLICATION_SOURCE, content, "" );
+    }
+
+    /**
+     * Returns reasons why the route table cannot be used.
+     */
+    public List<String> getProblems()
+    {
+        return problems;
+    }
+
+    public int getRouteCount()
+    {
+        return routeLines.size();
+    }
+
+    /**
+     * Returns route table file content.
+     */
+    public String getContent()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "# Play! route table, generated by Maven Play! Plugin\n" );
+        for ( String line : sourceLines.values() )
+        {
+            buf.append( line ).append( '\n' );
+        }
+        for ( String line : routeLines )
+        {
+            buf.append( line ).append( '\n' );
+        }
+        return buf.toString();
+    }
+
+    private void parse( String source, String content, String prefix )
+        throws IOException
+    {
+        // same condition as in "Router.parse(VirtualFile, String)"
+        if ( content.indexOf( "${" ) > -1 || content.indexOf( "#{" ) > -1 || content.indexOf( "%{" ) > -1 )
+        {
+            problems.add( String.format( "%s uses template expressions", source ) );
+            return;
+        }
+        if ( !sourceLines.containsKey( source ) )
+        {
+            sourceLines.put( source, "source\t" + source + "\t" + getCrc( content ) );
+        }
+
+        int lineNumber = 0;
+        for ( String line : content.split( "\n" ) )
+        {
+            lineNumber++;
+            line = line.trim().replaceAll( "\\s+", " " );
+            if ( line.length() == 0 || line.startsWith( "#" ) )
+            {
+                continue;
+            }
+            Matcher matcher = ROUTE_PATTERN.matcher( line );
+            if ( !matcher.matches() )
+            {
+                throw new IOException( String.format( "Invalid route definition in %s at line %d: %s", source,
+                                                      lineNumber, line ) );
+            }
+            String action = matcher.group( 5 );
+            if ( action.startsWith( "module:" ) )
+            {
+                String moduleName = action.substring( "module:".length() );
+                String newPrefix = prefix + matcher.group( 4 );
+                if ( newPrefix.length() > 1 && newPrefix.endsWith( "/" ) )
+                {
+                    newPrefix = newPrefix.substring( 0, newPrefix.length() - 1 );
+                }
+                if ( "*".equals( moduleName ) )
+                {
+                    problems.add( String.format( "%s at line %d includes routes of all modules", source,
+                                                 lineNumber ) );
+                }
+                else if ( !moduleRoutes.containsKey( moduleName ) )
+                {
+                    problems.add( String.format( "%s at line %d includes routes of module %s, not found", source,
+                                                 lineNumber, moduleName ) );
+                }
+                else
+                {
+                    parse( "module:" + moduleName, moduleRoutes.get( moduleName ), newPrefix );
+                }
+            }
+            else
+            {
+                routeLines.add( "route\t" + matcher.group( 1 ) + "\t" + nullToEmpty( matcher.group( 2 ) ) + "\t"
+                    + prefix + matcher.group( 4 ) + "\t" + action + "\t" + nullToEmpty( matcher.group( 6 ) ) + "\t"
+                    + source + "\t" + lineNumber );
+            }
+        }
+    }
+
+    /**
+     * Returns CRC32 of routes file content, in the form stored in the table.
+     */
+    public static String getCrc( String content )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update( content.getBytes( "UTF-8" ) );
+        return Long.toHexString( crc.getValue() );
+    }
+
+    private static String nullToEmpty( String value )
+    {
+        return value != null ? value : "";
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes versioned bundle of libraries shared by Play&#33; web applications (skinny WAR mode).
+ *
+ * Bundle version is computed from library file names and SHA-256 digests, so different library sets
+ * never share a version. Bundle zip file ("&lt;version&gt;.zip") contains "&lt;version&gt;" directory
+ * with the libraries and "&lt;version&gt;.jar" marker library containing bundle manifest
+ * ("{@value #MANIFEST_NAME}" resource). The same manifest is added to the WAR file, "play12-extensions"
+ * library's shared libraries plugin compares them at application startup.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class SharedLibsWriter
+{
+    /**
+     * "play.plugins" entry of "play12-extensions" library's plugin reading the shared libraries manifest.
+     */
+    public static final String PLAY_PLUGIN = "1:com.google.code.play.plugins.SharedLibsPlugin";
+
+    public static final String MANIFEST_NAME = "META-INF/play-shared-libs.txt";
+
+    private String baseName;
+
+    // file name -> SHA-256
+    private SortedMap<String, String> libDigests = new TreeMap<String, String>();
+
+    private SortedMap<String, File> libFiles = new TreeMap<String, File>();
+
+    private String version;
+
+    /**
+     * @param baseName bundle name prefix, for example "play-shared-libs-1.2.5"
+     */
+    public SharedLibsWriter( String baseName )
+    {
+        this.baseName = baseName;
+    }
+
+    public void addLib( File jarFile )
+        throws IOException
+    {
+        libDigests.put( jarFile.getName(), sha256( jarFile ) );
+        libFiles.put( jarFile.getName(), jarFile );
+        version = null;
+    }
+
+    public String getVersion()
+    {
+        if ( version == null )
+        {
+            MessageDigest digest = createDigest();
+            try
+            {
+                for ( Map.Entry<String, String> lib : libDigests.entrySet() )
+                {
+                    digest.update( ( lib.getKey() + "\t" + lib.getValue() + "\n" ).getBytes( "UTF-8" ) );
+                }
+            }
+            catch ( UnsupportedEncodingException e )
+            {
+                throw new IllegalStateException( e ); // every Java platform implementation supports UTF-8
+            }
+            version = baseName + "-" + InputFingerprint.toHex( digest.digest() ).substring( 0, 10 );
+        }
+        return version;
+    }
+
+    public String getManifest()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append( "# Play! shared libraries bundle, generated by Maven Play! Plugin\n" );
+        result.append( "version\t" ).append( getVersion() ).append( '\n' );
+        for ( Map.Entry<String, String> lib : libDigests.entrySet() )
+        {
+            result.append( "lib\t" ).append( lib.getKey() ).append( '\t' ).append( lib.getValue() ).append( '\n' );
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes bundle zip file, if not written before.
+     *
+     * @param outputDirectory output directory
+     * @return bundle zip file
+     */
+    public File write( File outputDirectory )
+        throws IOException
+    {
+        String bundleVersion = getVersion();
+        File bundleFile = new File( outputDirectory, bundleVersion + ".zip" );
+        if ( bundleFile.isFile() )
+        {
+            return bundleFile; // version is content based
+        }
+        if ( !outputDirectory.isDirectory() && !outputDirectory.mkdirs() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory",
+                                                  outputDirectory.getAbsolutePath() ) );
+        }
+
+        File tmpFile = new File( outputDirectory, bundleVersion + ".zip.tmp" );
+        ZipOutputStream zos = new ZipOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+        try
+        {
+            putEntry( zos, bundleVersion + "/" );
+            zos.closeEntry();
+            for ( Map.Entry<String, File> lib : libFiles.entrySet() )
+            {
+                putEntry( zos, bundleVersion + "/" + lib.getKey() );
+                InputStream is = new FileInputStream( lib.getValue() );
+                try
+                {
+                    IOUtil.copy( is, zos );
+                }
+                finally
+                {
+                    is.close();
+                }
+                zos.closeEntry();
+            }
+            putEntry( zos, bundleVersion + "/" + bundleVersion + ".jar" );
+            writeMarkerJar( zos );
+            zos.closeEntry();
+        }
+        finally
+        {
+            zos.close();
+        }
+        if ( !tmpFile.renameTo( bundleFile ) )
+        {
+            throw new IOException( String.format( "Cannot rename \"%s\" file to \"%s\"", tmpFile.getAbsolutePath(),
+                                                  bundleFile.getName() ) );
+        }
+        return bundleFile;
+    }
+
+    private void writeMarkerJar( OutputStream os )
+        throws IOException
+    {
+        ZipOutputStream jos = new ZipOutputStream( os );
+        putEntry( jos, "META-INF/" );
+        jos.closeEntry();
+        putEntry( jos, MANIFEST_NAME );
+        jos.write( getManifest().getBytes( "UTF-8" ) );
+        jos.closeEntry();
+        jos.finish(); // not close(), outer stream remains open
+    }
+
+    private static void putEntry( ZipOutputStream zos, String name )
+        throws IOException
+    {
+        ZipEntry entry = new ZipEntry( name );
+        entry.setTime( ReproducibleZipWriter.DEFAULT_ENTRY_TIME );
+        zos.putNextEntry( entry );
+    }
+
+    private static String sha256( File file )
+        throws IOException
+    {
+        MessageDigest digest = createDigest();
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = is.read( buffer ) ) > 0 )
+            {
+                digest.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return InputFingerprint.toHex( digest.digest() );
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e ); // every Java platform implementation supports SHA-256
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import org.codehaus.plexus.archiver.commonscompress.archivers.tar.TarArchiveEntry;
+import org.codehaus.plexus.archiver.commonscompress.archivers.tar.TarArchiveOutputStream;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes indexed archive entries into tar.gz file.
+ *
+ * Entries are written in path order. Gzip compression is executed in parallel
+ * (see {@link ParallelGzipOutputStream}), the result can be extracted in
+ * a streaming way ({@code curl ... | tar xz}). Unix file modes are taken from source
+ * archives, other files get {@code 0644} mode, directories {@code 0755}.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class TarGzWriter
+{
+    private static final int DEFAULT_FILE_MODE = 0644;
+
+    private static final int DEFAULT_DIR_MODE = 0755;
+
+    private int threads;
+
+    private long entryTime = -1L;
+
+    private boolean normalizeModes;
+
+    /**
+     * Creates writer.
+     *
+     * @param threads number of compressing threads, available processors count if not positive
+     */
+    public TarGzWriter( int threads )
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets modification time of all entries. By default source file modification times are used.
+     */
+    public void setEntryTime( long entryTime )
+    {
+        this.entryTime = entryTime;
+    }
+
+    /**
+     * Normalizes Unix file modes and owners, executable files and directories get {@code 0755} mode, other files
+     * {@code 0644}, owner is root instead of current user.
+     */
+    public void setNormalizeModes( boolean normalizeModes )
+    {
+        this.normalizeModes = normalizeModes;
+    }
+
+    public void write( Collection<ArchiveEntryIndex.Entry> entries, File destFile )
+        throws IOException
+    {
+        Map<String, ArchiveEntryIndex.Entry> sortedEntries = ArchiveEntryIndex.sortWithParentDirectories( entries );
+        long now = System.currentTimeMillis();
+
+        File parentDir = destFile.getAbsoluteFile().getParentFile();
+        if ( !parentDir.isDirectory() && !parentDir.mkdirs() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory", parentDir.getAbsolutePath() ) );
+        }
+
+        ArchiveEntryReader entryReader = new ArchiveEntryReader();
+        try
+        {
+            ParallelGzipOutputStream gzos =
+                new ParallelGzipOutputStream( new BufferedOutputStream( new FileOutputStream( destFile ) ), threads,
+                                              ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE );
+            TarArchiveOutputStream tos = new TarArchiveOutputStream( gzos, "UTF-8" );
+            try
+            {
+                tos.setLongFileMode( TarArchiveOutputStream.LONGFILE_POSIX );
+                tos.setBigNumberMode( TarArchiveOutputStream.BIGNUMBER_POSIX );
+                for ( Map.Entry<String, ArchiveEntryIndex.Entry> sortedEntry : sortedEntries.entrySet() )
+                {
+                    String name = sortedEntry.getKey();
+                    ArchiveEntryIndex.Entry entry = sortedEntry.getValue();
+                    boolean directory = name.endsWith( "/" );
+
+                    TarArchiveEntry tarEntry = new TarArchiveEntry( name );
+                    int mode = entry != null ? entry.getMode() & 07777 : 0;
+                    if ( mode == 0 )
+                    {
+                        mode = directory ? DEFAULT_DIR_MODE : DEFAULT_FILE_MODE;
+                    }
+                    else if ( normalizeModes )
+                    {
+                        mode = directory || ( mode & 0111 ) != 0 ? DEFAULT_DIR_MODE : DEFAULT_FILE_MODE;
+                    }
+                    tarEntry.setMode( ( directory ? 040000 : 0100000 ) | mode );
+                    if ( entryTime >= 0L )
+                    {
+                        tarEntry.setModTime( entryTime );
+                    }
+                    else
+                    {
+                        long lastModified = entry != null ? entry.getLastModified() : 0L;
+                        tarEntry.setModTime( lastModified > 0L ? lastModified : now );
+                    }
+                    if ( normalizeModes )
+                    {
+                        tarEntry.setUserName( "root" );
+                        tarEntry.setGroupName( "root" );
+                    }
+                    if ( directory )
+                    {
+                        tos.putArchiveEntry( tarEntry );
+                    }
+                    else
+                    {
+                        writeFile( tos, tarEntry, entry, entryReader );
+                    }
+                    tos.closeArchiveEntry();
+                }
+            }
+            finally
+            {
+                tos.close();
+            }
+        }
+        finally
+        {
+            entryReader.close();
+        }
+    }
+
+    private void writeFile( TarArchiveOutputStream tos, TarArchiveEntry tarEntry, ArchiveEntryIndex.Entry entry,
+                            ArchiveEntryReader entryReader )
+        throws IOException
+    {
+        InputStream is = entryReader.open( entry );
+        try
+        {
+            long size = entry.isArchiveEntry() ? entry.getSize() : entry.getFile().length();
+            if ( size < 0L )
+            {
+                // size unknown, tar entry header must contain it
+                byte[] contents = IOUtil.toByteArray( is );
+                tarEntry.setSize( contents.length );
+                tos.putArchiveEntry( tarEntry );
+                tos.write( contents );
+            }
+            else
+            {
+                tarEntry.setSize( size );
+                tos.putArchiveEntry( tarEntry );
+                IOUtil.copy( is, tos );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Applies distribution patch generated by Maven Play&#33; Plugin "dist" mojo
+ * ("distPatchBaseline" parameter) to extracted distribution directory.
+ *
+ * Usage: {@code DistPatcher <patch file> [<distribution directory>]}
+ *
+ * Files to change and delete are verified against patch index CRC-32 values first, nothing
+ * is changed if the distribution does not match patch baseline. Files already matching
+ * the new version are accepted, so interrupted patching can be repeated.
+ * Changed files are written to temporary files and renamed.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class DistPatcher
+{
+    private static final String PATCH_INDEX_NAME = ".play-patch/index.txt";
+
+    public static void main( String[] args )
+    {
+        if ( args.length < 1 || args.length > 2 )
+        {
+            System.err.println( "Usage: DistPatcher <patch file> [<distribution directory>]" );
+            System.exit( 2 );
+        }
+        File patchFile = new File( args[0] );
+        File distDirectory = new File( args.length > 1 ? args[1] : "." );
+        try
+        {
+            long start = System.currentTimeMillis();
+            int count = apply( patchFile, distDirectory );
+            System.out.println( String.format( "%d entries patched in %d ms", count,
+                                               System.currentTimeMillis() - start ) );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Patch not applied: " + e.getMessage() );
+            System.exit( 1 );
+        }
+    }
+
+    /**
+     * Applies patch.
+     *
+     * @param patchFile patch file
+     * @param distDirectory distribution directory
+     * @return number of patched (added, changed and deleted) entries
+     */
+    public static int apply( File patchFile, File distDirectory )
+        throws IOException
+    {
+        ZipFile patchZip = new ZipFile( patchFile );
+        try
+        {
+            ZipEntry indexEntry = patchZip.getEntry( PATCH_INDEX_NAME );
+            if ( indexEntry == null )
+            {
+                throw new IOException( String.format( "\"%s\" is not a distribution patch file", patchFile ) );
+            }
+            List<String[]> operations = readIndex( patchZip.getInputStream( indexEntry ) );
+
+            // verify everything before changing anything
+            List<String> mismatches = new ArrayList<String>();
+            for ( String[] operation : operations )
+            {
+                File file = new File( distDirectory, operation[1] );
+                String baselineCrc = operation[2];
+                if ( !"-".equals( baselineCrc ) && file.isFile() )
+                {
+                    String crc = crc( file );
+                    if ( !crc.equals( baselineCrc ) && !crc.equals( operation[3] ) )
+                    {
+                        mismatches.add( operation[1] );
+                    }
+                }
+                else if ( "M".equals( operation[0] ) && !file.isFile() )
+                {
+                    mismatches.add( operation[1] + " (missing)" );
+                }
+            }
+            if ( !mismatches.isEmpty() )
+            {
+                throw new IOException( String.format( "distribution in \"%s\" does not match patch baseline: %s",
+                                                      distDirectory, mismatches ) );
+            }
+
+            for ( String[] operation : operations )
+            {
+                String name = operation[1];
+                File file = new File( distDirectory, name );
+                if ( "D".equals( operation[0] ) )
+                {
+                    // directories are deleted only if empty, they may contain runtime files
+                    if ( file.exists() && !file.delete() && !file.isDirectory() )
+                    {
+                        throw new IOException( String.format( "Cannot delete \"%s\" file", file ) );
+                    }
+                }
+                else if ( name.endsWith( "/" ) )
+                {
+                    mkdirs( file );
+                }
+                else
+                {
+                    ZipEntry entry = patchZip.getEntry( name );
+                    if ( entry == null )
+                    {
+                        throw new IOException( String.format( "\"%s\" entry not found in patch file", name ) );
+                    }
+                    boolean executable = ( Integer.parseInt( operation[4], 8 ) & 0100 ) != 0;
+                    extract( patchZip.getInputStream( entry ), file, executable );
+                }
+            }
+            return operations.size();
+        }
+        finally
+        {
+            patchZip.close();
+        }
+    }
+
+    private static List<String[]> readIndex( InputStream is )
+        throws IOException
+    {
+        List<String[]> result = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( is, "UTF-8" ) );
+        try
+        {
+            String line = reader.readLine();
+            while ( line != null )
+            {
+                if ( line.length() > 0 && !line.startsWith( "#" ) )
+                {
+                    String[] columns = line.split( "\t" );
+                    if ( columns.length != 5 || ( !"A".equals( columns[0] ) && !"M".equals( columns[0] )
+                        && !"D".equals( columns[0] ) ) || columns[1].startsWith( "/" )
+                        || ( "/" + columns[1] + "/" ).indexOf( "/../" ) >= 0 )
+                    {
+                        throw new IOException( String.format( "Invalid patch index line \"%s\"", line ) );
+                    }
+                    result.add( columns );
+                }
+                line = reader.readLine();
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return result;
+    }
+
+    private static void extract( InputStream is, File file, boolean executable )
+        throws IOException
+    {
+        mkdirs( file.getParentFile() );
+        File tmpFile = new File( file.getPath() + ".patch-tmp" );
+        try
+        {
+            OutputStream os = new FileOutputStream( tmpFile );
+            try
+            {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ( ( n = is.read( buffer ) ) > 0 )
+                {
+                    os.write( buffer, 0, n );
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        if ( executable )
+        {
+            setExecutable( tmpFile );
+        }
+        if ( !tmpFile.renameTo( file ) && ( !file.delete() || !tmpFile.renameTo( file ) ) )
+        {
+            throw new IOException( String.format( "Cannot replace \"%s\" file", file ) );
+        }
+    }
+
+    private static void mkdirs( File directory )
+        throws IOException
+    {
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+        {
+            throw new IOException( String.format( "Cannot create \"%s\" directory", directory ) );
+        }
+    }
+
+    // File.setExecutable is not available in Java 5
+    private static void setExecutable( File file )
+    {
+        try
+        {
+            File.class.getMethod( "setExecutable", boolean.class, boolean.class ).invoke( file, Boolean.TRUE,
+                                                                                          Boolean.FALSE );
+        }
+        catch ( Exception e )
+        {
+            // ignore, Unix file mode cannot be set
+        }
+    }
+
+    private static String crc( File file )
+        throws IOException
+    {
+        CRC32 crc = new CRC32();
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = is.read( buffer ) ) > 0 )
+            {
+                crc.update( buffer, 0, n );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        return Long.toHexString( crc.getValue() );
+    }
+
+}
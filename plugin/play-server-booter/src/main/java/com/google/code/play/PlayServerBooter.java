@@ -17,9 +17,13 @@
 package com.google.code.play;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
 
 import play.Play;
 import play.server.Server;
@@ -27,9 +31,14 @@ import play.server.Server;
 public class PlayServerBooter
 {
 
+    // records startup phases timestamps and writes startup timing report, from "play12-extensions" library
+    // (optional, not available in Play! 1.1 applications)
+    private static final String TIMING_PLUGIN_CLASS_NAME = "com.google.code.play.plugins.StartupTimingPlugin";
+
     public static void main( String[] args )
         throws Exception
     {
+        mark( "classpathReady" );
         String outFile = System.getProperty( "outFile" );
         if ( outFile != null )
         {
@@ -63,8 +72,176 @@ public class PlayServerBooter
             System.getProperties().remove( "pidFile" );
         }
 
+        String trainingFileName = System.getProperty( "trainingFile" );
+        System.getProperties().remove( "trainingFile" );
+
+        // readiness status for "start" and "start-server" mojos, written when http port is bound
+        final String statusFileName = System.getProperty( "statusFile" );
+        System.getProperties().remove( "statusFile" );
+        final boolean[] statusWritten = new boolean[1];
+        if ( statusFileName != null )
+        {
+            // Play! calls System.exit() if the server cannot start
+            Runtime.getRuntime().addShutdownHook( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    synchronized ( statusWritten )
+                    {
+                        if ( !statusWritten[0] )
+                        {
+                            writeAtomically( statusFileName, "failed\tJVM exited during startup" );
+                        }
+                    }
+                }
+            } );
+        }
+
+        String timingFileName = System.getProperty( "timingFile" );
+        System.getProperties().remove( "timingFile" );
+        if ( timingFileName != null )
+        {
+            invokeTimingPlugin( "register" ); // framework phases
+        }
+
         Play.frameworkPath = new File( System.getProperty( "play.home" ) );
-        Server.main( args );
+        mark( "playInit" );
+        try
+        {
+            Server.main( args );
+        }
+        catch ( Exception e )
+        {
+            if ( statusFileName != null )
+            {
+                synchronized ( statusWritten )
+                {
+                    writeAtomically( statusFileName, "failed\t" + e );
+                    statusWritten[0] = true;
+                }
+            }
+            throw e;
+        }
+        mark( "serverStarted" );
+        if ( timingFileName != null )
+        {
+            writeTiming( timingFileName );
+        }
+        if ( statusFileName != null )
+        {
+            synchronized ( statusWritten )
+            {
+                writeAtomically( statusFileName, "started" );
+                statusWritten[0] = true;
+            }
+        }
+
+        if ( trainingFileName != null )
+        {
+            // training run (for example recording loaded classes), stop after startup
+            warmUp( args );
+            PrintWriter fw = new PrintWriter( new File( trainingFileName ), "UTF-8" );
+            try
+            {
+                fw.write( System.getProperty( "java.vm.version" ) );
+            }
+            finally
+            {
+                fw.close();
+            }
+            Play.stop();
+            System.exit( 0 );
+        }
+    }
+
+    private static void mark( String phase )
+    {
+        invokeTimingPlugin( "mark", phase );
+    }
+
+    private static void writeTiming( String timingFileName )
+    {
+        Object json = invokeTimingPlugin( "toJson" );
+        if ( json != null )
+        {
+            writeAtomically( timingFileName, json.toString() );
+        }
+        else
+        {
+            System.err.println( "Cannot write " + timingFileName + " file: \"play12-extensions\" library not found" );
+        }
+    }
+
+    // returns null if the plugin is not available
+    private static Object invokeTimingPlugin( String methodName, String... args )
+    {
+        try
+        {
+            Class<?>[] parameterTypes = new Class<?>[args.length];
+            Arrays.fill( parameterTypes, String.class );
+            return Class.forName( TIMING_PLUGIN_CLASS_NAME ).getMethod( methodName, parameterTypes )
+                .invoke( null, (Object[]) args );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+    // written to temporary file and renamed, readers never see partial content
+    private static void writeAtomically( String fileName, String content )
+    {
+        File file = new File( fileName );
+        File tmpFile = new File( fileName + ".tmp" );
+        try
+        {
+            PrintWriter fw = new PrintWriter( tmpFile, "UTF-8" );
+            try
+            {
+                fw.write( content.endsWith( "\n" ) ? content : content + "\n" );
+            }
+            finally
+            {
+                fw.close();
+            }
+            if ( !tmpFile.renameTo( file ) )
+            {
+                file.delete();
+                tmpFile.renameTo( file );
+            }
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "Cannot write " + fileName + " file: " + e );
+        }
+    }
+
+    private static void warmUp( String[] args )
+    {
+        String httpPort = Play.configuration.getProperty( "http.port", "9000" );
+        for ( String arg : args )
+        {
+            if ( arg.startsWith( "--http.port=" ) )
+            {
+                httpPort = arg.substring( "--http.port=".length() );
+            }
+        }
+        try
+        {
+            HttpURLConnection connection =
+                (HttpURLConnection) new URL( "http://localhost:" + httpPort + "/" ).openConnection();
+            connection.getResponseCode(); // any response is fine, request processing classes are loaded
+            connection.disconnect();
+        }
+        catch ( IOException e )
+        {
+            // ignore, server may not listen on http port
+        }
     }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.libs.MimeTypes;
+import play.mvc.Http;
+import play.mvc.Router;
+import play.vfs.VirtualFile;
+
+/**
+ * Uses asset manifest ("conf/asset-manifest.txt" file generated by Maven Play&#33; Plugin packaging mojos).
+ *
+ * {@link #url(String)} resolves public asset URL to its content-hashed (fingerprinted) version, for example
+ * {@code ${com.google.code.play.plugins.AssetPlugin.url('stylesheets/main.css')}} in templates.
+ * Fingerprinted assets are served with long-lived caching headers. Assets having gzip compressed
+ * sibling are served compressed to clients accepting it, with the same validators ("ETag", "Last-Modified")
+ * and "http.cacheControl" configuration as Play&#33; static files.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class AssetPlugin
+    extends PlayPlugin
+{
+    public static final String MANIFEST_FILE_NAME = "conf/asset-manifest.txt";
+
+    private static final String FINGERPRINTED_CACHE_CONTROL = "public, max-age=31536000";
+
+    // asset path -> fingerprinted asset path (relative to public directory)
+    private static volatile Map<String, String> fingerprintedPaths = Collections.emptyMap();
+
+    // VirtualFile.relativePath() -> asset
+    private static volatile Map<String, Asset> assets = Collections.emptyMap();
+
+    /**
+     * Returns URL of public asset, fingerprinted if possible.
+     *
+     * @param path asset path, relative to public directory, for example "stylesheets/main.css"
+     */
+    public static String url( String path )
+    {
+        String assetPath = path.startsWith( "/" ) ? path.substring( 1 ) : path;
+        String fingerprintedPath = fingerprintedPaths.get( assetPath );
+        VirtualFile file =
+            Play.getVirtualFile( "public/" + ( fingerprintedPath != null ? fingerprintedPath : assetPath ) );
+        return file != null ? Router.reverse( file ) : "/public/" + assetPath;
+    }
+
+    @Override
+    public void onApplicationStart()
+    {
+        Map<String, String> newFingerprintedPaths = new HashMap<String, String>();
+        Map<String, Asset> newAssets = new HashMap<String, Asset>();
+        VirtualFile manifestFile = Play.getVirtualFile( MANIFEST_FILE_NAME );
+        if ( manifestFile != null && manifestFile.exists() )
+        {
+            for ( String line : manifestFile.contentAsString().split( "\n" ) )
+            {
+                if ( line.length() == 0 || line.startsWith( "#" ) )
+                {
+                    continue;
+                }
+                String[] columns = line.split( "\t" );
+                VirtualFile file = Play.getVirtualFile( "public/" + columns[0] );
+                VirtualFile fingerprintedFile = Play.getVirtualFile( "public/" + columns[1] );
+                if ( file == null || fingerprintedFile == null )
+                {
+                    continue;
+                }
+                VirtualFile gzipFile =
+                    "gzip".equals( columns[2] ) ? Play.getVirtualFile( "public/" + columns[0] + ".gz" ) : null;
+                newFingerprintedPaths.put( columns[0], columns[1] );
+                newAssets.put( file.relativePath(), new Asset( gzipFile, false ) );
+                newAssets.put( fingerprintedFile.relativePath(), new Asset( gzipFile, true ) );
+            }
+            Logger.info( "%d assets registered from asset manifest", newFingerprintedPaths.size() );
+        }
+        fingerprintedPaths = newFingerprintedPaths;
+        assets = newAssets;
+    }
+
+    @Override
+    public boolean serveStatic( VirtualFile file, Http.Request request, Http.Response response )
+    {
+        Asset asset = assets.get( file.relativePath() );
+        if ( asset == null )
+        {
+            return false;
+        }
+        Http.Header acceptEncoding = request.headers.get( "accept-encoding" );
+        boolean gzip = asset.gzipFile != null && acceptEncoding != null && acceptEncoding.value().contains( "gzip" );
+        if ( !gzip && !asset.fingerprinted )
+        {
+            return false; // served by Play!
+        }
+
+        VirtualFile servedFile = gzip ? asset.gzipFile : file;
+        long lastModified = servedFile.lastModified().longValue();
+        // compressed and uncompressed content are different representations
+        String etag = "\"" + lastModified + ( gzip ? "-gzip" : "" ) + "\"";
+        try
+        {
+            response.contentType = MimeTypes.getContentType( file.getName() );
+            response.cacheFor( etag, Play.configuration.getProperty( "http.cacheControl", "3600" ) + "s",
+                               lastModified );
+            if ( asset.fingerprinted )
+            {
+                response.setHeader( "Cache-Control", FINGERPRINTED_CACHE_CONTROL );
+            }
+            if ( asset.gzipFile != null )
+            {
+                response.setHeader( "Vary", "Accept-Encoding" );
+            }
+            if ( !request.isModified( etag, lastModified ) )
+            {
+                response.status = Integer.valueOf( Http.StatusCode.NOT_MODIFIED );
+                return true;
+            }
+            response.status = Integer.valueOf( Http.StatusCode.OK );
+            if ( gzip )
+            {
+                response.setHeader( "Content-Encoding", "gzip" );
+            }
+            response.out.write( servedFile.content() );
+            return true;
+        }
+        catch ( IOException e )
+        {
+            Logger.error( e, "Cannot serve %s", file.relativePath() );
+            response.out.reset();
+            return false;
+        }
+    }
+
+    private static class Asset
+    {
+        private VirtualFile gzipFile;
+
+        private boolean fingerprinted;
+
+        Asset( VirtualFile gzipFile, boolean fingerprinted )
+        {
+            this.gzipFile = gzipFile;
+            this.fingerprinted = fingerprinted;
+        }
+    }
+
+}
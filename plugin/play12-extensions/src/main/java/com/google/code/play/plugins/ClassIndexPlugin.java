@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.ApplicationClassloader;
+import play.vfs.VirtualFile;
+
+/**
+ * Registers precompiled application classes listed in class index ("precompiled/class-index.txt"
+ * file generated by Maven Play&#33; Plugin packaging mojos), so Play&#33; does not have to scan
+ * "precompiled/java" directory at startup.
+ *
+ * The index is applied when the plugin is loaded in {@code Play.init()}, after application class loader
+ * is created and before {@code Play.preCompile()} requests all application classes for the first time.
+ * If application class loader is recreated later (in DEV mode {@code Play.start()} does it), the index
+ * is applied again when configuration is read. If the index cannot be used, Play&#33; scans precompiled
+ * classes as usual.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class ClassIndexPlugin
+    extends PlayPlugin
+{
+    public static final String INDEX_FILE_NAME = "precompiled/class-index.txt";
+
+    // class loader the index was applied (or failed to apply) to
+    private ApplicationClassloader indexedClassloader;
+
+    @Override
+    public void onLoad()
+    {
+        registerClasses();
+    }
+
+    @Override
+    public void onConfigurationRead()
+    {
+        if ( Play.classloader != indexedClassloader )
+        {
+            registerClasses();
+        }
+    }
+
+    private void registerClasses()
+    {
+        if ( !Play.usePrecompiled || Play.classloader == null )
+        {
+            return;
+        }
+        VirtualFile archiveFile = Play.getVirtualFile( PrecompiledArchivePlugin.ARCHIVE_FILE_NAME );
+        if ( archiveFile != null && archiveFile.exists() )
+        {
+            return; // classes registered by precompiled archive plugin
+        }
+        VirtualFile indexFile = Play.getVirtualFile( INDEX_FILE_NAME );
+        if ( indexFile == null || !indexFile.exists() )
+        {
+            return;
+        }
+
+        indexedClassloader = Play.classloader;
+        try
+        {
+            // classes are sorted by name, like in "ApplicationClassloader.getAllClasses()"
+            List<Class<?>> allClasses = new ArrayList<Class<?>>();
+            Field compiledField = ApplicationClass.class.getDeclaredField( "compiled" );
+            compiledField.setAccessible( true );
+            Play.classes.clear();
+            for ( String line : indexFile.contentAsString().split( "\n" ) )
+            {
+                if ( line.startsWith( "class\t" ) )
+                {
+                    String className = line.split( "\t" )[1];
+                    ApplicationClass applicationClass = new ApplicationClass( className );
+                    Play.classes.add( applicationClass );
+                    Class<?> javaClass = Play.classloader.loadApplicationClass( className );
+                    if ( javaClass == null )
+                    {
+                        throw new IllegalStateException( String.format( "Indexed class %s not found", className ) );
+                    }
+                    applicationClass.javaClass = javaClass;
+                    compiledField.setBoolean( applicationClass, true );
+                    allClasses.add( javaClass );
+                }
+            }
+            setAllClasses( allClasses );
+            Logger.info( "%d application classes registered from class index", allClasses.size() );
+        }
+        catch ( Exception e )
+        {
+            Logger.warn( e, "Class index not used" );
+            Play.classes.clear();
+            try
+            {
+                setAllClasses( null ); // scan on first use
+            }
+            catch ( Exception e2 )
+            {
+                Logger.error( e2, "Cannot reset application classes" );
+            }
+        }
+    }
+
+    private void setAllClasses( List<Class<?>> allClasses )
+        throws NoSuchFieldException, IllegalAccessException
+    {
+        Field allClassesField = ApplicationClassloader.class.getDeclaredField( "allClasses" );
+        allClassesField.setAccessible( true );
+        allClassesField.set( Play.classloader, allClasses );
+    }
+
+}
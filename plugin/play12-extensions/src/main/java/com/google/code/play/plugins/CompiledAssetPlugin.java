@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.libs.MimeTypes;
+import play.mvc.Http;
+import play.vfs.VirtualFile;
+
+/**
+ * Uses compiled assets manifest ("conf/compiled-assets.txt" file generated by Maven Play&#33; Plugin
+ * "compile-assets" mojo).
+ *
+ * In production mode requests for LESS, Sass and CoffeeScript public assets are served with their
+ * build-time compiled CSS and JavaScript versions, before "less", "sass" and "coffee" modules
+ * compile them at runtime.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class CompiledAssetPlugin
+    extends PlayPlugin
+{
+    public static final String MANIFEST_FILE_NAME = "conf/compiled-assets.txt";
+
+    // VirtualFile.relativePath() of source asset -> compiled asset
+    private static volatile Map<String, VirtualFile> compiledFiles = Collections.emptyMap();
+
+    @Override
+    public void onApplicationStart()
+    {
+        Map<String, VirtualFile> newCompiledFiles = new HashMap<String, VirtualFile>();
+        VirtualFile manifestFile = Play.getVirtualFile( MANIFEST_FILE_NAME );
+        if ( Play.mode.isProd() && manifestFile != null && manifestFile.exists() )
+        {
+            for ( String line : manifestFile.contentAsString().split( "\n" ) )
+            {
+                if ( line.length() == 0 || line.startsWith( "#" ) )
+                {
+                    continue;
+                }
+                String[] columns = line.split( "\t" );
+                VirtualFile file = Play.getVirtualFile( "public/" + columns[0] );
+                VirtualFile compiledFile = Play.getVirtualFile( "public/" + columns[1] );
+                if ( file != null && compiledFile != null && compiledFile.exists() )
+                {
+                    newCompiledFiles.put( file.relativePath(), compiledFile );
+                }
+            }
+            Logger.info( "%d compiled assets registered from compiled assets manifest", newCompiledFiles.size() );
+        }
+        compiledFiles = newCompiledFiles;
+    }
+
+    @Override
+    public boolean serveStatic( VirtualFile file, Http.Request request, Http.Response response )
+    {
+        VirtualFile compiledFile = compiledFiles.get( file.relativePath() );
+        if ( compiledFile == null )
+        {
+            return false;
+        }
+
+        long lastModified = compiledFile.lastModified().longValue();
+        String etag = "\"" + lastModified + "\"";
+        response.contentType = MimeTypes.getContentType( compiledFile.getName() );
+        response.cacheFor( etag, Play.configuration.getProperty( "http.cacheControl", "3600" ) + "s", lastModified );
+        if ( !request.isModified( etag, lastModified ) )
+        {
+            response.status = Integer.valueOf( Http.StatusCode.NOT_MODIFIED );
+        }
+        else
+        {
+            response.status = Integer.valueOf( Http.StatusCode.OK );
+            byte[] content = compiledFile.content();
+            response.out.write( content, 0, content.length );
+        }
+        return true;
+    }
+
+}
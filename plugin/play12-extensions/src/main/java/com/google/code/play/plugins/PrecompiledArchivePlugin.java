@@ -0,0 +1,232 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.ApplicationClassloader;
+import play.exceptions.UnexpectedException;
+import play.libs.IO;
+import play.templates.GroovyTemplate;
+import play.templates.Template;
+import play.vfs.VirtualFile;
+
+/**
+ * Loads precompiled application classes and templates from precompiled archive
+ * ("precompiled/precompiled.jar" file generated by Maven Play&#33; Plugin packaging mojos)
+ * instead of "precompiled/java" and "precompiled/templates" directories.
+ *
+ * All classes are defined when the plugin is loaded, before {@code Play.preCompile()} requests application
+ * classes (archive stores them in superclass-first order), and registered as application classes, like
+ * {@link ClassIndexPlugin} does. If application class loader is recreated later (in DEV mode
+ * {@code Play.start()} does it), classes are defined again when configuration is read.
+ * Templates are loaded on first use. There are no loose precompiled files to fall back to, so errors
+ * stop application startup.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class PrecompiledArchivePlugin
+    extends PlayPlugin
+{
+    public static final String ARCHIVE_FILE_NAME = "precompiled/precompiled.jar";
+
+    private ZipFile archive;
+
+    private Map<String, Template> templates = new ConcurrentHashMap<String, Template>();
+
+    // class loader the classes were defined in
+    private ApplicationClassloader definingClassloader;
+
+    @Override
+    public void onLoad()
+    {
+        loadArchive();
+    }
+
+    @Override
+    public void onConfigurationRead()
+    {
+        if ( Play.classloader != definingClassloader )
+        {
+            loadArchive();
+        }
+    }
+
+    private void loadArchive()
+    {
+        closeArchive();
+        if ( !Play.usePrecompiled )
+        {
+            return;
+        }
+        VirtualFile archiveFile = Play.getVirtualFile( ARCHIVE_FILE_NAME );
+        if ( archiveFile == null || !archiveFile.exists() )
+        {
+            return;
+        }
+
+        definingClassloader = Play.classloader;
+        try
+        {
+            archive = new ZipFile( archiveFile.getRealFile() );
+            defineClasses();
+        }
+        catch ( Exception e )
+        {
+            throw new UnexpectedException( "Cannot load precompiled archive", e );
+        }
+    }
+
+    @Override
+    public Template loadTemplate( VirtualFile file )
+    {
+        if ( archive == null )
+        {
+            return null;
+        }
+        // same name as in "TemplateLoader.load(VirtualFile)"
+        String name =
+            file.relativePath().replaceAll( "\\{(.*)\\}", "from_$1" ).replace( ":", "_" ).replace( "..", "parent" );
+        Template template = templates.get( name );
+        if ( template == null )
+        {
+            ZipEntry entry = archive.getEntry( "templates/" + name );
+            if ( entry == null )
+            {
+                return null;
+            }
+            try
+            {
+                GroovyTemplate groovyTemplate = new GroovyTemplate( name, file.contentAsString() );
+                Method directLoadMethod = GroovyTemplate.class.getDeclaredMethod( "directLoad", byte[].class );
+                directLoadMethod.setAccessible( true );
+                directLoadMethod.invoke( groovyTemplate, readEntry( entry ) );
+                template = groovyTemplate;
+                templates.put( name, template );
+            }
+            catch ( Exception e )
+            {
+                throw new UnexpectedException( "Cannot load precompiled template " + name, e );
+            }
+        }
+        return template;
+    }
+
+    @Override
+    public void onApplicationStop()
+    {
+        closeArchive();
+    }
+
+    private void defineClasses()
+        throws Exception
+    {
+        Method defineClassMethod = ClassLoader.class.getDeclaredMethod( "defineClass", String.class, byte[].class,
+                                                                        int.class, int.class, ProtectionDomain.class );
+        defineClassMethod.setAccessible( true );
+        Method loadPackageMethod = ApplicationClassloader.class.getDeclaredMethod( "loadPackage", String.class );
+        loadPackageMethod.setAccessible( true );
+        Field compiledField = ApplicationClass.class.getDeclaredField( "compiled" );
+        compiledField.setAccessible( true );
+
+        List<Class<?>> allClasses = new ArrayList<Class<?>>();
+        Play.classes.clear();
+        for ( Enumeration<? extends ZipEntry> en = archive.entries(); en.hasMoreElements(); )
+        {
+            ZipEntry entry = en.nextElement();
+            String entryName = entry.getName();
+            if ( entryName.startsWith( "java/" ) && entryName.endsWith( ".class" ) )
+            {
+                String className =
+                    entryName.substring( "java/".length(), entryName.length() - ".class".length() ).replace( '/', '.' );
+                byte[] code = readEntry( entry );
+                loadPackageMethod.invoke( Play.classloader, className );
+                Class<?> javaClass = (Class<?>) defineClassMethod.invoke( Play.classloader, className, code,
+                                                                           Integer.valueOf( 0 ),
+                                                                           Integer.valueOf( code.length ),
+                                                                           Play.classloader.protectionDomain );
+                ApplicationClass applicationClass = new ApplicationClass( className );
+                applicationClass.javaClass = javaClass;
+                compiledField.setBoolean( applicationClass, true );
+                Play.classes.add( applicationClass );
+                allClasses.add( javaClass );
+            }
+        }
+
+        // classes are sorted by name, like in "ApplicationClassloader.getAllClasses()"
+        Collections.sort( allClasses, new Comparator<Class<?>>()
+        {
+            public int compare( Class<?> c1, Class<?> c2 )
+            {
+                return c1.getName().compareTo( c2.getName() );
+            }
+        } );
+        Field allClassesField = ApplicationClassloader.class.getDeclaredField( "allClasses" );
+        allClassesField.setAccessible( true );
+        allClassesField.set( Play.classloader, allClasses );
+        Logger.info( "%d application classes loaded from precompiled archive", allClasses.size() );
+    }
+
+    private byte[] readEntry( ZipEntry entry )
+        throws IOException
+    {
+        InputStream is = archive.getInputStream( entry );
+        try
+        {
+            return IO.readContent( is );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private void closeArchive()
+    {
+        templates.clear();
+        if ( archive != null )
+        {
+            try
+            {
+                archive.close();
+            }
+            catch ( IOException e )
+            {
+                Logger.warn( e, "Cannot close precompiled archive" );
+            }
+            archive = null;
+        }
+    }
+
+}
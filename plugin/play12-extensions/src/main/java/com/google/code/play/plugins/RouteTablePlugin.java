@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.io.UnsupportedEncodingException;
+import java.util.zip.CRC32;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.mvc.Router;
+import play.vfs.VirtualFile;
+
+/**
+ * Loads routes from route table ("precompiled/routes.txt" file generated by Maven Play&#33; Plugin
+ * packaging mojos) in production mode, so Play&#33; does not have to parse routes files at startup.
+ *
+ * Routes are loaded when configuration is read in {@code Play.start()}, before {@code Router.detectChanges()}
+ * is called. In production mode it does not parse routes files if they were already loaded.
+ * The table is not used if any routes file changed after it was generated.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class RouteTablePlugin
+    extends PlayPlugin
+{
+    public static final String TABLE_FILE_NAME = "precompiled/routes.txt";
+
+    @Override
+    public void onConfigurationRead()
+    {
+        if ( !Play.mode.isProd() )
+        {
+            return;
+        }
+        VirtualFile tableFile = Play.getVirtualFile( TABLE_FILE_NAME );
+        if ( tableFile == null || !tableFile.exists() )
+        {
+            return;
+        }
+
+        try
+        {
+            String[] lines = tableFile.contentAsString().split( "\n" );
+            for ( String line : lines )
+            {
+                if ( line.startsWith( "source\t" ) )
+                {
+                    String[] columns = line.split( "\t" );
+                    VirtualFile routesFile = getRoutesFile( columns[1] );
+                    if ( routesFile == null || !routesFile.exists()
+                        || !columns[2].equals( getCrc( routesFile.contentAsString() ) ) )
+                    {
+                        Logger.info( "Route table not used, %s changed", columns[1] );
+                        return;
+                    }
+                }
+            }
+
+            Router.routes.clear();
+            for ( String line : lines )
+            {
+                if ( line.startsWith( "route\t" ) )
+                {
+                    // same arguments as in "Router.parse(String, String, String)"
+                    String[] columns = line.split( "\t", -1 );
+                    VirtualFile routesFile = getRoutesFile( columns[6] );
+                    Router.appendRoute( columns[1], Play.ctxPath + columns[3], columns[4], emptyToNull( columns[5] ),
+                                        emptyToNull( columns[2] ), routesFile.getRealFile().getAbsolutePath(),
+                                        Integer.parseInt( columns[7] ) );
+                }
+            }
+            Router.lastLoading = System.currentTimeMillis();
+            Logger.info( "%d routes loaded from route table", Router.routes.size() );
+            Play.pluginCollection.onRoutesLoaded();
+        }
+        catch ( Exception e )
+        {
+            Logger.warn( e, "Route table not used" );
+            Router.routes.clear();
+            Router.lastLoading = -1L; // routes files will be parsed
+        }
+    }
+
+    private VirtualFile getRoutesFile( String source )
+    {
+        return source.startsWith( "module:" ) ? Play.modulesRoutes.get( source.substring( "module:".length() ) )
+            : Play.routes;
+    }
+
+    private static String getCrc( String content )
+        throws UnsupportedEncodingException
+    {
+        CRC32 crc = new CRC32();
+        crc.update( content.getBytes( "UTF-8" ) );
+        return Long.toHexString( crc.getValue() );
+    }
+
+    private static String emptyToNull( String value )
+    {
+        return value.length() > 0 ? value : null;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import play.Logger;
+import play.Play;
+import play.PlayPlugin;
+import play.exceptions.UnexpectedException;
+import play.libs.IO;
+import play.vfs.VirtualFile;
+
+/**
+ * Verifies shared libraries bundle version in skinny WAR mode.
+ *
+ * Compares shared libraries manifest ("conf/shared-libs.txt" file added to the war file by Maven Play&#33; Plugin
+ * "war" mojo with "warSkinny" parameter) with manifests of bundles installed in container's shared
+ * class loader ("META-INF/play-shared-libs.txt" resources). The application is not started
+ * if the expected bundle version is not installed.
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class SharedLibsPlugin
+    extends PlayPlugin
+{
+    public static final String MANIFEST_FILE_NAME = "conf/shared-libs.txt";
+
+    public static final String BUNDLE_MANIFEST_NAME = "META-INF/play-shared-libs.txt";
+
+    @Override
+    public void onLoad()
+    {
+        VirtualFile manifestFile = Play.getVirtualFile( MANIFEST_FILE_NAME );
+        if ( manifestFile == null || !manifestFile.exists() )
+        {
+            return;
+        }
+
+        String expectedVersion = getVersion( manifestFile.contentAsString() );
+        List<String> installedVersions = new ArrayList<String>();
+        try
+        {
+            Enumeration<URL> bundleManifests = Play.classloader.getResources( BUNDLE_MANIFEST_NAME );
+            while ( bundleManifests.hasMoreElements() )
+            {
+                InputStream is = bundleManifests.nextElement().openStream();
+                try
+                {
+                    installedVersions.add( getVersion( IO.readContentAsString( is ) ) );
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnexpectedException( e );
+        }
+
+        if ( !installedVersions.contains( expectedVersion ) )
+        {
+            throw new UnexpectedException( String.format( "Shared libraries bundle \"%s\" is not installed in container's shared class loader (installed: %s)",
+                                                          expectedVersion, installedVersions ) );
+        }
+        if ( installedVersions.size() > 1 )
+        {
+            Logger.warn( "More than one shared libraries bundle installed: %s", installedVersions );
+        }
+        Logger.info( "Shared libraries bundle \"%s\" verified", expectedVersion );
+    }
+
+    private static String getVersion( String manifest )
+    {
+        String result = null;
+        for ( String line : manifest.split( "\n" ) )
+        {
+            if ( line.startsWith( "version\t" ) )
+            {
+                result = line.substring( "version\t".length() ).trim();
+                break;
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+
+import play.Play;
+import play.PlayPlugin;
+
+/**
+ * Records Play&#33; startup phases timestamps.
+ *
+ * Timestamps are stored in "{@value #PROPERTY_PREFIX}&lt;phase&gt;" system properties (milliseconds
+ * since the epoch), only the first occurrence of every phase is recorded. Launchers (Maven Play&#33; Plugin's
+ * server booter, surefire provider) add their own phases with {@link #mark} and write startup timing report.
+ * The plugin is not listed in "play.plugins" file, launchers recording startup timing {@link #register} it
+ * before {@code Play.init()}. It has the highest index, so its hooks are invoked after the ones of all
+ * other plugins:
+ * <ul>
+ * <li>"pluginsLoaded" - all plugins loaded ({@code onLoad}),</li>
+ * <li>"classesLoading" - {@code Play.start()} started, application classes are going to be compiled
+ * ({@code onConfigurationRead}, in PROD mode precompiled classes are already loaded by
+ * {@code Play.preCompile()}),</li>
+ * <li>"applicationStarting" - application classes and routes loaded, plugins started
+ * ({@code onApplicationStart}),</li>
+ * <li>"applicationStarted" - {@code Play.start()} finished ({@code afterApplicationStart}),</li>
+ * <li>"applicationReady" - server ready ({@code onApplicationReady}).</li>
+ * </ul>
+ *
+ * @author <a href="mailto:gslowikowski@gmail.com">Grzegorz Slowikowski</a>
+ */
+public class StartupTimingPlugin
+    extends PlayPlugin
+{
+    public static final String PROPERTY_PREFIX = "startupTiming.";
+
+    private static final int INDEX = 100000;
+
+    @Override
+    public void onLoad()
+    {
+        mark( "pluginsLoaded" );
+    }
+
+    @Override
+    public void onConfigurationRead()
+    {
+        mark( "classesLoading" );
+    }
+
+    @Override
+    public void onApplicationStart()
+    {
+        mark( "applicationStarting" );
+    }
+
+    @Override
+    public void afterApplicationStart()
+    {
+        mark( "applicationStarted" );
+    }
+
+    @Override
+    public void onApplicationReady()
+    {
+        mark( "applicationReady" );
+    }
+
+    /**
+     * Adds the plugin to Play&#33; plugin collection. Has to be invoked before {@code Play.init()},
+     * which invokes {@code onLoad} hooks of all registered plugins.
+     *
+     * @return {@code false} if the plugin cannot be registered (Play&#33; version without plugin collection)
+     */
+    public static boolean register()
+    {
+        try
+        {
+            StartupTimingPlugin plugin = new StartupTimingPlugin();
+            plugin.index = INDEX;
+            // "PluginCollection.addPlugin(PlayPlugin)" is protected
+            Object pluginCollection = Play.class.getField( "pluginCollection" ).get( null );
+            Method addPluginMethod =
+                pluginCollection.getClass().getDeclaredMethod( "addPlugin", PlayPlugin.class );
+            addPluginMethod.setAccessible( true );
+            addPluginMethod.invoke( pluginCollection, plugin );
+            return true;
+        }
+        catch ( Exception e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Records current time as phase timestamp, if not recorded before.
+     */
+    public static void mark( String phase )
+    {
+        String property = PROPERTY_PREFIX + phase;
+        if ( System.getProperty( property ) == null )
+        {
+            System.setProperty( property, String.valueOf( System.currentTimeMillis() ) );
+        }
+    }
+
+    /**
+     * Returns recorded phases, milliseconds since JVM start, in time order. The first phase is "jvmStart".
+     */
+    public static Map<Long, String> getPhases()
+    {
+        long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        Map<Long, String> result = new TreeMap<Long, String>();
+        result.put( Long.valueOf( 0L ), "jvmStart" );
+        for ( Map.Entry<Object, Object> property : System.getProperties().entrySet() )
+        {
+            String name = String.valueOf( property.getKey() );
+            if ( name.startsWith( PROPERTY_PREFIX ) )
+            {
+                long time = Long.parseLong( String.valueOf( property.getValue() ) ) - jvmStartTime;
+                // phases recorded in the same millisecond keep both
+                while ( result.containsKey( Long.valueOf( time ) ) )
+                {
+                    time++;
+                }
+                result.put( Long.valueOf( time ), name.substring( PROPERTY_PREFIX.length() ) );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns startup timing report in JSON format, one phase per line.
+     */
+    public static String toJson()
+    {
+        StringBuilder result = new StringBuilder();
+        result.append( "{\n" );
+        result.append( "  \"jvmStartTime\": " ).append( ManagementFactory.getRuntimeMXBean().getStartTime() );
+        result.append( ",\n  \"phases\": [\n" );
+        boolean first = true;
+        for ( Map.Entry<Long, String> phase : getPhases().entrySet() )
+        {
+            result.append( first ? "" : ",\n" );
+            result.append( "    { \"name\": \"" ).append( phase.getValue() ).append( "\", \"time\": " );
+            result.append( phase.getKey() ).append( " }" );
+            first = false;
+        }
+        result.append( "\n  ]\n}\n" );
+        return result.toString();
+    }
+
+    /**
+     * Returns one line startup timing summary ("classpathReady 310 ms, playInit 312 ms, ...").
+     */
+    public static String getSummary()
+    {
+        StringBuilder result = new StringBuilder();
+        for ( Map.Entry<Long, String> phase : getPhases().entrySet() )
+        {
+            if ( phase.getKey().longValue() > 0L )
+            {
+                result.append( result.length() > 0 ? ", " : "" );
+                result.append( phase.getValue() ).append( ' ' ).append( phase.getKey() ).append( " ms" );
+            }
+        }
+        return result.toString();
+    }
+
+}
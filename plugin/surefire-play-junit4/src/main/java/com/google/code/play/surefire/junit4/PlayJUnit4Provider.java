@@ -43,6 +43,9 @@ import play.Invoker;
 import play.Play;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.util.Iterator;
 import java.util.List;
@@ -71,6 +74,7 @@ public class PlayJUnit4Provider
 
     public PlayJUnit4Provider( ProviderParameters booterParameters )
     {
+        StartupTiming.mark( "classpathReady" );
         this.providerParameters = booterParameters;
         this.testClassLoader = booterParameters.getTestClassLoader();
         this.consoleLogger = booterParameters.getConsoleLogger();
@@ -213,8 +217,49 @@ public class PlayJUnit4Provider
         File playHome = getPlayHome( applicationPath );
         String playId = getProviderProperty( "play.testId", "test" );
         int playStartTimeout = Integer.parseInt( getProviderProperty( "play.startTimeout", "0" ) );
+        // startup timing file is written only if build directory is known
+        String buildDirectory = getProviderProperty( "play.buildDirectory", null );
+        if ( buildDirectory != null )
+        {
+            StartupTiming.register(); // framework phases
+        }
         runRunnable( new PlayStartRunnable( playHome, applicationPath, playId ), "Play! initialization",
                        playStartTimeout );
+        if ( buildDirectory != null )
+        {
+            writeStartupTiming( new File( buildDirectory, "play/startup-timing-test.json" ) );
+        }
+        String summary = StartupTiming.getSummary();
+        if ( summary != null )
+        {
+            consoleLogger.info( String.format( "Play! startup: %s\n", summary ) );
+        }
+    }
+
+    private void writeStartupTiming( File timingFile )
+    {
+        String json = StartupTiming.toJson();
+        if ( json == null )
+        {
+            return;
+        }
+        try
+        {
+            timingFile.getParentFile().mkdirs();
+            OutputStream os = new FileOutputStream( timingFile );
+            try
+            {
+                os.write( json.getBytes( "UTF-8" ) );
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            consoleLogger.info( String.format( "Cannot write \"%s\" file: %s\n", timingFile.getAbsolutePath(), e ) );
+        }
     }
 
     private void finalizePlayEngine()
@@ -41,11 +41,14 @@ public class PlayStartRunnable
         System.setProperty( "application.path", applicationPath.getAbsolutePath() );
         System.setProperty( "play.id", ( playId != null ? playId : "" ) );
         Play.frameworkPath = playHome;
+        StartupTiming.mark( "playInit" );
         Play.init( applicationPath, playId );
+        StartupTiming.mark( "playInitialized" );
         if ( !Play.started ) // in PROD mode or ... Play! is started automatically
         {
             Play.start();
         }
+        StartupTiming.mark( "playStarted" );
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2015 Grzegorz Slowikowski
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.code.play.surefire.junit4;
+
+import java.util.Arrays;
+
+/**
+ * Delegates to startup timing plugin from "play12-extensions" library (runtime dependency,
+ * not usable with Play&#33; 1.1). Methods do nothing and return {@code null} if the plugin is not available.
+ */
+public class StartupTiming
+{
+    private static final String PLUGIN_CLASS_NAME = "com.google.code.play.plugins.StartupTimingPlugin";
+
+    public static void mark( String phase )
+    {
+        invoke( "mark", phase );
+    }
+
+    public static void register()
+    {
+        invoke( "register" );
+    }
+
+    public static String toJson()
+    {
+        return (String) invoke( "toJson" );
+    }
+
+    public static String getSummary()
+    {
+        return (String) invoke( "getSummary" );
+    }
+
+    private static Object invoke( String methodName, String... args )
+    {
+        try
+        {
+            Class<?>[] parameterTypes = new Class<?>[args.length];
+            Arrays.fill( parameterTypes, String.class );
+            return Class.forName( PLUGIN_CLASS_NAME ).getMethod( methodName, parameterTypes )
+                .invoke( null, (Object[]) args );
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+        catch ( LinkageError e )
+        {
+            return null;
+        }
+    }
+
+}